@@ -91,12 +91,15 @@ public class ActivityHelper
         public static final String SEARCH_PATH          = NAMESPACE + "GALLERY_SEARCH_PATH";
         public static final String DATABASE_PATH        = NAMESPACE + "GALLERY_DATABASE_PATH";
         public static final String CONFIG_PATH          = NAMESPACE + "GALLERY_CONFIG_PATH";
+        public static final String FINGERPRINT_INDEX_PATH = NAMESPACE + "GALLERY_FINGERPRINT_INDEX_PATH";
+        public static final String ROM_INFO_CACHE_PATH  = NAMESPACE + "GALLERY_ROM_INFO_CACHE_PATH";
         public static final String ART_DIR              = NAMESPACE + "GALLERY_ART_PATH";
         public static final String UNZIP_DIR            = NAMESPACE + "GALLERY_UNZIP_PATH";
         public static final String SEARCH_ZIPS          = NAMESPACE + "GALLERY_SEARCH_ZIP";
         public static final String DOWNLOAD_ART         = NAMESPACE + "GALLERY_DOWNLOAD_ART";
         public static final String CLEAR_GALLERY        = NAMESPACE + "GALLERY_CLEAR_GALLERY";
         public static final String SEARCH_SUBDIR        = NAMESPACE + "GALLERY_SEARCH_SUBDIR";
+        public static final String SCAN_THREADS         = NAMESPACE + "GALLERY_SCAN_THREADS";
         public static final String DELETE_PATH          = NAMESPACE + "DELETE_PATH";
         public static final String DELETE_FILTER        = NAMESPACE + "DELETE_FILTER";
         public static final String CHEAT_ARGS           = NAMESPACE + "CHEAT_ARGS";
@@ -337,19 +340,23 @@ public class ActivityHelper
     }
     
     static void startCacheRomInfoService(Context context, ServiceConnection serviceConnection,
-        String searchPath, String databasePath, String configPath, String artDir, String unzipDir,
-        boolean searchZips, boolean downloadArt, boolean clearGallery, boolean searchSubdirectories)
+        String searchPath, String databasePath, String romInfoCachePath, String configPath,
+        String fingerprintIndexPath, String artDir, String unzipDir, boolean searchZips, boolean downloadArt,
+        boolean clearGallery, boolean searchSubdirectories, int scanThreads)
     {
         Intent intent = new Intent(context, CacheRomInfoService.class);
         intent.putExtra(Keys.SEARCH_PATH, searchPath);
         intent.putExtra(Keys.DATABASE_PATH, databasePath);
+        intent.putExtra(Keys.ROM_INFO_CACHE_PATH, romInfoCachePath);
         intent.putExtra(Keys.CONFIG_PATH, configPath);
+        intent.putExtra(Keys.FINGERPRINT_INDEX_PATH, fingerprintIndexPath);
         intent.putExtra(Keys.ART_DIR, artDir);
         intent.putExtra(Keys.UNZIP_DIR, unzipDir);
         intent.putExtra(Keys.SEARCH_ZIPS, searchZips);
         intent.putExtra(Keys.DOWNLOAD_ART, downloadArt);
         intent.putExtra(Keys.CLEAR_GALLERY, clearGallery);
         intent.putExtra(Keys.SEARCH_SUBDIR, searchSubdirectories);
+        intent.putExtra(Keys.SCAN_THREADS, scanThreads);
 
         context.startService(intent);
         context.bindService(intent, serviceConnection, 0);
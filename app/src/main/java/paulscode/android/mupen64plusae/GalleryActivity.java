@@ -49,6 +49,7 @@ import android.view.MenuItem.OnActionExpandListener;
 import org.mupen64plusae.v3.alpha.R;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -59,18 +60,20 @@ import paulscode.android.mupen64plusae.dialog.ConfirmationDialog.PromptConfirmLi
 import paulscode.android.mupen64plusae.dialog.Popups;
 import paulscode.android.mupen64plusae.jni.CoreService;
 import paulscode.android.mupen64plusae.persistent.AppData;
-import paulscode.android.mupen64plusae.persistent.ConfigFile;
 import paulscode.android.mupen64plusae.persistent.GamePrefs;
 import paulscode.android.mupen64plusae.persistent.GlobalPrefs;
-import paulscode.android.mupen64plusae.task.ComputeMd5Task;
+import paulscode.android.mupen64plusae.persistent.RomInfoCache;
 import paulscode.android.mupen64plusae.task.ExtractAssetsTask;
 import paulscode.android.mupen64plusae.task.GalleryRefreshTask;
 import paulscode.android.mupen64plusae.task.GalleryRefreshTask.GalleryRefreshFinishedListener;
+import paulscode.android.mupen64plusae.util.ExtractedRomCache;
 import paulscode.android.mupen64plusae.util.FileUtil;
 import paulscode.android.mupen64plusae.util.LocaleContextWrapper;
 import paulscode.android.mupen64plusae.util.Notifier;
 import paulscode.android.mupen64plusae.util.RomDatabase;
 import paulscode.android.mupen64plusae.util.RomHeader;
+import paulscode.android.mupen64plusae.util.RomStreamReader;
+import paulscode.android.mupen64plusae.util.ThumbnailCache;
 
 import static android.view.View.FOCUS_RIGHT;
 import static paulscode.android.mupen64plusae.ActivityHelper.Keys.ROM_PATH;
@@ -113,9 +116,14 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
     public int galleryHalfSpacing;
     public int galleryColumns = 2;
     public float galleryAspectRatio;
+    public ThumbnailCache thumbnailCache;
 
     // Misc.
     private List<GalleryItem> mGalleryItems = null;
+    private GalleryItem.Adapter mGalleryAdapter = null;
+    private GridLayoutManager mGalleryLayoutManager = null;
+    private GallerySearchIndex mLibrary = null;
+    private List<GalleryItem> mRecentItems = null;
     private GalleryItem mSelectedItem = null;
     private boolean mDragging = false;
 
@@ -180,6 +188,7 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
         // Get app data and user preferences
         mAppData = new AppData( this );
         mGlobalPrefs = new GlobalPrefs( this, mAppData );
+        thumbnailCache = ThumbnailCache.getInstance( mGlobalPrefs.coverArtThumbnailDir );
 
         // Get the ROM path if it was passed from another activity/app
         final Bundle extras = getIntent().getExtras();
@@ -432,7 +441,7 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
             public boolean onMenuItemActionCollapse( MenuItem item )
             {
                 mSearchQuery = "";
-                refreshGridAsync();
+                refreshSearch();
                 return true;
             }
 
@@ -457,7 +466,7 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
             public boolean onQueryTextChange( String query )
             {
                 mSearchQuery = query;
-                refreshGridAsync();
+                refreshSearch();
                 return false;
             }
         } );
@@ -491,6 +500,7 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
         String finalRomPath = givenRomPath;
 
         RomHeader header = new RomHeader(finalRomPath);
+        final boolean isArchive = header.isZip || header.is7Zip;
 
         if(header.isZip)
         {
@@ -502,12 +512,26 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
 
         if(finalRomPath != null)
         {
-            // Asynchronously compute MD5 and launch game when finished
-            final String computedMd5 = ComputeMd5Task.computeMd5( new File( finalRomPath ) );
+            // Read the header and compute the MD5 in a single pass, then launch the game
+            RomStreamReader.Result rom = null;
+            try
+            {
+                rom = new RomStreamReader( false, false ).read( new File( finalRomPath ) );
+            }
+            catch( IOException e )
+            {
+                Log.w( "GalleryActivity", "ROM file could not be read: " + finalRomPath );
+            }
 
-            if(computedMd5 != null)
+            if(rom != null && rom.md5 != null)
             {
-                header = new RomHeader(finalRomPath);
+                final String computedMd5 = rom.md5;
+                header = rom.header;
+
+                if(isArchive)
+                {
+                    ExtractedRomCache.getInstance(mGlobalPrefs.unzippedRomsDir).put(new File(finalRomPath), computedMd5);
+                }
 
                 final RomDatabase database = RomDatabase.getInstance();
 
@@ -698,9 +722,10 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
             }
             else if(id == REMOVE_FROM_LIBRARY_DIALOG_ID && mSelectedItem != null)
             {
-                final ConfigFile config = new ConfigFile( mGlobalPrefs.romInfoCache_cfg );
-                config.remove(mSelectedItem.md5);
-                config.save();
+                final RomInfoCache cache = new RomInfoCache( mGlobalPrefs.romInfoCache_bin,
+                        mGlobalPrefs.romInfoCache_cfg );
+                cache.remove(mSelectedItem.md5);
+                cache.save();
                 mDrawerLayout.closeDrawer( GravityCompat.START, false );
                 refreshGridAsync();
             }
@@ -861,12 +886,14 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
 
     private void refreshRoms(final File startDir, boolean searchZips, boolean downloadArt, boolean clearGallery, boolean searchSubdirectories)
     {
+        // Cover art may be downloaded again
+        thumbnailCache.evictMemory();
         mCacheRomInfoFragment.refreshRoms(startDir, searchZips, downloadArt, clearGallery, searchSubdirectories, mAppData, mGlobalPrefs);
     }
 
     void refreshGridAsync()
     {
-        GalleryRefreshTask galleryRefreshTask = new GalleryRefreshTask(this, this, mGlobalPrefs, mSearchQuery);
+        GalleryRefreshTask galleryRefreshTask = new GalleryRefreshTask(this, this, mGlobalPrefs);
         galleryRefreshTask.execute();
     }
 
@@ -876,17 +903,36 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
         mAppData = new AppData( this );
         mGlobalPrefs = new GlobalPrefs( this, mAppData );
 
-        List<GalleryItem> items = new ArrayList<>();
         List<GalleryItem> recentItems = new ArrayList<>();
 
-        GalleryRefreshTask galleryRefreshTask = new GalleryRefreshTask(this, this, mGlobalPrefs, mSearchQuery);
-        galleryRefreshTask.generateGridItemsAndSaveConfig(items, recentItems);
-        refreshGrid(items, recentItems);
+        GalleryRefreshTask galleryRefreshTask = new GalleryRefreshTask(this, this, mGlobalPrefs);
+        GallerySearchIndex library = galleryRefreshTask.generateGridItemsAndSaveConfig(recentItems);
+        onGalleryRefreshFinished(library, recentItems);
     }
 
     @Override
-    public void onGalleryRefreshFinished(List<GalleryItem> items, List<GalleryItem> recentItems) {
-        refreshGrid(items, recentItems);
+    public void onGalleryRefreshFinished(GallerySearchIndex library, List<GalleryItem> recentItems) {
+        mLibrary = library;
+        mRecentItems = recentItems;
+        refreshSearch();
+    }
+
+    /**
+     * Shows the library items matching the search query, this is done in memory
+     */
+    void refreshSearch()
+    {
+        if (mLibrary == null) {
+            return;
+        }
+
+        List<GalleryItem> items;
+        if (TextUtils.isEmpty(mSearchQuery)) {
+            items = mLibrary.getItems(mGlobalPrefs.getAllowedCountryCodes());
+        } else {
+            items = mLibrary.search(mSearchQuery);
+        }
+        refreshGrid(items, mRecentItems);
     }
 
     synchronized void refreshGrid(List<GalleryItem> items, List<GalleryItem> recentItems){
@@ -905,26 +951,32 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
         }
 
         mGalleryItems = items;
-        mGridView.setAdapter( new GalleryItem.Adapter( this, items ) );
 
-        // Allow the headings to take up the entire width of the layout
-        final List<GalleryItem> finalItems = items;
-        final GridLayoutManager layoutManager = new GridLayoutManagerBetterScrolling( this, galleryColumns );
-        layoutManager.setSpanSizeLookup( new GridLayoutManager.SpanSizeLookup()
+        // Only the items that changed are updated once the grid exists
+        if( mGalleryAdapter == null )
         {
-            @Override
-            public int getSpanSize( int position )
+            mGalleryAdapter = new GalleryItem.Adapter( this );
+            mGridView.setAdapter( mGalleryAdapter );
+
+            // Allow the headings to take up the entire width of the layout
+            mGalleryLayoutManager = new GridLayoutManagerBetterScrolling( this, galleryColumns );
+            mGalleryLayoutManager.setSpanSizeLookup( new GridLayoutManager.SpanSizeLookup()
             {
-                // Headings will take up every span (column) in the grid
-                if( finalItems.get( position ).isHeading )
-                    return galleryColumns;
+                @Override
+                public int getSpanSize( int position )
+                {
+                    // Headings will take up every span (column) in the grid
+                    if( mGalleryAdapter.getItemViewType( position ) == 1 )
+                        return galleryColumns;
 
-                // Games will fit in a single column
-                return 1;
-            }
-        } );
+                    // Games will fit in a single column
+                    return 1;
+                }
+            } );
 
-        mGridView.setLayoutManager( layoutManager );
+            mGridView.setLayoutManager( mGalleryLayoutManager );
+        }
+        mGalleryAdapter.submitList( items );
 
         // Update the grid layout
         galleryMaxWidth = (int) (getResources().getDimension( R.dimen.galleryImageWidth ) * mGlobalPrefs.coverArtScale);
@@ -932,16 +984,23 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
         galleryAspectRatio = galleryMaxWidth * 1.0f
                 / getResources().getDimension( R.dimen.galleryImageHeight )/mGlobalPrefs.coverArtScale;
 
+        // Thumbnails are never shown wider than this
+        thumbnailCache.setWidth( galleryMaxWidth );
+
         final DisplayMetrics metrics = new DisplayMetrics();
         getWindowManager().getDefaultDisplay().getMetrics( metrics );
 
         final int width = metrics.widthPixels - galleryHalfSpacing * 2;
         galleryColumns = (int) Math
                 .ceil( width * 1.0 / ( galleryMaxWidth + galleryHalfSpacing * 2 ) );
+        final int previousWidth = galleryWidth;
         galleryWidth = width / galleryColumns - galleryHalfSpacing * 2;
 
-        layoutManager.setSpanCount( galleryColumns );
-        mGridView.getAdapter().notifyDataSetChanged();
+        mGalleryLayoutManager.setSpanCount( galleryColumns );
+
+        // Every cell needs resizing if the layout changed
+        if( galleryWidth != previousWidth )
+            mGalleryAdapter.notifyDataSetChanged();
         mGridView.setFocusable(false);
         mGridView.setFocusableInTouchMode(false);
     }
@@ -971,9 +1030,9 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
             return;
         }
 
-        // Update the ConfigSection with the new value for lastPlayed
-        final String lastPlayed = Integer.toString( (int) ( new Date().getTime() / 1000 ) );
-        final ConfigFile config = new ConfigFile( mGlobalPrefs.romInfoCache_cfg );
+        // Update the ROM info cache with the new value for lastPlayed
+        final int lastPlayed = (int) ( new Date().getTime() / 1000 );
+        final RomInfoCache cache = new RomInfoCache( mGlobalPrefs.romInfoCache_bin, mGlobalPrefs.romInfoCache_cfg );
         File romFileName = new File(romPath);
 
         String romLegacySaveFileName;
@@ -1001,8 +1060,8 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
         }
 
 
-        config.put(romMd5, "lastPlayed", lastPlayed);
-        config.save();
+        cache.setLastPlayed(romMd5, lastPlayed);
+        cache.save();
 
         ///Drawer layout can be null if this method is called from onCreate
         if (mDrawerLayout != null) {
@@ -1019,15 +1078,23 @@ public class GalleryActivity extends AppCompatActivity implements GameSidebarAct
 
         mSelectedItem = null;
 
-        if(romFileName.exists())
+        // Extracted ROM files are only reused if they are known to be intact
+        final boolean isZipped = !TextUtils.isEmpty(zipPath);
+        final ExtractedRomCache extractedRoms = ExtractedRomCache.getInstance(mGlobalPrefs.unzippedRomsDir);
+        if(isZipped ? extractedRoms.isExtracted(romPath, romMd5) : romFileName.exists())
         {
+            if(isZipped)
+            {
+                extractedRoms.markUsed(romPath);
+            }
+
             // Launch the game activity
             ActivityHelper.startGameActivity(this, romPath, romMd5, romCrc, romHeaderName, romCountryCode,
                     romArtPath, romGoodName, romLegacySaveFileName, isRestarting);
         }
         else
         {
-            if( config.get(romMd5) != null)
+            if( cache.get(romMd5) != null)
             {
                 if(!TextUtils.isEmpty(zipPath))
                 {
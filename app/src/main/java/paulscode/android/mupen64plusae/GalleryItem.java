@@ -21,7 +21,10 @@
 package paulscode.android.mupen64plusae;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import android.text.TextUtils;
 import android.util.TypedValue;
@@ -39,7 +42,6 @@ import org.mupen64plusae.v3.alpha.R;
 import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.Comparator;
-import java.util.List;
 
 import paulscode.android.mupen64plusae.task.LoadBitmapTask;
 import paulscode.android.mupen64plusae.util.CountryCode;
@@ -57,6 +59,7 @@ public class GalleryItem
     final File zipFile;
     public final WeakReference<Context>  context;
     final boolean isHeading;
+    final boolean isRecent;
     BitmapDrawable artBitmap;
     public final float scale;
     
@@ -73,6 +76,7 @@ public class GalleryItem
         this.artBitmap = null;
         this.lastPlayed = lastPlayed;
         this.isHeading = false;
+        this.isRecent = false;
         this.scale = scale;
         
         this.romFile = TextUtils.isEmpty( romPath ) ? null : new File( romPath );
@@ -84,6 +88,7 @@ public class GalleryItem
         this.goodName = headingName;
         this.context = new WeakReference<>(context);
         this.isHeading = true;
+        this.isRecent = false;
         this.md5 = "";
         this.crc = "";
         this.headerName = "";
@@ -96,6 +101,30 @@ public class GalleryItem
         this.scale = 1.0f;
     }
     
+    /**
+     * Copies a ROM for the recently played section, where it is listed a second time.
+     *
+     * @param item     The library item
+     * @param isRecent True if the copy is listed under recently played
+     */
+    public GalleryItem( GalleryItem item, boolean isRecent )
+    {
+        this.md5 = item.md5;
+        this.crc = item.crc;
+        this.headerName = item.headerName;
+        this.countryCode = item.countryCode;
+        this.goodName = item.goodName;
+        this.context = item.context;
+        this.artPath = item.artPath;
+        this.artBitmap = item.artBitmap;
+        this.lastPlayed = item.lastPlayed;
+        this.isHeading = item.isHeading;
+        this.isRecent = isRecent;
+        this.scale = item.scale;
+        this.romFile = item.romFile;
+        this.zipFile = item.zipFile;
+    }
+    
     void loadBitmap()
     {
         if( artBitmap != null )
@@ -198,21 +227,55 @@ public class GalleryItem
         }
     }
     
-    public static class Adapter extends RecyclerView.Adapter<ViewHolder>
+    /**
+     * Items are the same ROM if they have the same MD5, whatever else changed about them, and are
+     * listed in the same section. Headings are identified by their name.
+     */
+    private static final DiffUtil.ItemCallback<GalleryItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<GalleryItem>()
     {
-        private final WeakReference<Context> mContext;
-        private final List<GalleryItem> mObjects;
-        
-        public Adapter( Context context, List<GalleryItem> objects )
+        @Override
+        public boolean areItemsTheSame( GalleryItem oldItem, GalleryItem newItem )
         {
-            mContext = new WeakReference<>(context);
-            mObjects = objects;
+            if( oldItem.isHeading || newItem.isHeading )
+                return oldItem.isHeading == newItem.isHeading && TextUtils.equals( oldItem.goodName, newItem.goodName );
+
+            // A recently played ROM is listed twice, once in each section
+            return oldItem.md5.equals( newItem.md5 ) && oldItem.isRecent == newItem.isRecent;
         }
-        
+
         @Override
-        public int getItemCount()
+        public boolean areContentsTheSame( GalleryItem oldItem, GalleryItem newItem )
         {
-            return mObjects.size();
+            // The cell keeps the old item if nothing changed, so it must still launch the same way
+            return TextUtils.equals( oldItem.toString(), newItem.toString() )
+                    && TextUtils.equals( oldItem.artPath, newItem.artPath )
+                    && oldItem.scale == newItem.scale
+                    && oldItem.lastPlayed == newItem.lastPlayed
+                    && TextUtils.equals( oldItem.crc, newItem.crc )
+                    && TextUtils.equals( oldItem.headerName, newItem.headerName )
+                    && oldItem.countryCode == newItem.countryCode
+                    && equals( oldItem.romFile, newItem.romFile )
+                    && equals( oldItem.zipFile, newItem.zipFile );
+        }
+
+        private boolean equals( File oldFile, File newFile )
+        {
+            return oldFile == null ? newFile == null : oldFile.equals( newFile );
+        }
+    };
+
+    /**
+     * Lists gallery items, new lists are compared with the current one on a background thread so
+     * that only the cells that changed are bound again.
+     */
+    public static class Adapter extends ListAdapter<GalleryItem, ViewHolder>
+    {
+        private final WeakReference<Context> mContext;
+        
+        public Adapter( Context context )
+        {
+            super( DIFF_CALLBACK );
+            mContext = new WeakReference<>(context);
         }
         
         @Override
@@ -224,7 +287,7 @@ public class GalleryItem
         @Override
         public int getItemViewType( int position )
         {
-            return mObjects.get( position ).isHeading ? 1 : 0;
+            return getItem( position ).isHeading ? 1 : 0;
         }
         
         public void onBindViewHolder( ViewHolder holder, int position )
@@ -242,7 +305,7 @@ public class GalleryItem
             
             // Called by RecyclerView to display the data at the specified position.
             View view = holder.itemView;
-            GalleryItem item = mObjects.get( position );
+            GalleryItem item = getItem( position );
             holder.item = item;
             
             if( item != null )
@@ -278,11 +341,20 @@ public class GalleryItem
                         tv1.setTextSize( TypedValue.COMPLEX_UNIT_DIP, 13.0f*item.scale );
                         artView.setVisibility( View.VISIBLE );
 
-                        artView.setImageResource( R.drawable.default_coverart );
-
-                        //Load the real cover art in a background task
-                        holder.mLoadBitmapTask = new LoadBitmapTask(tempContext, item.artPath, artView);
-                        holder.mLoadBitmapTask.execute((String) null);
+                        // Use the cached thumbnail if there is one, otherwise load the real
+                        // cover art in a background task
+                        Bitmap thumbnail = activity.thumbnailCache.getFromMemory( item.artPath );
+                        if( thumbnail != null )
+                        {
+                            artView.setImageBitmap( thumbnail );
+                            artView.setScaleType( ImageView.ScaleType.FIT_CENTER );
+                        }
+                        else
+                        {
+                            artView.setImageResource( R.drawable.default_coverart );
+                            holder.mLoadBitmapTask = new LoadBitmapTask( activity.thumbnailCache, item.artPath, artView );
+                            holder.mLoadBitmapTask.start();
+                        }
 
                         artView.getLayoutParams().width = activity.galleryWidth;
                         artView.getLayoutParams().height = (int) ( activity.galleryWidth / activity.galleryAspectRatio );
@@ -0,0 +1,337 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae;
+
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import paulscode.android.mupen64plusae.util.CountryCode;
+
+/**
+ * The whole gallery library, indexed in memory so that searches need no file I/O.
+ * <p>
+ * Every sequence of one to three characters in the good name, base name and header name of each ROM
+ * is indexed. The ROMs are narrowed down to the shortest posting list among the trigrams of the
+ * search tokens, or the tokens themselves if shorter, then every token is checked against those
+ * ROMs only. Matches are ranked by how well the tokens match, ROMs
+ * matching equally well keep their library order.
+ */
+public class GallerySearchIndex
+{
+    private static final int SCORE_NAME_PREFIX = 4;
+    private static final int SCORE_WORD_PREFIX = 2;
+    private static final int SCORE_SUBSTRING = 1;
+
+    private final List<GalleryItem> mItems;
+
+    /** Lower case names of each item, the shown name first, separated by new lines */
+    private final String[] mText;
+
+    /** Longest character sequence indexed, longer tokens are looked up by their trigrams */
+    private static final int MAX_GRAM_LENGTH = 3;
+
+    /** Indices of the items containing each sequence of up to three characters, in ascending order */
+    private final HashMap<Long, int[]> mGrams;
+
+    /**
+     * Collects the library items, in the order they should be listed.
+     */
+    public static class Builder
+    {
+        private final List<Entry> mEntries = new ArrayList<>();
+
+        private static class Entry
+        {
+            final GalleryItem item;
+            final String text;
+
+            Entry( GalleryItem item, String text )
+            {
+                this.item = item;
+                this.text = text;
+            }
+        }
+
+        /**
+         * Adds an item to the library.
+         *
+         * @param item the item to add
+         * @param names names the item can be found by, besides its shown name and header name,
+         *        null entries are ignored
+         */
+        public void add( GalleryItem item, String... names )
+        {
+            final StringBuilder text = new StringBuilder( item.toString().toLowerCase( Locale.US ) );
+            for( final String name : names )
+            {
+                if( !TextUtils.isEmpty( name ) )
+                    text.append( '\n' ).append( name.toLowerCase( Locale.US ) );
+            }
+            if( !TextUtils.isEmpty( item.headerName ) )
+                text.append( '\n' ).append( item.headerName.toLowerCase( Locale.US ) );
+
+            mEntries.add( new Entry( item, text.toString() ) );
+        }
+
+        /**
+         * Sorts the items added so far.
+         *
+         * @param comparator the order to list items in
+         */
+        public void sort( final Comparator<GalleryItem> comparator )
+        {
+            Collections.sort( mEntries, new Comparator<Entry>()
+            {
+                @Override
+                public int compare( Entry lhs, Entry rhs )
+                {
+                    return comparator.compare( lhs.item, rhs.item );
+                }
+            } );
+        }
+
+        public GallerySearchIndex build()
+        {
+            final List<GalleryItem> items = new ArrayList<>( mEntries.size() );
+            final String[] text = new String[mEntries.size()];
+            for( int i = 0; i < text.length; i++ )
+            {
+                items.add( mEntries.get( i ).item );
+                text[i] = mEntries.get( i ).text;
+            }
+            return new GallerySearchIndex( items, text );
+        }
+    }
+
+    private GallerySearchIndex( List<GalleryItem> items, String[] text )
+    {
+        mItems = items;
+        mText = text;
+
+        // Count first so that every posting list is allocated once at its final size. Each count
+        // also holds the last item counted, an item only counts once per gram.
+        final HashMap<Long, int[]> counts = new HashMap<>();
+        for( int i = 0; i < text.length; i++ )
+        {
+            final String itemText = text[i];
+            for( int length = 1; length <= MAX_GRAM_LENGTH; length++ )
+            {
+                for( int j = 0; j + length <= itemText.length(); j++ )
+                {
+                    final long gram = getGram( itemText, j, length );
+                    if( gram < 0 )
+                        continue;
+
+                    int[] count = counts.get( gram );
+                    if( count == null )
+                    {
+                        count = new int[] { 0, -1 };
+                        counts.put( gram, count );
+                    }
+                    if( count[1] != i )
+                    {
+                        count[0]++;
+                        count[1] = i;
+                    }
+                }
+            }
+        }
+
+        mGrams = new HashMap<>( counts.size() * 2 );
+        for( int i = 0; i < text.length; i++ )
+        {
+            final String itemText = text[i];
+            for( int length = 1; length <= MAX_GRAM_LENGTH; length++ )
+            {
+                for( int j = 0; j + length <= itemText.length(); j++ )
+                {
+                    final long gram = getGram( itemText, j, length );
+                    if( gram < 0 )
+                        continue;
+
+                    int[] postings = mGrams.get( gram );
+                    final int[] count = counts.get( gram );
+                    if( postings == null )
+                    {
+                        postings = new int[count[0]];
+                        mGrams.put( gram, postings );
+
+                        // Reuse the count as the number of postings filled so far
+                        count[0] = 0;
+                        count[1] = -1;
+                    }
+                    if( count[1] != i )
+                    {
+                        postings[count[0]++] = i;
+                        count[1] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs up to three characters and their count in a key, or returns -1 if they span two names.
+     */
+    private static long getGram( String text, int index, int length )
+    {
+        long gram = length;
+        for( int i = index; i < index + length; i++ )
+        {
+            final char c = text.charAt( i );
+            if( c == '\n' )
+                return -1;
+
+            gram = ( gram << 16 ) | c;
+        }
+        return gram;
+    }
+
+    /**
+     * @return the number of items in the library
+     */
+    public int size()
+    {
+        return mItems.size();
+    }
+
+    /**
+     * Returns the library items from the given countries, in library order.
+     *
+     * @param countryCodes the countries to list
+     * @return the items from those countries
+     */
+    public List<GalleryItem> getItems( Collection<CountryCode> countryCodes )
+    {
+        final List<GalleryItem> items = new ArrayList<>( mItems.size() );
+        for( final GalleryItem item : mItems )
+        {
+            if( countryCodes.contains( item.countryCode ) )
+                items.add( item );
+        }
+        return items;
+    }
+
+    /**
+     * Returns the items whose names contain every space separated token of a query, whatever their
+     * country, best matches first.
+     *
+     * @param query the search query
+     * @return the matching items
+     */
+    public List<GalleryItem> search( String query )
+    {
+        final List<String> tokens = new ArrayList<>();
+        for( final String token : query.toLowerCase( Locale.US ).split( " " ) )
+        {
+            if( token.length() > 0 )
+                tokens.add( token );
+        }
+
+        if( tokens.isEmpty() )
+            return new ArrayList<>( mItems );
+
+        // Only the items in the shortest posting list can possibly match
+        int[] candidates = null;
+        for( final String token : tokens )
+        {
+            final int length = Math.min( token.length(), MAX_GRAM_LENGTH );
+            for( int j = 0; j + length <= token.length(); j++ )
+            {
+                final int[] postings = mGrams.get( getGram( token, j, length ) );
+                if( postings == null )
+                    return new ArrayList<>();
+
+                if( candidates == null || postings.length < candidates.length )
+                    candidates = postings;
+            }
+        }
+
+        final int[] matches = new int[candidates.length];
+        final int[] scores = new int[candidates.length];
+        int matchCount = 0;
+        int maxScore = 0;
+        for( final int index : candidates )
+        {
+            final int score = getScore( mText[index], tokens );
+            if( score > 0 )
+            {
+                matches[matchCount] = index;
+                scores[matchCount] = score;
+                matchCount++;
+                maxScore = Math.max( maxScore, score );
+            }
+        }
+
+        // Bucket the matches by score, equal matches stay in library order
+        final int[] bucketStarts = new int[maxScore + 2];
+        for( int i = 0; i < matchCount; i++ )
+            bucketStarts[maxScore - scores[i] + 1]++;
+        for( int i = 1; i < bucketStarts.length; i++ )
+            bucketStarts[i] += bucketStarts[i - 1];
+
+        final GalleryItem[] results = new GalleryItem[matchCount];
+        for( int i = 0; i < matchCount; i++ )
+            results[bucketStarts[maxScore - scores[i]]++] = mItems.get( matches[i] );
+        return new ArrayList<>( Arrays.asList( results ) );
+    }
+
+    /**
+     * @return how well the tokens match the text, or 0 if any token is missing
+     */
+    private static int getScore( String text, List<String> tokens )
+    {
+        int score = 0;
+        for( final String token : tokens )
+        {
+            int index = text.indexOf( token );
+            if( index < 0 )
+                return 0;
+
+            if( index == 0 )
+            {
+                score += SCORE_NAME_PREFIX;
+                continue;
+            }
+
+            int tokenScore = SCORE_SUBSTRING;
+            while( index >= 0 )
+            {
+                if( !Character.isLetterOrDigit( text.charAt( index - 1 ) ) )
+                {
+                    tokenScore = SCORE_WORD_PREFIX;
+                    break;
+                }
+                index = text.indexOf( token, index + 1 );
+            }
+            score += tokenScore;
+        }
+        return score;
+    }
+}
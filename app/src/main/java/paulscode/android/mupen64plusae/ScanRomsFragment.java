@@ -200,9 +200,10 @@ public class ScanRomsFragment extends Fragment implements CacheRomInfoListener
 
         // Asynchronously search for ROMs
         ActivityHelper.startCacheRomInfoService(activity.getApplicationContext(), mServiceConnection,
-            mStartDir.getAbsolutePath(), mAppData.mupen64plus_ini, mGlobalPrefs.romInfoCache_cfg,
-            mGlobalPrefs.coverArtDir, mGlobalPrefs.unzippedRomsDir, mSearchZips,
-            mDownloadArt, mClearGallery, mSearchSubdirectories);
+            mStartDir.getAbsolutePath(), mAppData.mupen64plus_ini, mGlobalPrefs.romInfoCache_bin,
+            mGlobalPrefs.romInfoCache_cfg, mGlobalPrefs.romFingerprintIndex_dat, mGlobalPrefs.coverArtDir,
+            mGlobalPrefs.unzippedRomsDir, mSearchZips, mDownloadArt, mClearGallery, mSearchSubdirectories,
+            mGlobalPrefs.romScanThreads);
     }
     
     public boolean IsInProgress()
@@ -402,6 +402,9 @@ public class SplashActivity extends AppCompatActivity implements ExtractAssetsLi
             mAppData.putAssetCheckNeeded( false );
             CheatUtils.mergeCheatFiles( mAppData.mupencheat_default, mGlobalPrefs.customCheats_txt, mAppData.mupencheat_txt );
 
+            // The ROM database may have been replaced, index it now rather than on first lookup
+            RomDatabase.writeIndex( mAppData.mupen64plus_ini );
+
             if(!RomDatabase.getInstance().hasDatabaseFile())
             {
                 RomDatabase.getInstance().setDatabaseFile(mAppData.mupen64plus_ini);
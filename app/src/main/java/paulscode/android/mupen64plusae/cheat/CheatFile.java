@@ -239,10 +239,12 @@ class CheatFile
      */
     public CheatSection match( String pattern )
     {
-        for( String key : mSections.keySet() )
+        // Compile the pattern once rather than once per section
+        Matcher matcher = Pattern.compile( pattern ).matcher( "" );
+        for( CheatSection section : mSections.values() )
         {
-            if( key.matches( pattern ) )
-                return mSections.get( key );
+            if( matcher.reset( section.key ).matches() )
+                return section;
         }
         return null;
     }
@@ -262,6 +264,17 @@ class CheatFile
         }
     }
     
+    /**
+     * Removes the cheat section with the specified key from memory. Note that the operation is not
+     * actually persisted to disk until the {@link #save()} method is called.
+     * 
+     * @param key the key of the cheat section to remove
+     */
+    public void remove( String key )
+    {
+        mSections.remove( key );
+    }
+    
     /**
      * Removes all cheat sections from memory. Note that the operation is not actually persisted to
      * disk until the {@link #save()} method is called.
@@ -0,0 +1,296 @@
+/**
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.cheat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+import android.util.Log;
+
+/**
+ * Byte ranges of the ROM sections of a cheat file, so that the cheats of one ROM can be read
+ * without going through the whole file.
+ * <p>
+ * The index is kept in a sidecar file next to the cheat file, along with the size and modification
+ * time of the cheat file it was built from. It is rebuilt whenever those don't match.
+ */
+class CheatIndex
+{
+    private static final int INDEX_MAGIC = 0x4D363445;
+    private static final int INDEX_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final byte[] SECTION_START = "crc ".getBytes( UTF_8 );
+
+    /** Offset and length of each section, by section key */
+    private final HashMap<String, long[]> mSections;
+
+    private CheatIndex( HashMap<String, long[]> sections )
+    {
+        mSections = sections;
+    }
+
+    /**
+     * Loads the index of a cheat file, building it first if it is missing or out of date.
+     *
+     * @param filename the path of the cheat file
+     * @return the index, or null if the cheat file could not be read
+     */
+    static synchronized CheatIndex load( String filename )
+    {
+        final File cheatFile = new File( filename );
+        final File indexFile = new File( filename + ".idx" );
+
+        HashMap<String, long[]> sections = readIndex( indexFile, cheatFile );
+        if( sections == null )
+        {
+            sections = buildIndex( cheatFile );
+            if( sections == null )
+                return null;
+
+            writeIndex( indexFile, cheatFile, sections );
+        }
+
+        return new CheatIndex( sections );
+    }
+
+    /**
+     * Reads the raw text of one ROM section, starting with its "crc" line.
+     *
+     * @param filename the path of the cheat file this index was loaded from
+     * @param key the CRC and country code of the ROM (ex: 01A23456-789012B3-C:4A)
+     * @return the section text, or null if there is no such section
+     * @throws IOException if a read error occurs
+     */
+    String readSection( String filename, String key ) throws IOException
+    {
+        final long[] range = mSections.get( key );
+        if( range == null )
+            return null;
+
+        final byte[] bytes = new byte[(int) range[1]];
+        final RandomAccessFile file = new RandomAccessFile( filename, "r" );
+        try
+        {
+            file.seek( range[0] );
+            file.readFully( bytes );
+        }
+        finally
+        {
+            file.close();
+        }
+        return new String( bytes, UTF_8 );
+    }
+
+    /**
+     * Finds every line starting with "crc " in a single pass over the bytes of the file.
+     */
+    private static HashMap<String, long[]> buildIndex( File cheatFile )
+    {
+        final HashMap<String, long[]> sections = new HashMap<>();
+
+        InputStream in = null;
+        try
+        {
+            in = new BufferedInputStream( new FileInputStream( cheatFile ), 0x10000 );
+
+            final StringBuilder key = new StringBuilder();
+            long offset = 0;
+            long lineStart = 0;
+            long[] current = null;
+            int matched = 0;
+            boolean readingKey = false;
+            int b;
+            while( ( b = in.read() ) != -1 )
+            {
+                if( b == '\n' || b == '\r' )
+                {
+                    if( readingKey )
+                    {
+                        current = startSection( sections, current, key.toString(), lineStart );
+                        readingKey = false;
+                    }
+                    matched = 0;
+                    lineStart = offset + 1;
+                }
+                else if( readingKey )
+                {
+                    key.append( (char) b );
+                }
+                else if( matched >= 0 && offset - lineStart == matched )
+                {
+                    if( b == SECTION_START[matched] )
+                    {
+                        if( ++matched == SECTION_START.length )
+                        {
+                            key.setLength( 0 );
+                            readingKey = true;
+                        }
+                    }
+                    else
+                    {
+                        matched = -1;
+                    }
+                }
+                offset++;
+            }
+
+            if( readingKey )
+                current = startSection( sections, current, key.toString(), lineStart );
+            if( current != null )
+                current[1] = offset - current[0];
+        }
+        catch( IOException e )
+        {
+            Log.e( "CheatIndex", "Could not read " + cheatFile.getPath() );
+            return null;
+        }
+        finally
+        {
+            if( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * Ends the current section where the next one starts and records the next one.
+     */
+    private static long[] startSection( HashMap<String, long[]> sections, long[] current, String key,
+            long start )
+    {
+        if( current != null )
+            current[1] = start - current[0];
+
+        final long[] range = { start, 0 };
+
+        // Keep the first section if a key is repeated, as a search through the file would
+        if( !sections.containsKey( key ) )
+            sections.put( key, range );
+        return range;
+    }
+
+    private static HashMap<String, long[]> readIndex( File indexFile, File cheatFile )
+    {
+        if( !indexFile.exists() )
+            return null;
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) );
+            if( in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || in.readLong() != cheatFile.length() || in.readLong() != cheatFile.lastModified() )
+            {
+                return null;
+            }
+
+            final int count = in.readInt();
+            final HashMap<String, long[]> sections = new HashMap<>( count * 2 );
+            for( int i = 0; i < count; i++ )
+            {
+                final String key = in.readUTF();
+                sections.put( key, new long[] { in.readLong(), in.readLong() } );
+            }
+            return sections;
+        }
+        catch( IOException e )
+        {
+            Log.w( "CheatIndex", "Rebuilding unreadable index " + indexFile.getPath() );
+            return null;
+        }
+        finally
+        {
+            if( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+
+    private static void writeIndex( File indexFile, File cheatFile, HashMap<String, long[]> sections )
+    {
+        final File tempFile = new File( indexFile.getPath() + ".tmp" );
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+            out.writeInt( INDEX_MAGIC );
+            out.writeInt( INDEX_VERSION );
+            out.writeLong( cheatFile.length() );
+            out.writeLong( cheatFile.lastModified() );
+            out.writeInt( sections.size() );
+            for( HashMap.Entry<String, long[]> entry : sections.entrySet() )
+            {
+                out.writeUTF( entry.getKey() );
+                out.writeLong( entry.getValue()[0] );
+                out.writeLong( entry.getValue()[1] );
+            }
+            out.close();
+            out = null;
+
+            if( !tempFile.renameTo( indexFile ) )
+                Log.e( "CheatIndex", "Unable to rename " + tempFile.getPath() );
+        }
+        catch( IOException e )
+        {
+            // Not fatal, the index is just rebuilt next time
+            Log.e( "CheatIndex", "IOException writing file " + indexFile.getPath() );
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.cheat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+/**
+ * What went into the last cheat file merge: the default cheat file and the merged file as they
+ * were, and a digest of each ROM section of the user cheat file. Comparing it to the current files
+ * tells whether the merge can be skipped or which ROM sections need to be merged again.
+ */
+class CheatMergeState
+{
+    private static final int STATE_MAGIC = 0x4D36344A;
+    private static final int STATE_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private final long mDefaultLength;
+    private final long mDefaultModified;
+    private final long mMergedLength;
+    private final long mMergedModified;
+
+    /** Digest of each ROM section of the user cheat file, by section key */
+    final HashMap<String, String> userSections;
+
+    private CheatMergeState( long defaultLength, long defaultModified, long mergedLength,
+            long mergedModified, HashMap<String, String> userSections )
+    {
+        mDefaultLength = defaultLength;
+        mDefaultModified = defaultModified;
+        mMergedLength = mergedLength;
+        mMergedModified = mergedModified;
+        this.userSections = userSections;
+    }
+
+    /**
+     * Describes the cheat files as they are now.
+     *
+     * @param defaultFile the default cheat file
+     * @param userFile the user cheat file, which may not exist
+     * @param mergedFile the merged cheat file
+     * @return the current state, or null if the user cheat file could not be read
+     */
+    static CheatMergeState fromFiles( File defaultFile, File userFile, File mergedFile )
+    {
+        final HashMap<String, String> userSections = digestSections( userFile );
+        if( userSections == null )
+            return null;
+
+        return new CheatMergeState( defaultFile.length(), defaultFile.lastModified(),
+                mergedFile.length(), mergedFile.lastModified(), userSections );
+    }
+
+    /**
+     * @param mergedFile the merged cheat file, just written
+     * @return this state, with the merged file as it is now
+     */
+    CheatMergeState withMergedFile( File mergedFile )
+    {
+        return new CheatMergeState( mDefaultLength, mDefaultModified, mergedFile.length(),
+                mergedFile.lastModified(), userSections );
+    }
+
+    /**
+     * @return true if the default cheat file and the merged file are the same in both states
+     */
+    boolean isSameBase( CheatMergeState other )
+    {
+        return mDefaultLength == other.mDefaultLength && mDefaultModified == other.mDefaultModified
+                && mMergedLength == other.mMergedLength && mMergedModified == other.mMergedModified;
+    }
+
+    /**
+     * @return the keys of the user ROM sections that were added, removed or changed between states
+     */
+    Set<String> getChangedUserSections( CheatMergeState other )
+    {
+        final Set<String> changed = new HashSet<>();
+        for( Map.Entry<String, String> entry : userSections.entrySet() )
+        {
+            if( !entry.getValue().equals( other.userSections.get( entry.getKey() ) ) )
+                changed.add( entry.getKey() );
+        }
+        for( String key : other.userSections.keySet() )
+        {
+            if( !userSections.containsKey( key ) )
+                changed.add( key );
+        }
+        return changed;
+    }
+
+    /**
+     * Splits a cheat file into its ROM sections, the same way {@link CheatFile} does, and digests
+     * the text of each one.
+     */
+    private static HashMap<String, String> digestSections( File file )
+    {
+        final HashMap<String, String> sections = new HashMap<>();
+
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            Log.e( "CheatMergeState", "MD5 is not available" );
+            return null;
+        }
+
+        BufferedReader reader;
+        try
+        {
+            reader = new BufferedReader( new FileReader( file ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            // No user cheats
+            return sections;
+        }
+
+        try
+        {
+            String key = null;
+            String fullLine;
+            while( ( fullLine = reader.readLine() ) != null )
+            {
+                if( fullLine.startsWith( "crc " ) )
+                {
+                    putSection( sections, key, digest );
+                    key = fullLine.substring( 4 );
+                }
+                else if( key != null )
+                {
+                    digest.update( fullLine.getBytes( UTF_8 ) );
+                    digest.update( (byte) '\n' );
+                }
+            }
+            putSection( sections, key, digest );
+        }
+        catch( IOException e )
+        {
+            Log.e( "CheatMergeState", "Could not read " + file.getPath() );
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+        return sections;
+    }
+
+    private static void putSection( HashMap<String, String> sections, String key, MessageDigest digest )
+    {
+        final byte[] hash = digest.digest();
+        if( key == null )
+            return;
+
+        // A repeated key replaces the earlier section, as in CheatFile
+
+        final StringBuilder hex = new StringBuilder( hash.length * 2 );
+        for( byte b : hash )
+            hex.append( String.format( "%02x", b ) );
+        sections.put( key, hex.toString() );
+    }
+
+    /**
+     * Reads the state saved by the last merge.
+     *
+     * @param stateFile file the state was saved to
+     * @return the saved state, or null if there is none
+     */
+    static CheatMergeState read( File stateFile )
+    {
+        if( !stateFile.exists() )
+            return null;
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( stateFile ) ) );
+            if( in.readInt() != STATE_MAGIC || in.readInt() != STATE_VERSION )
+                return null;
+
+            final long defaultLength = in.readLong();
+            final long defaultModified = in.readLong();
+            final long mergedLength = in.readLong();
+            final long mergedModified = in.readLong();
+
+            final int count = in.readInt();
+            final HashMap<String, String> userSections = new HashMap<>( count * 2 );
+            for( int i = 0; i < count; i++ )
+            {
+                final String key = in.readUTF();
+                userSections.put( key, in.readUTF() );
+            }
+            return new CheatMergeState( defaultLength, defaultModified, mergedLength, mergedModified,
+                    userSections );
+        }
+        catch( IOException e )
+        {
+            Log.w( "CheatMergeState", "Ignoring unreadable " + stateFile.getPath() );
+            return null;
+        }
+        finally
+        {
+            if( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves this state for the next merge.
+     *
+     * @param stateFile file to save the state to
+     */
+    void write( File stateFile )
+    {
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( stateFile ) ) );
+            out.writeInt( STATE_MAGIC );
+            out.writeInt( STATE_VERSION );
+            out.writeLong( mDefaultLength );
+            out.writeLong( mDefaultModified );
+            out.writeLong( mMergedLength );
+            out.writeLong( mMergedModified );
+            out.writeInt( userSections.size() );
+            for( Map.Entry<String, String> entry : userSections.entrySet() )
+            {
+                out.writeUTF( entry.getKey() );
+                out.writeUTF( entry.getValue() );
+            }
+        }
+        catch( IOException e )
+        {
+            // Not fatal, the files are just merged in full next time
+            Log.e( "CheatMergeState", "IOException writing file " + stateFile.getPath() );
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+}
@@ -22,13 +22,13 @@ package paulscode.android.mupen64plusae.cheat;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Locale;
+import java.util.Set;
 
 import org.mupen64plusae.v3.alpha.R;
 
@@ -63,49 +63,147 @@ public class CheatUtils
     
     public static void mergeCheatFiles( String defaultpath, String userpath, String volatilepath )
     {        
-        // Reset the volatile cheatfile to the default data
         File cheat_volatile = new File( volatilepath );
         File cheat_default = new File( defaultpath );
-        FileUtil.copyFile( cheat_default, cheat_volatile );
-        
-        // Merge user cheats if they exist
         File cheat_user = new File( userpath );
-        if( cheat_user.exists() )
+        
+        // Skip the merge if nothing changed since the last one, or only merge the ROM sections
+        // that the user changed if that is all that changed
+        File stateFile = new File( volatilepath + ".merge" );
+        CheatMergeState previousState = CheatMergeState.read( stateFile );
+        CheatMergeState state = CheatMergeState.fromFiles( cheat_default, cheat_user, cheat_volatile );
+        
+        Set<String> changedSections = null;
+        if( previousState != null && state != null && cheat_volatile.exists() && state.isSameBase( previousState ) )
+        {
+            changedSections = state.getChangedUserSections( previousState );
+            if( changedSections.isEmpty() )
+                return;
+        }
+        
+        // Forget the previous merge in case this one doesn't finish
+        if( stateFile.exists() && !stateFile.delete() )
+            Log.w( "CheatUtils", "Unable to delete " + stateFile.getPath() );
+        
+        boolean success;
+        if( changedSections != null )
         {
-            CheatFile cheat_v = new CheatFile( volatilepath, true );
-            CheatFile cheat_u = new CheatFile( userpath, true );
+            success = patchCheatFile( defaultpath, userpath, volatilepath, changedSections );
+        }
+        else
+        {
+            // Reset the volatile cheatfile to the default data
+            success = FileUtil.copyFile( cheat_default, cheat_volatile );
             
-            for( String key : cheat_u.keySet() )
+            // Merge user cheats if they exist
+            if( success && cheat_user.exists() )
             {
-                if( !CheatFile.NO_KEY.equals( key ) )
+                CheatFile cheat_v = new CheatFile( volatilepath, true );
+                CheatFile cheat_u = new CheatFile( userpath, true );
+                
+                for( String key : cheat_u.keySet() )
                 {
-                    CheatSection cheat_section_v = cheat_v.get( key );
-                    CheatSection cheat_section_u = cheat_u.get( key );
-                    assert( cheat_section_u != null );
-                    
-                    // Create the cheat section in the destination if necessary (i.e. this ROM
-                    // is not present in the default cheat file)
-                    if( cheat_section_v == null )
+                    if( !CheatFile.NO_KEY.equals( key ) )
                     {
-                        String name = cheat_section_u.goodName;
-                        String crc = key.substring( 0, 17 );
-                        String country = key.substring( 20 );
-                        cheat_section_v = new CheatSection( crc, name, country );
-                        cheat_v.add( cheat_section_v );
+                        cheat_v.add( mergeSection( cheat_v.get( key ), cheat_u.get( key ) ) );
                     }
+                }
+                success = cheat_v.save();
+            }
+        }
+        
+        if( success && state != null )
+            state.withMergedFile( cheat_volatile ).write( stateFile );
+    }
+    
+    /**
+     * Merges the given ROM sections again, starting from their default cheats, and leaves all the
+     * other ROM sections of the volatile cheatfile as they are.
+     */
+    private static boolean patchCheatFile( String defaultpath, String userpath, String volatilepath,
+        Set<String> changedSections )
+    {
+        CheatIndex defaultIndex = CheatIndex.load( defaultpath );
+        if( defaultIndex == null )
+            return false;
+        
+        CheatFile cheat_v = new CheatFile( volatilepath, true );
+        CheatFile cheat_u = new CheatFile( userpath, true );
+        
+        try
+        {
+            for( String key : changedSections )
+            {
+                CheatSection cheat_section_d = null;
+                String defaultSection = defaultIndex.readSection( defaultpath, key );
+                if( defaultSection != null )
+                {
+                    BufferedReader reader = new BufferedReader( new StringReader( defaultSection ) );
                     
-                    // Append the user cheats to the volatile cheatfile
-                    for( int o = 0; o < cheat_section_u.size(); o++ )
-                    {
-                        cheat_section_v.add( cheat_section_u.get( o ) );
-                    }
+                    // Skip the "crc" line, the section reads up to the next one
+                    reader.readLine();
+                    cheat_section_d = new CheatSection( key, reader );
                 }
+                
+                CheatSection cheat_section_u = cheat_u.get( key );
+                if( cheat_section_u != null )
+                    cheat_v.add( mergeSection( cheat_section_d, cheat_section_u ) );
+                else if( cheat_section_d != null )
+                    cheat_v.add( cheat_section_d );
+                else
+                    cheat_v.remove( key );
             }
-            cheat_v.save();
         }
+        catch( IOException e )
+        {
+            Log.e( "CheatUtils", "Could not read " + defaultpath );
+            return false;
+        }
+        
+        return cheat_v.save();
     }
     
-    public static BufferedReader getCheatsLocation(String regularExpression, String filename)
+    /**
+     * Appends the user cheats of a ROM to its default cheats.
+     * 
+     * @param cheat_section_v the default cheats of the ROM, or null if it has none
+     * @param cheat_section_u the user cheats of the ROM
+     * @return the merged section
+     */
+    private static CheatSection mergeSection( CheatSection cheat_section_v, CheatSection cheat_section_u )
+    {
+        assert( cheat_section_u != null );
+        
+        // Create the cheat section in the destination if necessary (i.e. this ROM
+        // is not present in the default cheat file)
+        if( cheat_section_v == null )
+        {
+            String key = cheat_section_u.key;
+            String name = cheat_section_u.goodName;
+            String crc = key.substring( 0, 17 );
+            String country = key.substring( 20 );
+            cheat_section_v = new CheatSection( crc, name, country );
+        }
+        
+        // Append the user cheats to the volatile cheatfile
+        for( int o = 0; o < cheat_section_u.size(); o++ )
+        {
+            cheat_section_v.add( cheat_section_u.get( o ) );
+        }
+        return cheat_section_v;
+    }
+    
+    /**
+     * Finds the cheats of a ROM in a cheat file, through the index of the cheat file so that only
+     * that ROM's section is read.
+     * 
+     * @param crc the CRC of the ROM
+     * @param countryCode the country code of the ROM
+     * @param filename the path of the cheat file
+     * @return a reader positioned just after the "crc" line of the ROM section, or null if the
+     *         file has no cheats for that ROM
+     */
+    public static BufferedReader getCheatsLocation(String crc, byte countryCode, String filename)
     {
         // Make sure a file was specified in the constructor
         if( TextUtils.isEmpty( filename ) )
@@ -114,31 +212,27 @@ public class CheatUtils
             return null;
         }
         
-        BufferedReader reader = null;
+        CheatIndex index = CheatIndex.load( filename );
+        if( index == null )
+        {
+            Log.e( "CheatFile", "Could not open " + filename );
+            return null;
+        }
+        
+        String countryString = String.format("%02x", countryCode).substring(0, 2);
+        String key = crc.replace( ' ', '-') + "-C:" + countryString;
+        
+        BufferedReader reader;
         try
         {
-            reader = new BufferedReader( new FileReader( filename ) );
-            boolean done = false;
+            String section = index.readSection( filename, key );
+            if( section == null )
+                return null;
             
-            String fullLine = null;
-            while( !done && ( fullLine = reader.readLine() ) != null)
-            {
-                if( fullLine.startsWith( "crc " ) )
-                {
-                    // Start of the next cheat section, return
-                    done = fullLine.substring( 4 ).matches( regularExpression );
-                }
-            }
+            reader = new BufferedReader( new StringReader( section ) );
             
-            if(fullLine != null)
-            {
-                Log.i("CheatUtils", fullLine);
-            }
-        }
-        catch( FileNotFoundException e )
-        {
-            Log.e( "CheatFile", "Could not open " + filename );
-            return null;
+            String fullLine = reader.readLine();
+            Log.i("CheatUtils", fullLine);
         }
         catch( IOException e )
         {
@@ -148,7 +242,6 @@ public class CheatUtils
         return reader;
     }
     
-
     public static ArrayList<Cheat> populateWithPosition( BufferedReader startPosition,
         String crc, byte countryCode, Context con )
     {
@@ -184,6 +184,26 @@ public class ProgressDialog implements OnClickListener
         } );
     }
     
+    public void addMaxProgress( final long inc )
+    {
+        mActivity.runOnUiThread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // Used when the total isn't known up front, so keep the current progress
+                mMaxProgress = Math.max( mMaxProgress, 0 ) + inc;
+                if( mMaxProgress > 0 )
+                {
+                    int pctProgress = Math.round( ( PROGRESS_PRECISION * mProgress )
+                            / mMaxProgress );
+                    mProgressTotal.setProgress( pctProgress );
+                }
+                mProgressTotal.setVisibility( mMaxProgress > 0 ? View.VISIBLE : View.GONE );
+            }
+        } );
+    }
+    
     public void incrementProgress( final long inc )
     {
         mActivity.runOnUiThread( new Runnable()
@@ -197,7 +197,7 @@ public class PromptInputCodeDialog extends DialogFragment
                     onInput(strongestInputCode, maxStrength, hardwareId);
                 }
 
-                mStrengths = strengths;
+                mStrengths = strengths.clone();
             }
 
             @Override
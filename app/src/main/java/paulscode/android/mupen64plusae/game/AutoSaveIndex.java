@@ -0,0 +1,409 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.game;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import paulscode.android.mupen64plusae.jni.CoreService;
+
+/**
+ * The auto saves of a game, kept in a small manifest in the auto save directory so that finding the
+ * latest save or deleting the oldest ones doesn't require listing the directory.
+ * <p>
+ * Each save is recorded with the time it was started, whether it completed and its size once
+ * complete. The directory is only listed to rebuild the manifest when it is missing or unreadable.
+ */
+public final class AutoSaveIndex
+{
+    private static final int MANIFEST_MAGIC = 0x4D363448;
+    private static final int MANIFEST_VERSION = 1;
+    private static final String MANIFEST_NAME = ".index";
+
+    /** Marks saves that are only valid once their ".complete" file exists */
+    static final String V2 = "v2";
+
+    /** File names of auto saves, "yyyy-MM-dd-HH-mm-ss" followed by the extension */
+    private static final Pattern sAutoSavePattern =
+            Pattern.compile( "^\\d\\d\\d\\d-\\d\\d-\\d\\d-\\d\\d-\\d\\d-\\d\\d\\..*sav$" );
+
+    /** Size of a save that hasn't completed yet */
+    private static final long UNKNOWN_SIZE = -1;
+
+    private static AutoSaveIndex sInstance = null;
+
+    private final File mDir;
+    private final File mManifestFile;
+
+    /** Saves by file name, which sorts them from oldest to newest */
+    private final TreeMap<String, Entry> mEntries = new TreeMap<>();
+
+    private static final class Entry
+    {
+        final long timestamp;
+        boolean complete;
+        long size;
+
+        Entry( long timestamp, boolean complete, long size )
+        {
+            this.timestamp = timestamp;
+            this.complete = complete;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Gets the index of an auto save directory, reading or rebuilding its manifest the first time.
+     *
+     * @param dir The auto save directory
+     * @return The auto save index
+     */
+    public static synchronized AutoSaveIndex getInstance( String dir )
+    {
+        final File dirFile = new File( dir );
+        if( sInstance == null || !sInstance.mDir.equals( dirFile ) )
+            sInstance = new AutoSaveIndex( dirFile );
+        return sInstance;
+    }
+
+    private AutoSaveIndex( File dir )
+    {
+        mDir = dir;
+        mManifestFile = new File( dir, MANIFEST_NAME );
+
+        if( !readManifest() )
+        {
+            rebuild();
+            writeManifest();
+        }
+    }
+
+    /**
+     * Records a save that was just started.
+     *
+     * @param savePath Path of the save file
+     */
+    public synchronized void addStarted( String savePath )
+    {
+        mEntries.put( new File( savePath ).getName(), new Entry( System.currentTimeMillis(), false, UNKNOWN_SIZE ) );
+        writeManifest();
+    }
+
+    /**
+     * Records a save that is already complete, such as one moved in from elsewhere.
+     *
+     * @param saveFile The save file
+     */
+    public synchronized void addComplete( File saveFile )
+    {
+        mEntries.put( saveFile.getName(), new Entry( System.currentTimeMillis(), true, saveFile.length() ) );
+        writeManifest();
+    }
+
+    /**
+     * Marks a save as complete, once the core has finished writing it.
+     *
+     * @param savePath Path of the save file
+     */
+    public synchronized void markComplete( String savePath )
+    {
+        final File saveFile = new File( savePath );
+        Entry entry = mEntries.get( saveFile.getName() );
+        if( entry == null )
+        {
+            entry = new Entry( saveFile.lastModified(), true, 0 );
+            mEntries.put( saveFile.getName(), entry );
+        }
+        entry.complete = true;
+        entry.size = saveFile.length();
+        writeManifest();
+    }
+
+    /**
+     * Replaces a complete save by the same state written in another form, such as by
+     * {@link SaveStateStore}. Nothing is replaced if the save was deleted in the meantime, it
+     * would otherwise come back without being in the index.
+     *
+     * @param saveFile The save file
+     * @param newFile  The file to rename over it
+     * @return True if the save was replaced
+     */
+    public synchronized boolean replaceComplete( File saveFile, File newFile )
+    {
+        final Entry entry = mEntries.get( saveFile.getName() );
+        if( entry == null || !entry.complete )
+            return false;
+
+        if( !newFile.renameTo( saveFile ) )
+        {
+            Log.e( "AutoSaveIndex", "Unable to rename " + newFile.getPath() );
+            return false;
+        }
+
+        entry.size = saveFile.length();
+        writeManifest();
+        return true;
+    }
+
+    /**
+     * @return Paths of the saves that completed, from oldest to newest
+     */
+    public synchronized List<String> getCompleteSaves()
+    {
+        final List<String> saves = new ArrayList<>();
+        for( final Map.Entry<String, Entry> pair : mEntries.entrySet() )
+        {
+            if( pair.getValue().complete )
+                saves.add( new File( mDir, pair.getKey() ).getPath() );
+        }
+        return saves;
+    }
+
+    /**
+     * Finds the newest save that completed. Only that save is checked on disk, a save that has gone
+     * missing or changed size is no longer used and is left for {@link #clearOldest(int)}.
+     *
+     * @return Path of the newest complete save, or null if there is none
+     */
+    public synchronized String getLatestComplete()
+    {
+        boolean changed = false;
+        String latest = null;
+        for( final String name : mEntries.descendingKeySet() )
+        {
+            final Entry entry = mEntries.get( name );
+            if( !entry.complete )
+                continue;
+
+            final File saveFile = new File( mDir, name );
+            if( entry.size == UNKNOWN_SIZE || saveFile.length() == entry.size )
+            {
+                latest = saveFile.getPath();
+                break;
+            }
+
+            Log.w( "AutoSaveIndex", "Ignoring auto save that changed since it was written: " + name );
+            entry.complete = false;
+            changed = true;
+        }
+
+        if( changed )
+            writeManifest();
+
+        return latest;
+    }
+
+    /**
+     * Deletes the oldest complete saves until only the given number remain, along with the saves
+     * that never completed and are older than the newest complete one. Saves newer than that may
+     * still be written by the core, so they are neither counted nor deleted, a save that fails
+     * then never costs the last good one.
+     *
+     * @param maxSaves Number of complete saves to keep
+     */
+    public synchronized void clearOldest( int maxSaves )
+    {
+        int completeCount = 0;
+        String newestComplete = null;
+        for( final Map.Entry<String, Entry> pair : mEntries.entrySet() )
+        {
+            if( pair.getValue().complete )
+            {
+                completeCount++;
+                newestComplete = pair.getKey();
+            }
+        }
+
+        if( newestComplete == null )
+            return;
+
+        boolean changed = false;
+        final Iterator<Map.Entry<String, Entry>> iterator =
+                mEntries.headMap( newestComplete, true ).entrySet().iterator();
+        while( iterator.hasNext() )
+        {
+            final Map.Entry<String, Entry> oldest = iterator.next();
+            final boolean complete = oldest.getValue().complete;
+            if( complete )
+            {
+                if( completeCount <= maxSaves )
+                    continue;
+                completeCount--;
+            }
+
+            iterator.remove();
+            changed = true;
+            Log.i( "AutoSaveIndex", "Deleting old autosave file: " + oldest.getKey() );
+
+            final File saveFile = new File( mDir, oldest.getKey() );
+            final File completeFile = new File( mDir, oldest.getKey() + "." + CoreService.COMPLETE_EXTENSION );
+            boolean deleted = saveFile.delete() || !saveFile.exists();
+            if( complete && oldest.getKey().contains( V2 ) )
+                deleted = completeFile.delete() && deleted;
+            if( !deleted )
+                Log.w( "AutoSaveIndex", "Unable to delete autosave file: " + oldest.getKey() );
+        }
+
+        if( changed )
+            writeManifest();
+    }
+
+    /**
+     * Lists the directory once to find every save and whether it completed.
+     */
+    private void rebuild()
+    {
+        mEntries.clear();
+
+        final String[] names = mDir.list();
+        if( names == null )
+            return;
+
+        final String completeSuffix = "." + CoreService.COMPLETE_EXTENSION;
+        final Set<String> completed = new HashSet<>();
+        for( final String name : names )
+        {
+            if( name.endsWith( completeSuffix ) )
+                completed.add( name.substring( 0, name.length() - completeSuffix.length() ) );
+        }
+
+        for( final String name : names )
+        {
+            if( !sAutoSavePattern.matcher( name ).matches() )
+                continue;
+
+            // Only V2 saves have a ".complete" file
+            final File saveFile = new File( mDir, name );
+            final boolean complete = !name.contains( V2 ) || completed.contains( name );
+            mEntries.put( name, new Entry( saveFile.lastModified(), complete,
+                    complete ? saveFile.length() : UNKNOWN_SIZE ) );
+        }
+
+        Log.i( "AutoSaveIndex", "Rebuilt index of " + mEntries.size() + " auto saves in " + mDir );
+    }
+
+    private boolean readManifest()
+    {
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( mManifestFile ) ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            return false;
+        }
+
+        try
+        {
+            if( in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION )
+                return false;
+
+            final int count = in.readInt();
+            for( int i = 0; i < count; i++ )
+            {
+                final String name = in.readUTF();
+                mEntries.put( name, new Entry( in.readLong(), in.readBoolean(), in.readLong() ) );
+            }
+            return true;
+        }
+        catch( IOException e )
+        {
+            Log.w( "AutoSaveIndex", "Unable to read " + mManifestFile + ": " + e );
+            mEntries.clear();
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+    }
+
+    private void writeManifest()
+    {
+        if( !mDir.isDirectory() )
+            return;
+
+        final File tempFile = new File( mDir, MANIFEST_NAME + ".tmp" );
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+            out.writeInt( MANIFEST_MAGIC );
+            out.writeInt( MANIFEST_VERSION );
+            out.writeInt( mEntries.size() );
+            for( final Map.Entry<String, Entry> pair : mEntries.entrySet() )
+            {
+                final Entry entry = pair.getValue();
+                out.writeUTF( pair.getKey() );
+                out.writeLong( entry.timestamp );
+                out.writeBoolean( entry.complete );
+                out.writeLong( entry.size );
+            }
+            out.close();
+            out = null;
+
+            if( !tempFile.renameTo( mManifestFile ) )
+                Log.e( "AutoSaveIndex", "Unable to rename " + tempFile.getPath() );
+        }
+        catch( IOException e )
+        {
+            // The index is rebuilt from the directory if it can't be read next time
+            Log.e( "AutoSaveIndex", "IOException writing file " + mManifestFile.getPath() );
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+}
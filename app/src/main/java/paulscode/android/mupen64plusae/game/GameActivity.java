@@ -29,6 +29,7 @@ import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
 import android.graphics.drawable.BitmapDrawable;
 import android.hardware.SensorManager;
+import android.hardware.input.InputManager;
 import android.media.AudioManager;
 import android.os.Bundle;
 import android.os.Handler;
@@ -60,6 +61,8 @@ import com.bda.controller.Controller;
 import org.mupen64plusae.v3.alpha.R;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import paulscode.android.mupen64plusae.ActivityHelper;
@@ -70,6 +73,7 @@ import paulscode.android.mupen64plusae.dialog.ConfirmationDialog.PromptConfirmLi
 import paulscode.android.mupen64plusae.dialog.Prompt;
 import paulscode.android.mupen64plusae.dialog.Prompt.PromptIntegerListener;
 import paulscode.android.mupen64plusae.hack.MogaHack;
+import paulscode.android.mupen64plusae.input.InputLatencyTracer;
 import paulscode.android.mupen64plusae.input.PeripheralController;
 import paulscode.android.mupen64plusae.input.SensorController;
 import paulscode.android.mupen64plusae.input.TouchController;
@@ -145,6 +149,7 @@ public class GameActivity extends AppCompatActivity implements PromptConfirmList
     private VisibleTouchMap mTouchscreenMap;
     private KeyProvider mKeyProvider;
     private AxisProvider mAxisProvider;
+    private final ArrayList<PeripheralController> mPeripheralControllers = new ArrayList<>();
     private Controller mMogaController;
     TouchController mTouchscreenController;
     private SensorController mSensorController;
@@ -429,6 +434,10 @@ public class GameActivity extends AppCompatActivity implements PromptConfirmList
                     mGamePrefs.isAnalogHiddenWhenSensor, mGlobalPrefs.isTouchscreenAnimated);
         }
 
+        // Measure input latency if requested, before any input is handled
+        InputLatencyTracer.setEnabled( mGlobalPrefs.isInputLatencyTraceEnabled );
+        mOverlay.setLatencyReportEnabled( mGlobalPrefs.isInputLatencyTraceEnabled );
+
         // Initialize user interface devices
         initControllers(mOverlay);
 
@@ -534,6 +543,9 @@ public class GameActivity extends AppCompatActivity implements PromptConfirmList
         }
 
         mMogaController.onPause();
+
+        if( InputLatencyTracer.isEnabled() )
+            Log.i( "GameActivity", InputLatencyTracer.getReport() );
     }
 
     //This is only called once when fragment is destroyed due to rataining the state
@@ -570,6 +582,29 @@ public class GameActivity extends AppCompatActivity implements PromptConfirmList
         if (mOverlay != null) {
             mOverlay.onDestroy();
         }
+
+        final InputManager inputManager = (InputManager) getSystemService( Context.INPUT_SERVICE );
+        if( inputManager != null )
+        {
+            for( final PeripheralController controller : mPeripheralControllers )
+                inputManager.unregisterInputDeviceListener( controller );
+        }
+        mPeripheralControllers.clear();
+    }
+
+    /**
+     * Adds the input latency report to "adb shell dumpsys activity" when it is measured.
+     */
+    @Override
+    public void dump( String prefix, FileDescriptor fd, PrintWriter writer, String[] args )
+    {
+        super.dump( prefix, fd, writer, args );
+
+        if( InputLatencyTracer.isEnabled() )
+        {
+            for( final String line : InputLatencyTracer.getReport().split( "\n" ) )
+                writer.println( prefix + line );
+        }
     }
 
     @Override
@@ -1164,8 +1199,17 @@ public class GameActivity extends AppCompatActivity implements PromptConfirmList
     private void initSingleController(int player, ControllerProfile p, final MogaProvider mogaProvider)
     {
         if(p != null) {
-           new PeripheralController( mCoreFragment, player, mGamePrefs.playerMap, p.getMap(), p.getDeadzone(),
-                    p.getSensitivityX(), p.getSensitivityY(), mOverlay, this, null, mKeyProvider, mAxisProvider, mogaProvider );
+            final PeripheralController controller = new PeripheralController( mCoreFragment, player,
+                    mGamePrefs.playerMap, p.getMap(), p.getDeadzone(), p.getSensitivityX(), p.getSensitivityY(),
+                    mOverlay, this, null, mKeyProvider, mAxisProvider, mogaProvider );
+
+            // Let the controller know when devices change, so it doesn't have to check on every input
+            final InputManager inputManager = (InputManager) getSystemService( Context.INPUT_SERVICE );
+            if( inputManager != null )
+            {
+                inputManager.registerInputDeviceListener( controller, null );
+                mPeripheralControllers.add( controller );
+            }
             Log.i("GameActivity", "Player " + player + " controller has been enabled");
         }
     }
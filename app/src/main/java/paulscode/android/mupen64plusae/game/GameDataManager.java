@@ -6,26 +6,19 @@ import java.io.File;
 import java.io.FileFilter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.List;
 
-import paulscode.android.mupen64plusae.jni.CoreService;
 import paulscode.android.mupen64plusae.persistent.GamePrefs;
 import paulscode.android.mupen64plusae.persistent.GlobalPrefs;
 import paulscode.android.mupen64plusae.util.FileUtil;
 
 public class GameDataManager
 {
-    private static final String V2 = "v2";
-
     private GlobalPrefs mGlobalPrefs;
     private final GamePrefs mGamePrefs;
     private String mAutoSavePath;
     private final int mMaxAutoSave;
     private static final String sFormatString = "yyyy-MM-dd-HH-mm-ss";
-    private static final String sMatcherString = "^\\d\\d\\d\\d-\\d\\d-\\d\\d-\\d\\d-\\d\\d-\\d\\d\\..*sav$";
     private static final String sDefaultString = "yyyy-mm-dd-hh-mm-ss.sav";
 
     GameDataManager(GlobalPrefs globalPrefs, GamePrefs gamePrefs, int maxAutoSaves)
@@ -38,111 +31,25 @@ public class GameDataManager
 
     String getLatestAutoSave()
     {
-        final List<String> result = new ArrayList<>();
-        final File savePath = new File(mAutoSavePath);
-
-        //Only find files that end with .sav
-        final FileFilter fileFilter = new FileFilter(){
-
-            @Override
-            public boolean accept(File pathname)
-            {
-                //It must match this format "yyyy-MM-dd-HH-mm-ss"
-                final String fileName = pathname.getName();
-                return fileName.matches(sMatcherString);
-            }
-
-        };
-
-        final File[] fileList = savePath.listFiles(fileFilter);
-
-        //Add all files found
-        if(fileList != null)
-        {
-            for( final File file : fileList )
-            {
-                //Do not attempt to load states that are missing a corresponding ".complete" file
-                //but only check for .complete if it's a V2 file
-                File completeFile = new File(file.getPath() + "." + CoreService.COMPLETE_EXTENSION);
-                if(!file.getPath().contains(V2) || completeFile.exists())
-                {
-                    result.add( file.getPath() );
-                }
-            }
-        }
+        final String latest = AutoSaveIndex.getInstance(mAutoSavePath).getLatestComplete();
 
-        //Sort by file name
-        Collections.sort(result);
-
-        String resultValue;
-        if(result.size() > 0)
-        {
-            resultValue = result.get(result.size()-1);
-        }
-        else
-        {
-            //Fall back to this if we can't find a valid filename
-            resultValue = mAutoSavePath + sDefaultString;
-        }
-
-        //Grab the last file
-        return resultValue;
+        //Fall back to this if we can't find a valid filename
+        return latest != null ? latest : mAutoSavePath + sDefaultString;
     }
 
     void clearOldest()
     {
-        final List<File> result = new ArrayList<>();
-        final File savePath = new File(mAutoSavePath);
-
-        if(savePath.listFiles() != null && savePath.listFiles().length != 0)
-        {
-            //Only find files that match the matcher string
-            final FileFilter fileFilter = new FileFilter(){
-
-                @Override
-                public boolean accept(File pathname)
-                {
-                    //It must match this format "yyyy-MM-dd-HH-mm-ss"
-                    final String fileName = pathname.getName();
-                    return fileName.matches(sMatcherString);
-                }
-
-            };
-
-            //Add all files found
-            Collections.addAll(result, savePath.listFiles(fileFilter) );
-
-            //Sort by file name
-            Collections.sort(result);
-
-            while(result.size() > mMaxAutoSave)
-            {
-                Log.i("GameDataManager", "Deleting old autosave file: " + result.get(0).getName());
-                File theResult = result.get(0);
-
-                if(!theResult.isDirectory())
-                {
-                    boolean deleteResult = theResult.delete();
-
-                    //Also remove the corresponding ".complete" file
-                    String completeFile = theResult.getAbsolutePath();
-                    completeFile = completeFile + "." + CoreService.COMPLETE_EXTENSION;
-                    deleteResult = deleteResult && new File(completeFile).delete();
-
-                    if (!deleteResult) {
-                        Log.w("GameDataManager", "Unable to delete autosave file: " + result.get(0).getName());
-                    }
-                }
-                result.remove(0);
-            }
-        }
+        AutoSaveIndex.getInstance(mAutoSavePath).clearOldest(mMaxAutoSave);
     }
 
     String getAutoSaveFileName()
     {
         final DateFormat dateFormat = new SimpleDateFormat(sFormatString, java.util.Locale.getDefault());
         final String dateAndTime = dateFormat.format(new Date());
-        final String fileName = dateAndTime + "." + V2 + ".sav";
+        final String fileName = dateAndTime + "." + AutoSaveIndex.V2 + ".sav";
+
+        //Recorded right away, so that it is never cleared while the core is still writing it
+        AutoSaveIndex.getInstance(mAutoSavePath).addStarted(mAutoSavePath + fileName);
 
         return mAutoSavePath + fileName;
     }
@@ -287,6 +194,8 @@ public class GameDataManager
                     if (!file.renameTo(targetFile)) {
                         Log.w("GameDataManager", "Error renaming SAV file: " + file +
                                 " to " + targetFile.getPath());
+                    } else {
+                        AutoSaveIndex.getInstance(mAutoSavePath).addComplete(targetFile);
                     }
                 }
                 else
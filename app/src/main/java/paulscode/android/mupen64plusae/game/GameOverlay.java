@@ -22,10 +22,13 @@ package paulscode.android.mupen64plusae.game;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
 import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.View;
 
+import paulscode.android.mupen64plusae.input.InputLatencyTracer;
 import paulscode.android.mupen64plusae.input.TouchController;
 import paulscode.android.mupen64plusae.input.map.TouchMap;
 import paulscode.android.mupen64plusae.input.map.VisibleTouchMap;
@@ -42,6 +45,14 @@ public class GameOverlay extends View implements TouchController.OnStateChangedL
     private int mHatRefreshCount = 0;
     private double mCurrentAlpha = 1.0;
     private boolean mHiding = false;
+    private boolean mLatencyReportEnabled = false;
+    private final Paint mLatencyPaint = new Paint( Paint.ANTI_ALIAS_FLAG );
+    
+    /** The lines of the input latency report, only rebuilt when it is refreshed */
+    private String[] mLatencyLines = new String[0];
+    
+    /** How often the input latency report is redrawn, in milliseconds */
+    private static final int LATENCY_REPORT_PERIOD = 1000;
     
     public GameOverlay(Context context, AttributeSet attribs )
     {
@@ -98,6 +109,25 @@ public class GameOverlay extends View implements TouchController.OnStateChangedL
             postInvalidate();
     }
     
+    /**
+     * Shows the percentiles measured by {@link InputLatencyTracer} in the top left corner.
+     * 
+     * @param enabled True to show the input latency report
+     */
+    public void setLatencyReportEnabled( boolean enabled )
+    {
+        mLatencyReportEnabled = enabled;
+        mHandler.removeCallbacks( mRefreshLatencyReport );
+        if( enabled )
+        {
+            mLatencyPaint.setColor( Color.YELLOW );
+            mLatencyPaint.setShadowLayer( 2, 1, 1, Color.BLACK );
+            mLatencyPaint.setTextSize( 12 * getResources().getDisplayMetrics().scaledDensity );
+            mHandler.post( mRefreshLatencyReport );
+        }
+        postInvalidate();
+    }
+    
     @Override
     protected void onSizeChanged( int w, int h, int oldw, int oldh )
     {
@@ -110,7 +140,13 @@ public class GameOverlay extends View implements TouchController.OnStateChangedL
     @Override
     protected void onDraw( Canvas canvas )
     {
-        if( mTouchMap == null || canvas == null )
+        if( canvas == null )
+            return;
+        
+        if( mLatencyReportEnabled )
+            drawLatencyReport( canvas );
+        
+        if( mTouchMap == null )
             return;
         
         if( mDrawingEnabled )
@@ -132,6 +168,17 @@ public class GameOverlay extends View implements TouchController.OnStateChangedL
         }
     }
 
+    private void drawLatencyReport( Canvas canvas )
+    {
+        final float lineHeight = mLatencyPaint.getFontSpacing();
+        float y = lineHeight;
+        for( final String line : mLatencyLines )
+        {
+            canvas.drawText( line, lineHeight / 2, y, mLatencyPaint );
+            y += lineHeight;
+        }
+    }
+
     @Override
     public void onSensorEnabled(boolean sensorEnabled) {
         if (mTouchMap != null && mIsAnalogHiddenWhenSensor) {
@@ -141,6 +188,15 @@ public class GameOverlay extends View implements TouchController.OnStateChangedL
     }
 
     final Handler mHandler = new Handler();
+    Runnable mRefreshLatencyReport = new Runnable() {
+        @Override
+        public void run() {
+            mLatencyLines = InputLatencyTracer.getReport().split("\n");
+            postInvalidate();
+            mHandler.postDelayed(mRefreshLatencyReport, LATENCY_REPORT_PERIOD);
+        }
+    };
+
     Runnable mShowTouchscreen = new Runnable() {
         @Override
         public void run() {
@@ -205,5 +261,6 @@ public class GameOverlay extends View implements TouchController.OnStateChangedL
     {
         mHandler.removeCallbacks(mHideTouchscreen);
         mHandler.removeCallbacks(mShowTouchscreen);
+        mHandler.removeCallbacks(mRefreshLatencyReport);
     }
 }
@@ -0,0 +1,423 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.game;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import paulscode.android.mupen64plusae.util.FileUtil;
+
+/**
+ * Stores the older auto saves of a game as lists of chunks shared between all of its auto saves.
+ * <p>
+ * The core writes each save state as a gzip file. Consecutive auto saves are mostly the same
+ * state, but once compressed they have nothing in common. When a newer save has completed, each
+ * older one is decompressed and split into fixed size chunks. Every distinct chunk is stored once,
+ * compressed on its own and named after its MD5, and the save file is replaced by the list of its
+ * chunks. The newest save is left as the core wrote it so that resuming a game never waits for it
+ * to be put back together.
+ */
+public final class SaveStateStore
+{
+    private static final int RECIPE_MAGIC = 0x4D363449;
+    private static final int RECIPE_VERSION = 1;
+
+    /** Size the decompressed states are split at */
+    private static final int CHUNK_SIZE = 0x10000;
+
+    /** Size of an MD5 */
+    private static final int HASH_SIZE = 16;
+
+    /** Folder in the auto save directory holding the chunks */
+    private static final String CHUNK_DIR = ".chunks";
+
+    /** Save put back together for the core to load, in the chunk folder */
+    private static final String RESTORED_NAME = "restored.sav";
+
+    /** Chunks are only written, read or deleted by one thread at a time */
+    private static final Object sLock = new Object();
+
+    private SaveStateStore()
+    {
+    }
+
+    /**
+     * Checks whether a save was replaced by its list of chunks.
+     *
+     * @param save The save file
+     * @return True if the save must be restored before the core can load it
+     */
+    public static boolean isChunked( File save )
+    {
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new FileInputStream( save ) );
+            return in.readInt() == RECIPE_MAGIC;
+        }
+        catch( IOException e )
+        {
+            // Missing or too short, either way the core handles it
+            return false;
+        }
+        finally
+        {
+            close( in );
+        }
+    }
+
+    /**
+     * Stores every complete auto save in the directory of the given one, except that one, as
+     * chunks, then deletes the chunks that are no longer used by any save. This reads and writes
+     * whole save states, so it must not be called from the UI thread.
+     *
+     * @param latestSave Path of the save that was just completed
+     */
+    public static void compact( String latestSave )
+    {
+        final File latestFile = new File( latestSave );
+        final File chunkDir = new File( latestFile.getParentFile(), CHUNK_DIR );
+        final AutoSaveIndex index = AutoSaveIndex.getInstance( latestFile.getParent() );
+
+        synchronized( sLock )
+        {
+            final Set<String> usedChunks = new HashSet<>();
+            boolean allRead = true;
+            for( final String savePath : index.getCompleteSaves() )
+            {
+                final File save = new File( savePath );
+                if( save.equals( latestFile ) )
+                    continue;
+
+                try
+                {
+                    // A save deleted while it was split has nothing left to keep
+                    if( isChunked( save ) || split( save, chunkDir, index ) )
+                        readChunkNames( save, usedChunks );
+                }
+                catch( IOException e )
+                {
+                    Log.w( "SaveStateStore", "Unable to store " + save.getName() + " as chunks: " + e );
+                    allRead = false;
+                }
+            }
+
+            // A save that couldn't be read may still need any of the chunks
+            if( allRead )
+                deleteUnusedChunks( chunkDir, usedChunks );
+        }
+    }
+
+    /**
+     * Puts a save back together if it was stored as chunks. This reads and writes a whole save
+     * state, so it must not be called from the UI thread.
+     *
+     * @param savePath Path of the save to load
+     * @return Path of a file the core can load
+     */
+    public static String restore( String savePath )
+    {
+        final File save = new File( savePath );
+        if( !isChunked( save ) )
+            return savePath;
+
+        synchronized( sLock )
+        {
+            final File chunkDir = new File( save.getParentFile(), CHUNK_DIR );
+            final File restored = new File( chunkDir, RESTORED_NAME );
+
+            DataInputStream in = null;
+            OutputStream out = null;
+            try
+            {
+                in = new DataInputStream( new BufferedInputStream( new FileInputStream( save ) ) );
+                if( in.readInt() != RECIPE_MAGIC || in.readInt() != RECIPE_VERSION )
+                    throw new IOException( "Unknown chunk list version" );
+
+                final long length = in.readLong();
+                final int count = in.readInt();
+                final byte[] hash = new byte[HASH_SIZE];
+                final byte[] buffer = new byte[CHUNK_SIZE];
+                long written = 0;
+
+                // The core only loads gzip files, this one is short lived so speed matters most
+                out = new GZIPOutputStream( new FileOutputStream( restored ), CHUNK_SIZE )
+                {
+                    {
+                        def.setLevel( Deflater.BEST_SPEED );
+                    }
+                };
+                for( int i = 0; i < count; i++ )
+                {
+                    in.readFully( hash );
+                    final InputStream chunk = new InflaterInputStream( new FileInputStream(
+                            new File( chunkDir, toHex( hash ) ) ) );
+                    try
+                    {
+                        int n;
+                        while( ( n = chunk.read( buffer ) ) >= 0 )
+                        {
+                            out.write( buffer, 0, n );
+                            written += n;
+                        }
+                    }
+                    finally
+                    {
+                        chunk.close();
+                    }
+                }
+                out.close();
+                out = null;
+
+                if( written != length )
+                    throw new IOException( "Restored " + written + " of " + length + " bytes" );
+
+                Log.i( "SaveStateStore", "Restored " + save.getName() + " from " + count + " chunks" );
+                return restored.getPath();
+            }
+            catch( IOException e )
+            {
+                // Left to the core to report, as for any other save it can't load
+                Log.e( "SaveStateStore", "Unable to restore " + savePath + ": " + e );
+                return savePath;
+            }
+            finally
+            {
+                close( in );
+                close( out );
+            }
+        }
+    }
+
+    /**
+     * Writes the chunks of a save that aren't stored yet, then replaces the save by their list.
+     *
+     * @return True if the save was replaced, false if it was deleted in the meantime
+     */
+    private static boolean split( File save, File chunkDir, AutoSaveIndex index ) throws IOException
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( "MD5 is not available" );
+        }
+
+        FileUtil.makeDirs( chunkDir.getPath() );
+
+        final File tempFile = new File( save.getPath() + ".tmp" );
+        InputStream in = null;
+        DataOutputStream out = null;
+        try
+        {
+            in = new BufferedInputStream( new FileInputStream( save ) );
+            in.mark( 2 );
+            final boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+            in.reset();
+            if( gzip )
+                in = new GZIPInputStream( in, CHUNK_SIZE );
+
+            // The length and count are only known at the end, the list is small enough to hold
+            final ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[CHUNK_SIZE];
+            long length = 0;
+            int count = 0;
+            int n;
+            while( ( n = fill( in, buffer ) ) > 0 )
+            {
+                digest.update( buffer, 0, n );
+                final byte[] hash = digest.digest();
+                hashes.write( hash );
+                length += n;
+                count++;
+
+                final File chunkFile = new File( chunkDir, toHex( hash ) );
+                if( !chunkFile.exists() )
+                    writeChunk( chunkFile, buffer, n );
+            }
+
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+            out.writeInt( RECIPE_MAGIC );
+            out.writeInt( RECIPE_VERSION );
+            out.writeLong( length );
+            out.writeInt( count );
+            hashes.writeTo( out );
+            out.close();
+            out = null;
+
+            // Every chunk is on disk before the save is replaced. The index may be rotating the
+            // saves at the same time, it only lets a save it still has be replaced.
+            if( !index.replaceComplete( save, tempFile ) )
+            {
+                Log.i( "SaveStateStore", "Not storing " + save.getName() + ", it is no longer an auto save" );
+                return false;
+            }
+
+            Log.i( "SaveStateStore", "Stored " + save.getName() + " as " + count + " chunks" );
+            return true;
+        }
+        finally
+        {
+            close( in );
+            close( out );
+            if( tempFile.exists() && !tempFile.delete() )
+                Log.w( "SaveStateStore", "Unable to delete " + tempFile.getPath() );
+        }
+    }
+
+    private static void writeChunk( File chunkFile, byte[] buffer, int length ) throws IOException
+    {
+        final File tempFile = new File( chunkFile.getPath() + ".tmp" );
+        final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+        try
+        {
+            final OutputStream out = new DeflaterOutputStream( new FileOutputStream( tempFile ), deflater );
+            try
+            {
+                out.write( buffer, 0, length );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if( !tempFile.renameTo( chunkFile ) )
+                throw new IOException( "Unable to rename " + tempFile.getPath() );
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private static void readChunkNames( File save, Set<String> names ) throws IOException
+    {
+        final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( save ) ) );
+        try
+        {
+            if( in.readInt() != RECIPE_MAGIC || in.readInt() != RECIPE_VERSION )
+                throw new IOException( "Unknown chunk list version" );
+
+            in.readLong();
+            final int count = in.readInt();
+            final byte[] hash = new byte[HASH_SIZE];
+            for( int i = 0; i < count; i++ )
+            {
+                in.readFully( hash );
+                names.add( toHex( hash ) );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Deletes the chunks left behind by saves that were deleted or rewritten
+     */
+    private static void deleteUnusedChunks( File chunkDir, Set<String> usedChunks )
+    {
+        final String[] names = chunkDir.list();
+        if( names == null )
+            return;
+
+        int deleted = 0;
+        for( final String name : names )
+        {
+            // Chunks are exactly named after their MD5, leave anything else alone
+            if( name.length() != HASH_SIZE * 2 || usedChunks.contains( name ) )
+                continue;
+
+            if( new File( chunkDir, name ).delete() )
+                deleted++;
+            else
+                Log.w( "SaveStateStore", "Unable to delete chunk " + name );
+        }
+
+        if( deleted > 0 )
+            Log.i( "SaveStateStore", "Deleted " + deleted + " unused chunks" );
+    }
+
+    /**
+     * Reads until the buffer is full or the stream ends.
+     *
+     * @return Number of bytes read
+     */
+    private static int fill( InputStream in, byte[] buffer ) throws IOException
+    {
+        int total = 0;
+        int n;
+        while( total < buffer.length && ( n = in.read( buffer, total, buffer.length - total ) ) >= 0 )
+            total += n;
+        return total;
+    }
+
+    private static String toHex( byte[] hash )
+    {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] hex = new char[hash.length * 2];
+        for( int i = 0; i < hash.length; i++ )
+        {
+            hex[i * 2] = digits[( hash[i] >> 4 ) & 0xf];
+            hex[i * 2 + 1] = digits[hash[i] & 0xf];
+        }
+        return new String( hex );
+    }
+
+    private static void close( Closeable closeable )
+    {
+        if( closeable == null )
+            return;
+
+        try
+        {
+            closeable.close();
+        }
+        catch( IOException ignored )
+        {
+        }
+    }
+}
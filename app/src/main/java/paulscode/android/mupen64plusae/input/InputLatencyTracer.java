@@ -0,0 +1,251 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.input;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+
+import paulscode.android.mupen64plusae.jni.NativeInput;
+
+/**
+ * Measures the time from an input event to the core reading the controller state it changed, for
+ * each kind of input.
+ * <p>
+ * Providers call {@link #beginEvent(int, long)} with the time of the event before passing it on,
+ * and {@link #endEvent()} once done. Every controller state the same thread writes in between is
+ * charged to that event. The native plugin reports the sequence number of the last state it read and when it first
+ * read it. Once it has read the state of an event, the time from the event is added to the
+ * histogram of the event's source. A state overwritten before the core read it keeps
+ * the earliest event, that is how long that input waited.
+ * <p>
+ * Times are in milliseconds on the {@link SystemClock#uptimeMillis()} clock, which input events
+ * are stamped with. Nothing is recorded unless tracing was enabled.
+ */
+public final class InputLatencyTracer
+{
+    public static final int SOURCE_TOUCH = 0;
+    public static final int SOURCE_KEY = 1;
+    public static final int SOURCE_AXIS = 2;
+    public static final int SOURCE_MOGA = 3;
+
+    private static final String[] SOURCE_NAMES = { "touch", "key", "axis", "moga" };
+
+    private static final int NO_SOURCE = -1;
+
+    /** Longest latency with its own bucket, longer ones are counted together */
+    private static final int MAX_LATENCY = 250;
+
+    /** Age at which a state is assumed to never be read, such as while the game is paused */
+    private static final int MAX_PENDING_AGE = 1000;
+
+    private static volatile boolean sEnabled = false;
+
+    /**
+     * An input event being dispatched
+     */
+    private static final class CurrentEvent
+    {
+        int source = NO_SOURCE;
+        int eventTime;
+    }
+
+    /** The event each thread is dispatching, touch, keys and sensors each have their own */
+    private static final ThreadLocal<CurrentEvent> sCurrentEvent = new ThreadLocal<CurrentEvent>()
+    {
+        @Override
+        protected CurrentEvent initialValue()
+        {
+            return new CurrentEvent();
+        }
+    };
+
+    /** The earliest event whose state the core hasn't read yet, for each controller */
+    private static final int[] sPendingSources = { NO_SOURCE, NO_SOURCE, NO_SOURCE, NO_SOURCE };
+    private static final int[] sPendingEventTimes = new int[4];
+    private static final int[] sPendingSequences = new int[4];
+    private static final int[] sPendingWriteTimes = new int[4];
+
+    /** Count of each latency in milliseconds, for each source */
+    private static final int[][] sHistograms = new int[SOURCE_NAMES.length][MAX_LATENCY + 2];
+    private static final int[] sSampleCounts = new int[SOURCE_NAMES.length];
+
+    private InputLatencyTracer()
+    {
+    }
+
+    /**
+     * Starts or stops tracing, the histograms are cleared when starting.
+     *
+     * @param enabled True to trace input events
+     */
+    public static synchronized void setEnabled( boolean enabled )
+    {
+        if( enabled )
+        {
+            for( final int[] histogram : sHistograms )
+                Arrays.fill( histogram, 0 );
+            Arrays.fill( sSampleCounts, 0 );
+            Arrays.fill( sPendingSources, NO_SOURCE );
+        }
+        sEnabled = enabled;
+    }
+
+    /**
+     * @return True if input events are traced
+     */
+    public static boolean isEnabled()
+    {
+        return sEnabled;
+    }
+
+    /**
+     * Marks the start of dispatching an input event.
+     *
+     * @param source    The provider of the event, one of the SOURCE constants
+     * @param eventTime The time of the event, in the {@link SystemClock#uptimeMillis()} time base
+     */
+    public static void beginEvent( int source, long eventTime )
+    {
+        if( !sEnabled )
+            return;
+
+        final CurrentEvent event = sCurrentEvent.get();
+        event.source = source;
+        event.eventTime = (int) eventTime;
+    }
+
+    /**
+     * Marks the end of dispatching an input event.
+     */
+    public static void endEvent()
+    {
+        if( !sEnabled )
+            return;
+
+        sCurrentEvent.get().source = NO_SOURCE;
+    }
+
+    /**
+     * Called when a new controller state is handed to the native plugin, on the thread that wrote
+     * it.
+     *
+     * @param controllerNum Controller index, in the range [0,3]
+     * @param sequence      Sequence number of the state
+     */
+    public static void onStateWritten( int controllerNum, int sequence )
+    {
+        if( !sEnabled || controllerNum < 0 || controllerNum > 3 )
+            return;
+
+        final CurrentEvent event = sCurrentEvent.get();
+        synchronized( InputLatencyTracer.class )
+        {
+            final int now = (int) SystemClock.uptimeMillis();
+            resolve( controllerNum, now );
+
+            // States written outside of a traced event, such as by the sensor, only delay the
+            // pending one
+            if( sPendingSources[controllerNum] == NO_SOURCE )
+            {
+                if( event.source == NO_SOURCE )
+                    return;
+
+                sPendingSources[controllerNum] = event.source;
+                sPendingEventTimes[controllerNum] = event.eventTime;
+            }
+            sPendingSequences[controllerNum] = sequence;
+            sPendingWriteTimes[controllerNum] = now;
+        }
+    }
+
+    /**
+     * Builds a report of the latency percentiles of each source.
+     *
+     * @return One line per source that has samples, in milliseconds
+     */
+    public static synchronized String getReport()
+    {
+        final int now = (int) SystemClock.uptimeMillis();
+        for( int i = 0; i < sPendingSources.length; i++ )
+            resolve( i, now );
+
+        final StringBuilder report = new StringBuilder( "Input latency, event to core poll" );
+        for( int source = 0; source < SOURCE_NAMES.length; source++ )
+        {
+            final int count = sSampleCounts[source];
+            if( count == 0 )
+                continue;
+
+            report.append( '\n' ).append( SOURCE_NAMES[source] )
+                    .append( ": n=" ).append( count )
+                    .append( " p50=" ).append( getPercentile( source, 50 ) )
+                    .append( " p95=" ).append( getPercentile( source, 95 ) )
+                    .append( " p99=" ).append( getPercentile( source, 99 ) )
+                    .append( " ms" );
+        }
+        return report.toString();
+    }
+
+    /**
+     * Records the pending event of a controller if the core has read its state since it was
+     * written.
+     */
+    private static void resolve( int controllerNum, int now )
+    {
+        final int source = sPendingSources[controllerNum];
+        if( source == NO_SOURCE )
+            return;
+
+        // Differences of 32 bit numbers stay correct when the numbers wrap around
+        if( NativeInput.getConsumedSequence( controllerNum ) - sPendingSequences[controllerNum] >= 0 )
+        {
+            final int latency = NativeInput.getConsumedTime( controllerNum ) - sPendingEventTimes[controllerNum];
+            if( latency >= 0 )
+            {
+                sHistograms[source][Math.min( latency, MAX_LATENCY + 1 )]++;
+                sSampleCounts[source]++;
+            }
+            sPendingSources[controllerNum] = NO_SOURCE;
+        }
+        else if( now - sPendingWriteTimes[controllerNum] > MAX_PENDING_AGE )
+        {
+            sPendingSources[controllerNum] = NO_SOURCE;
+        }
+    }
+
+    /**
+     * @return The latency the given percentage of samples didn't exceed, as text
+     */
+    private static String getPercentile( int source, int percent )
+    {
+        final int[] histogram = sHistograms[source];
+        final int rank = (int) Math.ceil( sSampleCounts[source] * percent / 100.0 );
+        int total = 0;
+        for( int latency = 0; latency <= MAX_LATENCY; latency++ )
+        {
+            total += histogram[latency];
+            if( total >= rank )
+                return Integer.toString( latency );
+        }
+        return ">" + MAX_LATENCY;
+    }
+}
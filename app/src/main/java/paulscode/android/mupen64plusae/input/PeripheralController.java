@@ -20,6 +20,7 @@
  */
 package paulscode.android.mupen64plusae.input;
 
+import android.hardware.input.InputManager;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.InputDevice;
@@ -40,8 +41,11 @@ import paulscode.android.mupen64plusae.util.Utility;
  * keyboards, mice, etc.).
  */
 public class PeripheralController extends AbstractController implements
-        AbstractProvider.OnInputListener
+        AbstractProvider.OnInputListener, InputManager.InputDeviceListener
 {
+    /** Hardware id that no input is ever dispatched from. */
+    private static final int NO_HARDWARE = Integer.MIN_VALUE;
+    
     /**
      * Pointer to core fragment
      */
@@ -87,6 +91,9 @@ public class PeripheralController extends AbstractController implements
     /** Called for menu and back keys */
     private View.OnKeyListener mKeyListener;
     
+    /** The hardware whose vibrator is registered for this player, or NO_HARDWARE. */
+    private int mVibratorHardwareId = NO_HARDWARE;
+    
     /**
      * Instantiates a new peripheral controller.
      *
@@ -144,10 +151,10 @@ public class PeripheralController extends AbstractController implements
         // Process user inputs from keyboard, gamepad, etc.
         if( mPlayerMap.testHardware( hardwareId, mPlayerNumber ) )
         {
-            // Update the registered vibrator for this player
-            InputDevice device = InputDevice.getDevice( hardwareId );
-            if( device != null )
-                mCoreFragment.registerVibrator( mPlayerNumber, device.getVibrator() );
+            // Update the registered vibrator for this player, only when the input comes from
+            // another device than last time
+            if( hardwareId != mVibratorHardwareId )
+                registerVibrator( hardwareId );
             
             // Apply user changes to the controller state
             apply( inputCode, strength );
@@ -157,6 +164,44 @@ public class PeripheralController extends AbstractController implements
         }
     }
     
+    /**
+     * Registers the vibrator of a device for this player.
+     * 
+     * @param hardwareId The identifier of the device.
+     */
+    private void registerVibrator( int hardwareId )
+    {
+        InputDevice device = InputDevice.getDevice( hardwareId );
+        if( device == null )
+        {
+            // Not an Android input device, don't look it up again
+            mVibratorHardwareId = hardwareId;
+        }
+        else if( mCoreFragment.registerVibrator( mPlayerNumber, device.getVibrator() ) )
+        {
+            mVibratorHardwareId = hardwareId;
+        }
+    }
+    
+    @Override
+    public void onInputDeviceAdded( int deviceId )
+    {
+    }
+    
+    @Override
+    public void onInputDeviceRemoved( int deviceId )
+    {
+        onInputDeviceChanged( deviceId );
+    }
+    
+    @Override
+    public void onInputDeviceChanged( int deviceId )
+    {
+        // The device may have a new vibrator, register it again on its next input
+        if( deviceId == mVibratorHardwareId )
+            mVibratorHardwareId = NO_HARDWARE;
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -240,7 +240,9 @@ public class TouchController extends AbstractController implements OnTouchListen
         }
         
         // Process each touch
+        InputLatencyTracer.beginEvent( InputLatencyTracer.SOURCE_TOUCH, event.getEventTime() );
         processTouches( mTouchState, mPointerX, mPointerY, mElapsedTime, maxPid, actionCode );
+        InputLatencyTracer.endEvent();
         
         return true;
     }
@@ -25,8 +25,10 @@ import android.graphics.Point;
 import android.graphics.Rect;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import paulscode.android.mupen64plusae.input.AbstractController;
@@ -141,6 +143,24 @@ public class TouchMap
     /** True if A/B buttons are split */
     protected boolean mSplitAB;
     
+    /** Touch locations are resolved at half the digitizer resolution. */
+    private static final int GRID_SHIFT = 1;
+    
+    /** Grid value: no button mask covers the location. */
+    private static final byte GRID_EMPTY = 0;
+    
+    /** Grid value: a button mask covers the location, but its color matches no N64 button. */
+    private static final byte GRID_UNMAPPED = -1;
+    
+    /** The N64 button at each grid location plus one, or a grid flag, row by row. */
+    private byte[] mButtonGrid = null;
+    
+    /** Width of the button grid. */
+    private int mGridWidth = 0;
+    
+    /** Height of the button grid. */
+    private int mGridHeight = 0;
+    
     static
     {
         // Define the map from skin.ini keys to N64 button indices
@@ -216,6 +236,7 @@ public class TouchMap
         buttonX.clear();
         buttonY.clear();
         buttonNames.clear();
+        mButtonGrid = null;
         analogBackScaling = 0;
         analogBackImage = null;
         analogForeImage = null;
@@ -286,48 +307,114 @@ public class TouchMap
             analogBackImage.setScale( ( analogBackScaling * scale ) );
             analogBackImage.fitPercent( analogBackX, getAdjustedYPos(analogBackY), w, h );
         }
+        
+        buildButtonGrid( w, h );
     }
     
     /**
-     * Gets the N64 button mapped to a given touch location.
-     * 
-     * @param xLocation The x-coordinate of the touch, in pixels.
-     * @param yLocation The y-coordinate of the touch, in pixels.
-     * 
-     * @return The N64 button the location is mapped to, or UNMAPPED.
+     * Resolves the N64 button at every location of the digitizer from the button masks, so that
+     * touches don't have to read the mask images.
      * 
-     * @see TouchMap#UNMAPPED
+     * @param w The width of the digitizer, in pixels.
+     * @param h The height of the digitizer, in pixels.
      */
-    public int getButtonPress( int xLocation, int yLocation )
+    private void buildButtonGrid( int w, int h )
     {
-        // Search through every button mask to see if the corresponding button was touched
+        final int step = 1 << GRID_SHIFT;
+        mGridWidth = ( w + step - 1 ) >> GRID_SHIFT;
+        mGridHeight = ( h + step - 1 ) >> GRID_SHIFT;
+        if( mButtonGrid == null || mButtonGrid.length != mGridWidth * mGridHeight )
+            mButtonGrid = new byte[mGridWidth * mGridHeight];
+        else
+            Arrays.fill( mButtonGrid, GRID_EMPTY );
+        
+        // Masks only use a few colors, match each of them once
+        final SparseIntArray colorButtons = new SparseIntArray();
+        
+        // Masks are checked in order and the first one covering a location wins, as they used to be
         for( int i = 0; i < buttonMasks.size(); i++ )
         {
-            if( buttonMasks.get( i ) != null )
+            final Image mask = buttonMasks.get( i );
+            if( mask == null || mask.image == null )
+                continue;
+            
+            final float maskScale = buttonScaling.get( i ) * scale;
+            final int left = mask.x;
+            final int right = left + (int) ( mask.width * mask.scale );
+            final int bottom = mask.y;
+            final int top = bottom + (int) ( mask.height * mask.scale );
+            
+            final int[] pixels = new int[mask.width * mask.height];
+            mask.image.getPixels( pixels, 0, mask.width, 0, 0, mask.width, mask.height );
+            
+            final int startX = toGrid( left );
+            final int endX = Math.min( toGrid( right ), mGridWidth );
+            final int startY = toGrid( bottom );
+            final int endY = Math.min( toGrid( top ), mGridHeight );
+            for( int gridY = startY; gridY < endY; gridY++ )
             {
-                int left = buttonMasks.get( i ).x;
-                int right = left + (int) ( buttonMasks.get( i ).width * buttonMasks.get( i ).scale );
-                int bottom = buttonMasks.get( i ).y;
-                int top = bottom + (int) ( buttonMasks.get( i ).height * buttonMasks.get( i ).scale );
-                
-                // See if the touch falls in the vicinity of the button (conservative test)
-                if( xLocation >= left && xLocation < right && yLocation >= bottom
-                        && yLocation < top )
+                final int maskY = Math.min( (int) ( ( ( gridY << GRID_SHIFT ) - bottom ) / maskScale ), mask.height - 1 );
+                for( int gridX = startX; gridX < endX; gridX++ )
                 {
-                    // Get the mask color at this location
-                    int c = buttonMasks.get( i ).image.getPixel( (int) ( ( xLocation - buttonMasks.get( i ).x ) / 
-                            ( buttonScaling.get( i ) * scale ) ), (int) ( ( yLocation - buttonMasks.get( i ).y ) / ( buttonScaling.get( i ) * scale ) ) );
+                    final int index = gridY * mGridWidth + gridX;
+                    if( mButtonGrid[index] != GRID_EMPTY )
+                        continue;
+                    
+                    final int maskX = Math.min( (int) ( ( ( gridX << GRID_SHIFT ) - left ) / maskScale ), mask.width - 1 );
                     
-                    // Ignore the alpha component if any
-                    int rgb = c & 0x00ffffff;
+                    // Ignore the alpha component if any, and black
+                    final int rgb = pixels[maskY * mask.width + maskX] & 0x00ffffff;
+                    if( rgb == 0 )
+                        continue;
                     
-                    // Ignore black and get the N64 button associated with this color
-                    if( rgb > 0 )
-                        return getButtonFromColor( rgb );
+                    int button = colorButtons.get( rgb, GRID_EMPTY );
+                    if( button == GRID_EMPTY )
+                    {
+                        final int match = getButtonFromColor( rgb );
+                        button = match == UNMAPPED ? GRID_UNMAPPED : match + 1;
+                        colorButtons.put( rgb, button );
+                    }
+                    mButtonGrid[index] = (byte) button;
                 }
             }
         }
-        return UNMAPPED;
+    }
+    
+    /**
+     * Gets the first grid location at or after a digitizer coordinate.
+     * 
+     * @param pixel The digitizer coordinate, in pixels.
+     * 
+     * @return The grid coordinate, never negative.
+     */
+    private static int toGrid( int pixel )
+    {
+        return pixel <= 0 ? 0 : ( pixel + ( 1 << GRID_SHIFT ) - 1 ) >> GRID_SHIFT;
+    }
+    
+    /**
+     * Gets the N64 button mapped to a given touch location.
+     * 
+     * @param xLocation The x-coordinate of the touch, in pixels.
+     * @param yLocation The y-coordinate of the touch, in pixels.
+     * 
+     * @return The N64 button the location is mapped to, or UNMAPPED.
+     * 
+     * @see TouchMap#UNMAPPED
+     */
+    public int getButtonPress( int xLocation, int yLocation )
+    {
+        if( mButtonGrid == null || xLocation < 0 || yLocation < 0 )
+            return UNMAPPED;
+        
+        final int gridX = xLocation >> GRID_SHIFT;
+        final int gridY = yLocation >> GRID_SHIFT;
+        if( gridX >= mGridWidth || gridY >= mGridHeight )
+            return UNMAPPED;
+        
+        // The button masks were resolved by resize
+        final byte button = mButtonGrid[gridY * mGridWidth + gridX];
+        return button > 0 ? button - 1 : UNMAPPED;
     }
     
     /**
@@ -551,6 +638,8 @@ public class TouchMap
                         buttonMasks.get( i ).fitPercent( buttonX.get( i ), getAdjustedYPos(buttonY.get( i )), w, h );
                     }
                 }
+                
+                buildButtonGrid( w, h );
             }
         }
     }
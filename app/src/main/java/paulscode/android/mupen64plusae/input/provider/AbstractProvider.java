@@ -24,6 +24,8 @@ import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 
+import java.util.List;
+
 import paulscode.android.mupen64plusae.input.map.InputMap;
 import paulscode.android.mupen64plusae.util.SubscriptionManager;
 
@@ -57,7 +59,8 @@ public abstract class AbstractProvider
         public void onInput( int inputCode, float strength, int hardwareId );
         
         /**
-         * Called when multiple inputs have been dispatched simultaneously.
+         * Called when multiple inputs have been dispatched simultaneously. The arrays are reused
+         * for later inputs, they must not be changed or kept after returning.
          * 
          * @param inputCodes The universal input codes that were dispatched.
          * @param strengths  The input strengths, between 0 and 1, inclusive.
@@ -370,7 +373,9 @@ public abstract class AbstractProvider
      */
     protected void notifyListeners( int[] inputCodes, float[] strengths, int hardwareId )
     {
-        for( OnInputListener listener : mPublisher.getSubscribers() )
-            listener.onInput( inputCodes.clone(), strengths.clone(), hardwareId );
+        // The arrays are reused by the providers, listeners must copy anything they keep
+        final List<OnInputListener> listeners = mPublisher.getSubscribers();
+        for( int i = 0; i < listeners.size(); i++ )
+            listeners.get( i ).onInput( inputCodes, strengths, hardwareId );
     }
 }
@@ -20,15 +20,21 @@
  */
 package paulscode.android.mupen64plusae.input.provider;
 
+import android.util.SparseArray;
 import android.view.InputDevice;
 import android.view.InputDevice.MotionRange;
 import android.view.MotionEvent;
 import android.view.View;
 
+import paulscode.android.mupen64plusae.input.InputLatencyTracer;
 import paulscode.android.mupen64plusae.input.map.AxisMap;
 
 /**
  * A class for transforming Android MotionEvent inputs into a common format.
+ * <p>
+ * The motion ranges and axis classes a device reports are looked up the first time it sends an
+ * event, and again only once Android hands out a new {@link InputDevice} for it, which it does
+ * whenever the device is reconfigured or reconnected.
  */
 public class AxisProvider extends AbstractProvider implements View.OnGenericMotionListener
 {
@@ -44,6 +50,65 @@ public class AxisProvider extends AbstractProvider implements View.OnGenericMoti
     /** Flat value override if the os privided one is above MAX_FLAT */
     private static final float FLAT_OVERRIDE = 0.25f;
 
+    /** Flat value of an axis the device doesn't have */
+    private static final float NO_RANGE = -1;
+
+    /** The axis information of each device, by device id */
+    private final SparseArray<DeviceAxes> mDeviceAxes = new SparseArray<DeviceAxes>();
+
+    /** The strengths of the input codes, reused for every event */
+    private float[] mStrengths;
+
+    /**
+     * The axis information of a device needed to read each input code, so that events don't have
+     * to query the device.
+     */
+    private static class DeviceAxes
+    {
+        /** The device this was read from */
+        final InputDevice device;
+
+        /** The source of the events this was read for */
+        final int source;
+
+        /** The flat region of each axis for the event source, or NO_RANGE */
+        final float[] centerFlats;
+
+        /** The flat region of each axis as a joystick, or NO_RANGE */
+        final float[] normalizeFlats;
+
+        /** The class of each axis */
+        final int[] axisClasses;
+
+        DeviceAxes( InputDevice device, int source, int[] inputCodes )
+        {
+            this.device = device;
+            this.source = source;
+            centerFlats = new float[inputCodes.length];
+            normalizeFlats = new float[inputCodes.length];
+            axisClasses = new int[inputCodes.length];
+
+            final AxisMap axisInfo = AxisMap.getMap( device );
+            for( int i = 0; i < inputCodes.length; i++ )
+            {
+                final int axisCode = inputToAxisCode( inputCodes[i] );
+                centerFlats[i] = getFlat( device.getMotionRange( axisCode, source ) );
+                normalizeFlats[i] = getFlat( device.getMotionRange( axisCode, InputDevice.SOURCE_JOYSTICK ) );
+                axisClasses[i] = axisInfo != null ? axisInfo.getClass( axisCode ) : AxisMap.AXIS_CLASS_UNKNOWN;
+            }
+        }
+
+        private static float getFlat( MotionRange range )
+        {
+            if( range == null )
+                return NO_RANGE;
+
+            //Some devices with bad drivers report invalid flat regions
+            final float flat = range.getFlat();
+            return flat > MAX_FLAT || flat < 0.0 ? FLAT_OVERRIDE : flat;
+        }
+    }
+
     /**
      * Instantiates a new axis provider.
      */
@@ -53,6 +118,7 @@ public class AxisProvider extends AbstractProvider implements View.OnGenericMoti
         mInputCodes = new int[DEFAULT_NUM_INPUTS];
         for( int i = 0; i < mInputCodes.length; i++ )
             mInputCodes[i] = -( i + 1 );
+        mStrengths = new float[mInputCodes.length];
     }
 
     /**
@@ -78,33 +144,8 @@ public class AxisProvider extends AbstractProvider implements View.OnGenericMoti
     public void setInputCodeFilter( int[] inputCodeFilter )
     {
         mInputCodes = inputCodeFilter.clone();
-    }
-
-    private static float getCenteredAxis(MotionEvent event, InputDevice device, int axis)
-    {
-        final InputDevice.MotionRange range = device.getMotionRange(axis, event.getSource());
-
-        // A joystick at rest does not always report an absolute position of
-        // (0,0). Use the getFlat() method to determine the range of values
-        // bounding the joystick axis center.
-        if (range != null) {
-            float flat = range.getFlat();
-            final float value = event.getAxisValue(axis);
-
-            //Some devices with bad drivers report invalid flat regions
-            if(flat > MAX_FLAT || flat < 0.0)
-            {
-                flat = FLAT_OVERRIDE;
-            }
-
-            // Ignore axis values that are within the 'flat' region of the
-            // joystick axis center.
-            if (Math.abs(value) > flat) {
-                return value;
-            }
-        }
-
-        return 0;
+        mStrengths = new float[mInputCodes.length];
+        mDeviceAxes.clear();
     }
 
     /**
@@ -117,8 +158,9 @@ public class AxisProvider extends AbstractProvider implements View.OnGenericMoti
     @Override
     public boolean onGenericMotion(View v, MotionEvent event )
     {
-        boolean isJoystick = (((event.getSource() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK) ||
-                ((event.getSource() & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD)) &&
+        final int source = event.getSource();
+        boolean isJoystick = (((source & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK) ||
+                ((source & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD)) &&
             event.getAction() == MotionEvent.ACTION_MOVE;
 
         // Ignore motion events from non-joysticks (mice are a problem)
@@ -130,92 +172,90 @@ public class AxisProvider extends AbstractProvider implements View.OnGenericMoti
         if(device == null)
             return false;
 
-        AxisMap axisInfo = AxisMap.getMap( device );
+        DeviceAxes axes = mDeviceAxes.get( device.getId() );
+        if( axes == null || axes.device != device || axes.source != source )
+        {
+            axes = new DeviceAxes( device, source, mInputCodes );
+            mDeviceAxes.put( device.getId(), axes );
+        }
 
         // Read all the requested axes
-        float[] strengths = new float[mInputCodes.length];
         for( int i = 0; i < mInputCodes.length; i++ )
         {
-            int inputCode = mInputCodes[i];
+            // Skip the axes the device doesn't have
+            final float flat = axes.centerFlats[i];
+            if( flat == NO_RANGE )
+            {
+                mStrengths[i] = 0;
+                continue;
+            }
 
-            // Compute the axis code from the input code
-            int axisCode = inputToAxisCode( inputCode );
+            int inputCode = mInputCodes[i];
 
-            // Get the analog value using the Android API
-            float strength = getCenteredAxis(event, device, axisCode);
+            // Get the analog value using the Android API. A joystick at rest does not always
+            // report an absolute position of (0,0), ignore values within the 'flat' region of the
+            // joystick axis center.
+            float strength = event.getAxisValue( inputToAxisCode( inputCode ) );
+            if( Math.abs( strength ) <= flat )
+                strength = 0;
 
             // Modify strength if necessary
-            strength = strength != 0 ? normalizeStrength( strength, axisInfo, device, axisCode ) : 0.0f;
+            strength = strength != 0 ? normalizeStrength( strength, axes.axisClasses[i], axes.normalizeFlats[i] ) : 0.0f;
 
             // If the strength points in the correct direction, record it
             boolean direction1 = inputToAxisDirection( inputCode );
             boolean direction2 = strength > 0;
             if( direction1 == direction2 )
-                strengths[i] = Math.abs( strength );
+                mStrengths[i] = Math.abs( strength );
             else
-                strengths[i] = 0;
+                mStrengths[i] = 0;
         }
 
         // Notify listeners about new input data
-        notifyListeners( mInputCodes, strengths, getHardwareId( event ) );
+        InputLatencyTracer.beginEvent( InputLatencyTracer.SOURCE_AXIS, event.getEventTime() );
+        notifyListeners( mInputCodes, mStrengths, getHardwareId( event ) );
+        InputLatencyTracer.endEvent();
 
         return true;
     }
 
-    private float normalizeStrength( float strength, AxisMap axisInfo, InputDevice device,
-                                     int axisCode )
+    private static float normalizeStrength( float strength, int axisClass, float flat )
     {
-        if( axisInfo != null )
+        if( axisClass == AxisMap.AXIS_CLASS_IGNORED )
         {
-            int axisClass = axisInfo.getClass( axisCode );
+            // We should ignore this axis
+            strength = 0;
+        }
+        else if( flat != NO_RANGE )
+        {
+            // We should normalize this axis
             float tempStrengh = 0;
-
-            if( axisClass == AxisMap.AXIS_CLASS_IGNORED )
-            {
-                // We should ignore this axis
-                strength = 0;
-            }
-            else if( device != null )
+            switch( axisClass )
             {
-                // We should normalize this axis
-                MotionRange motionRange = device.getMotionRange( axisCode, InputDevice.SOURCE_JOYSTICK );
-                if( motionRange != null )
-                {
-                    float flat = motionRange.getFlat();
-                    //Some devices with bad drivers report invalid flat regions
-                    if(flat > MAX_FLAT || flat < 0.0)
-                    {
-                        flat = FLAT_OVERRIDE;
-                    }
-
-                    switch( axisClass )
-                    {
-                        case AxisMap.AXIS_CLASS_NORMAL:
-                            // Normalize
-                            //strength = ( strength - motionRange.getMin() ) / motionRange.getRange() * 2f - 1f;
-                            tempStrengh = (Math.abs(strength) - flat) / (1.0f - flat);
-                            //Restore sign
-                            strength = tempStrengh * Math.signum(strength);
-                            break;
-                        case AxisMap.AXIS_CLASS_N64_USB_STICK:
-                            // Normalize to [-1,1]
-                            // The Raphnet adapters through v2.x and some other USB adapters assume the N64
-                            // controller produces values in the range [-127,127].  However, the official N64 spec
-                            // says that raw values of +/- 80 indicate full strength.  Therefore we rescale by
-                            // multiplying by 127/80 (dividing by 0.63).
-                            // http://naesten.dyndns.org:8080/psyq/man/os/osContGetReadData.html
-                            // http://raphnet-tech.com/products/gc_n64_usb_adapters/
-                            // https://github.com/mupen64plus-ae/mupen64plus-ae/issues/89
-                            // https://github.com/mupen64plus-ae/mupen64plus-ae/issues/99
-                            // https://github.com/mupen64plus-ae/mupen64plus-ae/issues/188
-                            // http://www.paulscode.com/forum/index.php?topic=1076
-                            strength = strength / 0.63f;
-                            break;
-                        case AxisMap.AXIS_CLASS_UNKNOWN:
-                        default:
-                            // Do nothing
-                    }
-                }
+                case AxisMap.AXIS_CLASS_NORMAL:
+                    // Normalize
+                    //strength = ( strength - motionRange.getMin() ) / motionRange.getRange() * 2f - 1f;
+                    tempStrengh = (Math.abs(strength) - flat) / (1.0f - flat);
+                    //Restore sign
+                    strength = tempStrengh * Math.signum(strength);
+                    break;
+                case AxisMap.AXIS_CLASS_N64_USB_STICK:
+                    // Normalize to [-1,1]
+                    // The Raphnet adapters through v2.x and some other USB adapters assume the N64
+                    // controller produces values in the range [-127,127].  However, the official N64 spec
+                    // says that raw values of +/- 80 indicate full strength.  Therefore we rescale by
+                    // multiplying by 127/80 (dividing by 0.63).
+                    // http://naesten.dyndns.org:8080/psyq/man/os/osContGetReadData.html
+                    // http://raphnet-tech.com/products/gc_n64_usb_adapters/
+                    // https://github.com/mupen64plus-ae/mupen64plus-ae/issues/89
+                    // https://github.com/mupen64plus-ae/mupen64plus-ae/issues/99
+                    // https://github.com/mupen64plus-ae/mupen64plus-ae/issues/188
+                    // http://www.paulscode.com/forum/index.php?topic=1076
+                    strength = strength / 0.63f;
+                    break;
+                case AxisMap.AXIS_CLASS_UNKNOWN:
+                default:
+                    // Do nothing
             }
         }
         return strength;
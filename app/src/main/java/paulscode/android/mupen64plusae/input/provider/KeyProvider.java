@@ -27,6 +27,8 @@ import android.content.DialogInterface;
 import android.view.KeyEvent;
 import android.view.View;
 
+import paulscode.android.mupen64plusae.input.InputLatencyTracer;
+
 /**
  * A class for transforming Android KeyEvent inputs into a common format.
  */
@@ -174,7 +176,9 @@ public class KeyProvider extends AbstractProvider implements View.OnKeyListener,
             strength = 0;
         
         // Notify listeners about new input data
+        InputLatencyTracer.beginEvent( InputLatencyTracer.SOURCE_KEY, event.getEventTime() );
         notifyListeners( inputCode, strength, getHardwareId( event ) );
+        InputLatencyTracer.endEvent();
         
         return true;
     }
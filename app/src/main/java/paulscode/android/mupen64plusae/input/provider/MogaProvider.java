@@ -28,6 +28,8 @@ import com.bda.controller.KeyEvent;
 import com.bda.controller.MotionEvent;
 import com.bda.controller.StateEvent;
 
+import paulscode.android.mupen64plusae.input.InputLatencyTracer;
+
 /**
  * A class for transforming MOGA input events into a common format.
  */
@@ -67,7 +69,9 @@ public class MogaProvider extends AbstractProvider implements ControllerListener
         int hardwareId = getHardwareId( event );
         
         // Notify listeners about new input data
+        InputLatencyTracer.beginEvent( InputLatencyTracer.SOURCE_MOGA, event.getEventTime() );
         notifyListeners( inputCode, strength, hardwareId );
+        InputLatencyTracer.endEvent();
     }
     
     @Override
@@ -96,7 +100,9 @@ public class MogaProvider extends AbstractProvider implements ControllerListener
         int hardwareId = getHardwareId( event );
         
         // Notify listeners about new input data
+        InputLatencyTracer.beginEvent( InputLatencyTracer.SOURCE_MOGA, event.getEventTime() );
         notifyListeners( mInputCodes, strengths, hardwareId );
+        InputLatencyTracer.endEvent();
     }
     
     @Override
@@ -0,0 +1,209 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.jni;
+
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import paulscode.android.mupen64plusae.persistent.ConfigFile;
+
+/**
+ * Collects the values to write to a config file and only touches the file if they changed since
+ * they were last written.
+ * <p>
+ * A digest of all the values is kept in a small stamp file next to the config file, along with
+ * the size and modification time the config file had once written. When neither the values nor
+ * the file changed, the config file is not even read. Otherwise it is loaded, updated and saved
+ * in a single pass.
+ */
+class ConfigSync
+{
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /** Stands in for a null value in the digest, so that removing a value is also a change */
+    private static final byte NULL_MARKER = 1;
+
+    private final String mFilename;
+    private final ArrayList<String[]> mValues = new ArrayList<>();
+    private final MessageDigest mDigest;
+
+    /**
+     * Constructor.
+     *
+     * @param filename The config file to update.
+     */
+    ConfigSync( String filename )
+    {
+        mFilename = filename;
+
+        MessageDigest digest = null;
+        try
+        {
+            digest = MessageDigest.getInstance( "MD5" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            // The file will simply always be written
+            Log.e( "ConfigSync", "MD5 is not available" );
+        }
+        mDigest = digest;
+    }
+
+    /**
+     * Queues a value to write, see {@link ConfigFile#put(String, String, String)}.
+     *
+     * @param sectionTitle The title of the section to contain the parameter.
+     * @param parameter The name of the parameter.
+     * @param value The value to give the parameter, or null to remove it.
+     */
+    void put( String sectionTitle, String parameter, String value )
+    {
+        mValues.add( new String[] { sectionTitle, parameter, value } );
+
+        if( mDigest != null )
+        {
+            update( sectionTitle );
+            update( parameter );
+            update( value );
+        }
+    }
+
+    /**
+     * Writes the queued values to the config file, unless they were already written.
+     *
+     * @return True if successful.
+     */
+    boolean commit()
+    {
+        final File configFile = new File( mFilename );
+        final File stampFile = new File( mFilename + ".sync" );
+        final byte[] digest = mDigest == null ? null : mDigest.digest();
+
+        if( digest != null && isUpToDate( configFile, stampFile, digest ) )
+            return true;
+
+        final ConfigFile config = new ConfigFile( mFilename );
+        for( String[] value : mValues )
+            config.put( value[0], value[1], value[2] );
+
+        if( !config.save() )
+            return false;
+
+        if( digest != null )
+            writeStamp( configFile, stampFile, digest );
+
+        return true;
+    }
+
+    private void update( String value )
+    {
+        if( value == null )
+            mDigest.update( NULL_MARKER );
+        else
+            mDigest.update( value.getBytes( UTF_8 ) );
+
+        // Separate the strings so that moving characters from one to the next is a change
+        mDigest.update( (byte) 0 );
+    }
+
+    private static boolean isUpToDate( File configFile, File stampFile, byte[] digest )
+    {
+        if( !configFile.exists() )
+            return false;
+
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new FileInputStream( stampFile ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            return false;
+        }
+
+        try
+        {
+            final byte[] previousDigest = new byte[in.readUnsignedByte()];
+            in.readFully( previousDigest );
+
+            // The core also writes its own config file, so check it wasn't touched since
+            return Arrays.equals( previousDigest, digest ) && in.readLong() == configFile.length()
+                    && in.readLong() == configFile.lastModified();
+        }
+        catch( IOException e )
+        {
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+    }
+
+    private static void writeStamp( File configFile, File stampFile, byte[] digest )
+    {
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new FileOutputStream( stampFile ) );
+            out.writeByte( digest.length );
+            out.write( digest );
+            out.writeLong( configFile.length() );
+            out.writeLong( configFile.lastModified() );
+        }
+        catch( IOException e )
+        {
+            // Not a problem, the file will just be written again next time
+            Log.w( "ConfigSync", "Unable to write " + stampFile + ": " + e );
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+}
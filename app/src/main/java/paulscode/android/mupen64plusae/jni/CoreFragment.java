@@ -444,12 +444,21 @@ public class CoreFragment extends Fragment implements CoreServiceListener
         }
     }
 
-    public void registerVibrator( int player, Vibrator vibrator )
+    /**
+     * Routes a player's rumble to a vibrator
+     * @param player Player number, between 1 and 4
+     * @param vibrator Vibrator of the player's device
+     * @return True if the vibrator was registered, false if the core service isn't bound yet
+     */
+    public boolean registerVibrator( int player, Vibrator vibrator )
     {
         if(mCoreService != null)
         {
             mCoreService.registerVibrator(player, vibrator);
+            return true;
         }
+
+        return false;
     }
 
     public void pauseEmulator()
@@ -51,7 +51,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import paulscode.android.mupen64plusae.ActivityHelper;
+import paulscode.android.mupen64plusae.game.AutoSaveIndex;
 import paulscode.android.mupen64plusae.game.GameActivity;
+import paulscode.android.mupen64plusae.game.SaveStateStore;
 
 import static paulscode.android.mupen64plusae.jni.NativeExports.emuGetFramelimiter;
 import static paulscode.android.mupen64plusae.jni.NativeImports.removeOnStateCallbackListener;
@@ -202,6 +204,17 @@ public class CoreService extends Service implements NativeImports.OnFpsChangedLi
                             if(!new File(latestSave + "." + COMPLETE_EXTENSION).createNewFile()) {
                                 Log.e("CoreService", "Unable to save file due to file write failure: " + latestSave);
                             }
+
+                            AutoSaveIndex.getInstance(new File(latestSave).getParent()).markComplete(latestSave);
+
+                            //Older saves are now only a fallback, store them compactly
+                            new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    SaveStateStore.compact(latestSave);
+                                }
+                            }, "SaveStateStore").start();
                         } catch (IOException e) {
                             Log.e("CoreService", "Unable to save file due to file write failure: " + latestSave);
                         }
@@ -300,9 +313,21 @@ public class CoreService extends Service implements NativeImports.OnFpsChangedLi
         NativeExports.emuLoadSlot();
     }
 
-    void loadState(File file)
+    void loadState(final File file)
     {
-        NativeExports.emuLoadFile( file.getAbsolutePath() );
+        if(!SaveStateStore.isChunked(file))
+        {
+            NativeExports.emuLoadFile( file.getAbsolutePath() );
+            return;
+        }
+
+        //Put the save back together off the UI thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                NativeExports.emuLoadFile( SaveStateStore.restore(file.getAbsolutePath()) );
+            }
+        }, "SaveStateStore").start();
     }
 
     void screenshot()
@@ -421,7 +446,8 @@ public class CoreService extends Service implements NativeImports.OnFpsChangedLi
             if(!mIsRestarting)
             {
                 arglist.add( "--savestate" );
-                arglist.add( mSaveToLoad );
+                //Older auto saves have to be put back together first
+                arglist.add( SaveStateStore.restore( mSaveToLoad ) );
             }
 
             if( !mIsFrameLimiterEnabled )
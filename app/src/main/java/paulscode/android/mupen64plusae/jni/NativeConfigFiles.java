@@ -63,7 +63,7 @@ class NativeConfigFiles
         supportsFullGl = AppData.doesSupportFullGL();
 
         // gln64 config file
-        final ConfigFile gln64_conf = new ConfigFile( appData.gln64_conf );
+        final ConfigSync gln64_conf = new ConfigSync( appData.gln64_conf );
         gln64_conf.put( ConfigFile.SECTIONLESS_NAME, "window width", String.valueOf( game.videoRenderWidth ) );
         gln64_conf.put( ConfigFile.SECTIONLESS_NAME, "window height", String.valueOf( game.videoRenderHeight ) );
         gln64_conf.put( ConfigFile.SECTIONLESS_NAME, "auto frameskip", boolToNum( game.isGln64AutoFrameskipEnabled ) );
@@ -78,11 +78,11 @@ class NativeConfigFiles
         gln64_conf.put( ConfigFile.SECTIONLESS_NAME, "hack z", boolToNum( game.isGln64HackDepthEnabled ) );
 
         // glide64 config file
-        final ConfigFile glide64_conf = new ConfigFile( appData.glide64mk2_ini );
+        final ConfigSync glide64_conf = new ConfigSync( appData.glide64mk2_ini );
         glide64_conf.put( "DEFAULT", "aspect", "2" );                                                                       // Stretch to SurfaceView, Java will manage aspect ratio
 
         // Core and rice config file
-        final ConfigFile mupen64plus_cfg = new ConfigFile( game.getMupen64plusCfg() );
+        final ConfigSync mupen64plus_cfg = new ConfigSync( game.getMupen64plusCfg() );
 
         mupen64plus_cfg.put( "Audio-OpenSLES", "Version", "1.000000" );                                                          // Mupen64Plus OpenSLES Audio Plugin config parameter version number
         mupen64plus_cfg.put( "Audio-OpenSLES", "SWAP_CHANNELS", boolToTF( global.audioSwapChannels ) );                          // Swaps left and right channels
@@ -330,9 +330,10 @@ class NativeConfigFiles
         mupen64plus_cfg.put( "Video-Angrylion-Plus", "ViWidescreen", boolToTF( game.angrylionPlusPrefs.viWidescreen ) );
         mupen64plus_cfg.put( "Video-Angrylion-Plus", "ViHideOverscan", boolToTF( game.angrylionPlusPrefs.viHideOverscan ) );
 
-        gln64_conf.save();
-        glide64_conf.save();
-        return mupen64plus_cfg.save();
+        // Files whose values didn't change since the last launch are left untouched
+        gln64_conf.commit();
+        glide64_conf.commit();
+        return mupen64plus_cfg.commit();
 
         //@formatter:on
     }
@@ -403,7 +404,7 @@ class NativeConfigFiles
      * @param setting Setting value to look up
      * @param value Value to use if setting is not present in the file
      */
-    private static void putGLideN64Setting(ConfigFile mupenConfigFile, ConfigFile glideN64ConfigFile,
+    private static void putGLideN64Setting(ConfigSync mupenConfigFile, ConfigFile glideN64ConfigFile,
         GamePrefs game, String setting, String value)
     {
         String headerNameURL = game.gameHeaderName;
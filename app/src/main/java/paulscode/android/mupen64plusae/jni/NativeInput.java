@@ -21,8 +21,14 @@
 package paulscode.android.mupen64plusae.jni;
 
 
+import android.os.SystemClock;
 import android.os.Vibrator;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import paulscode.android.mupen64plusae.input.InputLatencyTracer;
+
 /**
  * Calls made between the native input-android library and Java. Any function names changed here
  * should also be changed in the corresponding C code, and vice versa.
@@ -42,20 +48,104 @@ public class NativeInput
 
     private static final Vibrator[] sVibrators = new Vibrator[4];
     
+    /** Size of the packed state of a controller, in bytes. */
+    private static final int STATE_SIZE = 4;
+    
+    /** Offsets of the ints the plugin writes back, after the four states and sequence numbers. */
+    private static final int CONSUMED_SEQUENCE_OFFSET = 8 * STATE_SIZE;
+    private static final int CONSUMED_TIME_OFFSET = 12 * STATE_SIZE;
+    
+    /**
+     * The packed state of each controller, read by the native plugin whenever the core polls the
+     * controllers. The low 16 bits hold the buttons, followed by the x-axis and y-axis bytes.
+     * <p>
+     * The states are followed by the sequence number of each state, counting the states written.
+     * The plugin then writes back the sequence number of the state it read last, and the time it
+     * first read it in milliseconds on the {@link SystemClock#uptimeMillis()} clock, cut to 32 bits.
+     */
+    private static final ByteBuffer sStates =
+            ByteBuffer.allocateDirect( 16 * STATE_SIZE ).order( ByteOrder.nativeOrder() );
+    
+    /** The sequence number of the last state written for each controller, guarded by itself. */
+    private static final int[] sSequences = new int[4];
+    
     /**
      * Initialize input-android plugin.
      */
-    static native void init();
+    static void init()
+    {
+        initPlugin( sStates );
+    }
     
     /**
-     * Set the button/axis state of a controller.
+     * Initialize input-android plugin.
+     * 
+     * @param states The buffer holding the packed state of each controller.
+     */
+    private static native void initPlugin( ByteBuffer states );
+    
+    /**
+     * Writes the state of a controller, then its sequence number with release semantics, to the
+     * buffer passed to {@link #initPlugin(ByteBuffer)}.
+     * 
+     * @param controllerNum Controller index, in the range [0,3].
+     * @param state The packed state.
+     * @param sequence The sequence number of the state.
+     */
+    private static native void publishState( int controllerNum, int state, int sequence );
+    
+    /**
+     * Set the button/axis state of a controller. This only writes to memory shared with the native
+     * plugin, nothing is written if the state didn't change.
      * 
      * @param controllerNum Controller index, in the range [0,3].
      * @param buttons The pressed state of the buttons.
      * @param axisX The analog value of the x-axis, in the range [-80,80].
      * @param axisY The analog value of the y-axis, in the range [-80,80].
      */
-    static native void setState( int controllerNum, boolean[] buttons, int axisX, int axisY );
+    static void setState( int controllerNum, boolean[] buttons, int axisX, int axisY )
+    {
+        int state = ( ( axisX & 0xff ) << 16 ) | ( ( axisY & 0xff ) << 24 );
+        for( int b = 0; b < 16; b++ )
+        {
+            if( buttons[b] )
+                state |= 1 << b;
+        }
+        
+        // Touch, keys and sensors write from different threads, each state must get its own
+        // sequence number and be published in that order
+        synchronized( sSequences )
+        {
+            if( sStates.getInt( controllerNum * STATE_SIZE ) != state )
+            {
+                final int sequence = ++sSequences[controllerNum];
+                publishState( controllerNum, state, sequence );
+                InputLatencyTracer.onStateWritten( controllerNum, sequence );
+            }
+        }
+    }
+    
+    /**
+     * Gets the sequence number of the last state of a controller the native plugin read.
+     * 
+     * @param controllerNum Controller index, in the range [0,3].
+     * @return The sequence number, states written later have greater numbers.
+     */
+    public static int getConsumedSequence( int controllerNum )
+    {
+        return sStates.getInt( CONSUMED_SEQUENCE_OFFSET + controllerNum * STATE_SIZE );
+    }
+    
+    /**
+     * Gets the time the native plugin first read the last state of a controller it read.
+     * 
+     * @param controllerNum Controller index, in the range [0,3].
+     * @return The {@link SystemClock#uptimeMillis()} time the state was consumed, cut to 32 bits.
+     */
+    public static int getConsumedTime( int controllerNum )
+    {
+        return sStates.getInt( CONSUMED_TIME_OFFSET + controllerNum * STATE_SIZE );
+    }
     
     /**
      * Set the plugged state and pak type of a controller.
@@ -1,21 +1,21 @@
 /**
  * Mupen64PlusAE, an N64 emulator for the Android platform
- * 
+ *
  * Copyright (C) 2013 Paul Lamb
- * 
+ *
  * This file is part of Mupen64PlusAE.
- * 
+ *
  * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
  * GNU General Public License as published by the Free Software Foundation, either version 3 of the
  * License, or (at your option) any later version.
- * 
+ *
  * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
  * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
  * GNU General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
  * not, see <http://www.gnu.org/licenses/>.
- * 
+ *
  * Authors: Paul Lamb, lioncash
  */
 package paulscode.android.mupen64plusae.persistent;
@@ -23,19 +23,21 @@ package paulscode.android.mupen64plusae.persistent;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.DataInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
 import java.util.Set;
 
 import paulscode.android.mupen64plusae.util.FileUtil;
@@ -55,23 +57,30 @@ import paulscode.android.mupen64plusae.util.FileUtil;
  * <li>Leading and trailing whitespace in lines, param names, and values is discarded.
  * <li>Whitespace inside brackets or double-quotes is not discarded.
  * </ul>
- * 
+ * The whole file is read into a single character buffer and parsed in one pass. Comments and the
+ * order of the lines are kept, so a file saved back only differs where values were changed. Files
+ * are only written when something changed, through a temporary file so that a crash can't leave
+ * a truncated file behind.
+ *
  * @author Paul Lamb
  */
 public class ConfigFile
 {
     /** The name we use for the untitled section (preamble) of the config file. */
     public static final String SECTIONLESS_NAME = "[<sectionless!>]";
-    
+
     /** Name of the config file. */
     private final String mFilename;
-    
+
     /** Sections mapped by title for easy lookup, with insertion order retained. */
     private final LinkedHashMap<String, ConfigSection> mConfigMap;
-    
+
+    /** True if sections were added or removed since the file was loaded or saved. */
+    private boolean mDirty = false;
+
     /**
      * Reads the entire config file, and saves the data to internal collections for manipulation.
-     * 
+     *
      * @param filename The config file to read from.
      */
     public ConfigFile( String filename )
@@ -80,59 +89,53 @@ public class ConfigFile
         mConfigMap = new LinkedHashMap<String, ConfigSection>();
         reload();
     }
-    
+
     /**
      * Looks up a config section by its title.
-     * 
+     *
      * @param sectionTitle Title of the section containing the parameter.
-     * 
+     *
      * @return A ConfigSection containing parameters, or null if not found.
      */
     public ConfigSection get( String sectionTitle )
     {
         return mConfigMap.get( sectionTitle );
     }
-    
+
     /**
      * Removes a config section by its title. Note that the removal is not actually persisted to
      * disk until the {@link #save()} method is called.
-     * 
+     *
      * @param sectionTitle Title of the section containing the parameter.
      */
     public void remove( String sectionTitle )
     {
-        mConfigMap.remove( sectionTitle );
+        if( mConfigMap.remove( sectionTitle ) != null )
+            mDirty = true;
     }
-    
+
     /**
      * Looks up the specified parameter under the specified section title.
-     * 
+     *
      * @param sectionTitle Title of the section containing the parameter.
      * @param parameter Name of the parameter.
-     * 
+     *
      * @return The value of the specified parameter, or null if not found.
      */
     public String get( String sectionTitle, String parameter )
     {
         ConfigSection section = mConfigMap.get( sectionTitle );
-        
-        // The specified section doesn't exist or is empty.. quit
-        if( section == null || section.parameters == null )
-            return null;
-        
-        ConfigParameter confParam = section.parameters.get( parameter );
-        
-        // The specified parameter doesn't exist.. quit
-        if( confParam == null )
+
+        // The specified section doesn't exist.. quit
+        if( section == null )
             return null;
-        
-        // Got it
-        return confParam.value;
+
+        return section.get( parameter );
     }
-    
+
     /**
      * Assigns the specified value to the specified parameter under the specified section.
-     * 
+     *
      * @param sectionTitle The title of the section to contain the parameter.
      * @param parameter The name of the parameter.
      * @param value The value to give the parameter.
@@ -145,22 +148,41 @@ public class ConfigFile
             // Add a new section
             section = new ConfigSection( sectionTitle );
             mConfigMap.put( sectionTitle, section );
+            mDirty = true;
         }
         section.put( parameter, value );
     }
-    
+
     /**
      * Erases any previously loaded data.
      */
     public void clear()
     {
+        if( !mConfigMap.isEmpty() )
+            mDirty = true;
         mConfigMap.clear();
     }
-    
+
+    /**
+     * @return True if anything was changed since the file was loaded or saved.
+     */
+    public boolean isDirty()
+    {
+        if( mDirty )
+            return true;
+
+        for( ConfigSection section : mConfigMap.values() )
+        {
+            if( section.mDirty )
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Re-loads the entire config file, overwriting any unsaved changes, and saves the data in
      * 'configMap'.
-     * 
+     *
      * @return True if successful.
      * @see #save()
      */
@@ -169,58 +191,62 @@ public class ConfigFile
         // Make sure a file was actually specified
         if( TextUtils.isEmpty( mFilename ) )
             return false;
-        
+
         // Free any previously loaded data
-        clear();
-        
-        FileInputStream fstream;
+        mConfigMap.clear();
+        mDirty = false;
+
+        File file = new File( mFilename );
+        Reader reader;
         try
         {
-            fstream = new FileInputStream( mFilename );
+            reader = new InputStreamReader( new FileInputStream( file ) );
         }
         catch( FileNotFoundException fnfe )
         {
             // File not found... we can't continue
             return false;
         }
-        
-        DataInputStream in = new DataInputStream( fstream );
-        BufferedReader br = new BufferedReader( new InputStreamReader( in ) );
-        
-        String sectionName = SECTIONLESS_NAME;
-        ConfigSection section = new ConfigSection( sectionName, br ); // Read the 'sectionless'
-                                                                      // section
-        mConfigMap.put( sectionName, section ); // Save the data to 'configMap'
-        
-        // Loop through reading the remaining sections
-        while( !TextUtils.isEmpty( section.nextName ) )
-        {
-            // Get the next section name
-            sectionName = section.nextName;
-            
-            // Load the next section
-            section = new ConfigSection( sectionName, br );
-            mConfigMap.put( sectionName, section ); // Save the data to 'configMap'
-        }
-        
+
+        // Read everything in one go, the file length in bytes is enough for the characters in
+        // almost every case
+        char[] buffer = new char[(int) file.length() + 1];
+        int length = 0;
         try
         {
-            // Finished. Close the file.
-            in.close();
-            br.close();
+            int count;
+            while( ( count = reader.read( buffer, length, buffer.length - length ) ) != -1 )
+            {
+                length += count;
+                if( length == buffer.length )
+                    buffer = Arrays.copyOf( buffer, buffer.length * 2 );
+            }
         }
         catch( IOException ioe )
         {
             // (Don't care)
         }
-        
+        finally
+        {
+            try
+            {
+                reader.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+
+        parse( buffer, length );
+
         // Success
         return true;
     }
-    
+
     /**
-     * Saves the data from 'configMap' back to the config file.
-     * 
+     * Saves the data from 'configMap' back to the config file, if anything changed since it was
+     * loaded or the file doesn't exist.
+     *
      * @return True if successful. False otherwise.
      * @see #reload()
      */
@@ -232,379 +258,415 @@ public class ConfigFile
             Log.e( "ConfigFile", "Filename not specified in method save()" );
             return false; // Quit
         }
-        
+
+        File file = new File( mFilename );
+
+        // Nothing to do
+        if( !isDirty() && file.exists() )
+            return true;
+
         // Ensure parent directories exist before writing file
-        FileUtil.makeDirs(new File( mFilename ).getParentFile().getPath());
-        
-        // Write data to file
-        FileWriter fw = null;
+        FileUtil.makeDirs( file.getParentFile().getPath() );
+
+        // Write data to a temporary file first
+        File tempFile = new File( mFilename + ".tmp" );
+        Writer writer = null;
         try
         {
-            fw = new FileWriter( mFilename );
-            
+            writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tempFile ) ) );
+
             // Loop through the sections
             for( ConfigSection section : mConfigMap.values() )
             {
                 if( section != null )
-                    section.save( fw );
+                    section.save( writer );
             }
+            writer.flush();
         }
         catch( IOException ioe )
         {
-            Log.e( "ConfigFile", "IOException creating file " + mFilename + ", error message: "
+            Log.e( "ConfigFile", "IOException creating file " + tempFile + ", error message: "
                     + ioe.getMessage() );
             return false; // Some problem creating the file.. quit
         }
         finally
         {
-            if( fw != null )
+            if( writer != null )
             {
                 try
                 {
-                    fw.close();
+                    writer.close();
                 }
                 catch( IOException ignored )
                 {
                 }
             }
         }
-        
+
+        if( !tempFile.renameTo( file ) )
+        {
+            Log.e( "ConfigFile", "Unable to rename " + tempFile + " to " + file );
+            return false;
+        }
+
+        mDirty = false;
+        for( ConfigSection section : mConfigMap.values() )
+            section.mDirty = false;
+
         // Success
         return true;
     }
-    
+
     /**
      * Returns a handle to the configMap keyset.
-     * 
+     *
      * @return keyset containing all the config section titles.
      */
     public Set<String> keySet()
     {
         return mConfigMap.keySet();
     }
-    
+
+    /**
+     * Parses the contents of a config file into 'configMap'. Parsing stops at the first line with
+     * bad syntax, everything before it is kept.
+     *
+     * @param buffer Contents of the file.
+     * @param length Number of characters in the buffer.
+     */
+    private void parse( char[] buffer, int length )
+    {
+        ConfigSection section = new ConfigSection( SECTIONLESS_NAME ); // The 'sectionless' section
+        mConfigMap.put( SECTIONLESS_NAME, section );
+
+        int lineStart = 0;
+        while( lineStart < length )
+        {
+            // Find the end of the line, accepting \n, \r and \r\n
+            int lineEnd = lineStart;
+            while( lineEnd < length && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r' )
+                lineEnd++;
+            int nextLine = lineEnd + 1;
+            if( lineEnd < length && buffer[lineEnd] == '\r' && nextLine < length && buffer[nextLine] == '\n' )
+                nextLine++;
+
+            // Trim the line without copying it
+            int start = skipWhitespace( buffer, lineStart, lineEnd );
+            int end = trimEnd( buffer, start, lineEnd );
+
+            if( start == end || buffer[start] == '#' || buffer[start] == ';'
+                    || ( end - start > 1 && buffer[start] == '/' && buffer[start + 1] == '/' ) )
+            {
+                // A comment or blank line.
+                section.addLine( new ConfigLine( new String( buffer, lineStart, lineEnd - lineStart ) + "\n" ) );
+            }
+            else if( indexOf( buffer, start, end, '=' ) != -1 )
+            {
+                // This should be a "parameter=value" pair:
+                int x = indexOf( buffer, start, end, '=' );
+
+                if( x == start )
+                    return; // This shouldn't happen (bad syntax). Quit.
+
+                if( x < end - 1 )
+                {
+                    int keyEnd = trimEnd( buffer, start, x );
+                    int valueStart = skipWhitespace( buffer, x + 1, end );
+
+                    // It's ok to have an empty assignment (such as "param=")
+                    if( valueStart < end )
+                    {
+                        String p = new String( buffer, start, keyEnd - start );
+                        String v = new String( buffer, valueStart, end - valueStart );
+
+                        // Save the pair, the last value wins if the parameter is repeated
+                        ConfigLine line = section.parameters.get( p.toLowerCase( Locale.US ) );
+                        if( line != null && line.parameter.equals( p ) )
+                            line.value = v;
+                        else
+                            section.addParameter( new ConfigLine(
+                                    new String( buffer, lineStart, x + 1 - lineStart ), p, v ) );
+                    }
+                }
+            }
+            else if( indexOf( buffer, start, end, '[' ) != -1 )
+            {
+                // This should be the beginning of the next section
+                int x = indexOf( buffer, start, end, '[' );
+                int y = indexOf( buffer, start, end, ']' );
+
+                if( ( end - start < 3 ) || ( y <= x + 1 ) )
+                    return; // This shouldn't happen (bad syntax). Quit.
+
+                int nameStart = skipWhitespace( buffer, x + 1, y );
+                String name = new String( buffer, nameStart, trimEnd( buffer, nameStart, y ) - nameStart );
+
+                // Empty section names can't be looked up, stop there like before
+                if( name.length() == 0 )
+                    return;
+
+                section = new ConfigSection( name );
+                mConfigMap.put( name, section ); // Save the data to 'configMap'
+            }
+            else
+            {
+                // This shouldn't happen (bad syntax). Quit.
+                return;
+            }
+
+            lineStart = nextLine;
+        }
+    }
+
+    private static int skipWhitespace( char[] buffer, int start, int end )
+    {
+        // Same definition of whitespace as String.trim()
+        while( start < end && buffer[start] <= ' ' )
+            start++;
+        return start;
+    }
+
+    private static int trimEnd( char[] buffer, int start, int end )
+    {
+        while( end > start && buffer[end - 1] <= ' ' )
+            end--;
+        return end;
+    }
+
+    private static int indexOf( char[] buffer, int start, int end, char c )
+    {
+        for( int i = start; i < end; i++ )
+        {
+            if( buffer[i] == c )
+                return i;
+        }
+        return -1;
+    }
+
     /**
-     * The ConfigSection class reads all the parameters in the next section of the config file.
-     * Saves the name of the next section (or null if end of file or error). Can also be used to add
-     * a new section to an existing configuration.
+     * The ConfigSection class holds all the lines of a section of the config file, in order.
+     * Parameters are indexed by name so that they can be looked up, changed or removed without
+     * going through the lines. Can also be used to add a new section to an existing configuration.
      */
     public static class ConfigSection
     {
         public String name; // Section name
-        private HashMap<String, ConfigParameter> parameters; // Parameters sorted by name for easy
-                                                             // lookup
-        private LinkedList<ConfigLine> lines; // All the lines in this section, including comments
-        
-        // Name of the next section, or null if there are no sections left to read in the file:
-        private String nextName = null;
-        
+
+        // Parameter lines by lower case name, parameter names are matched regardless of case
+        // when they are changed
+        private final HashMap<String, ConfigLine> parameters;
+
+        // All the lines in this section, including comments, in a doubly linked list
+        private ConfigLine firstLine = null;
+        private ConfigLine lastLine = null;
+
+        // True if a parameter was changed since the file was loaded or saved
+        private boolean mDirty = false;
+
         /**
          * Constructor: Creates an empty config section
-         * 
+         *
          * @param sectionName The section title.
          */
         public ConfigSection( String sectionName )
         {
-            parameters = new HashMap<String, ConfigParameter>();
-            lines = new LinkedList<ConfigLine>();
-            
+            parameters = new HashMap<String, ConfigLine>();
+
             if( !TextUtils.isEmpty( sectionName ) && !sectionName.equals( SECTIONLESS_NAME ) )
-                lines.add( new ConfigLine( ConfigLine.LINE_SECTION, "[" + sectionName + "]\n", null ) );
-            
+                addLine( new ConfigLine( "[" + sectionName + "]\n" ) );
+
             name = sectionName;
         }
-        
-        // TODO: Clean this method up a bit?
-        /**
-         * Constructor: Reads the next section of the config file, and saves it in 'parameters'.
-         * 
-         * @param sectionName The section title.
-         * @param br The config file to read from.
-         */
-        public ConfigSection( String sectionName, BufferedReader br )
-        {
-            String fullLine, strLine, p, v;
-            ConfigParameter confParam;
-            int x, y;
-            
-            parameters = new HashMap<String, ConfigParameter>();
-            lines = new LinkedList<ConfigLine>();
-            
-            if( !TextUtils.isEmpty( sectionName ) && !sectionName.equals( SECTIONLESS_NAME ) )
-                lines.add( new ConfigLine( ConfigLine.LINE_SECTION, "[" + sectionName + "]\n", null ) );
-            
-            name = sectionName;
-            
-            // No file to read from. Quit.
-            if( br == null )
-                return;
-            
-            try
-            {
-                while( ( fullLine = br.readLine() ) != null )
-                {
-                    strLine = fullLine.trim();
-                    if( ( strLine.length() < 1 )
-                            || ( strLine.substring( 0, 1 ).equals( "#" ) )
-                            || ( strLine.substring( 0, 1 ).equals( ";" ) )
-                            || ( ( strLine.length() > 1 ) && ( strLine.substring( 0, 2 )
-                                    .equals( "//" ) ) ) )
-                    
-                    { // A comment or blank line.
-                        lines.add( new ConfigLine( ConfigLine.LINE_GARBAGE, fullLine + "\n", null ) );
-                    }
-                    else if( strLine.contains( "=" ) )
-                    {
-                        // This should be a "parameter=value" pair:
-                        x = strLine.indexOf( '=' );
-                        
-                        if( x < 1 )
-                            return; // This shouldn't happen (bad syntax). Quit.
-                            
-                        if( x < ( strLine.length() - 1 ) )
-                        {
-                            p = strLine.substring( 0, x ).trim();
-                            if( p.length() < 1 )
-                                return; // This shouldn't happen (bad syntax). Quit.
-                                
-                            v = strLine.substring( x + 1, strLine.length() ).trim();
-                            // v = v.replace( "\"", "" ); // I'm doing this later, so I can save
-                            // back without losing them
-                            
-                            if( v.length() > 0 )
-                            {
-                                // Save the parameter=value pair
-                                confParam = parameters.get( p );
-                                if( confParam != null )
-                                {
-                                    confParam.value = v;
-                                }
-                                else
-                                {
-                                    confParam = new ConfigParameter( p, v );
-                                    lines.add( new ConfigLine( ConfigLine.LINE_PARAM, fullLine
-                                            + "\n", confParam ) );
-                                    parameters.put( p, confParam ); // Save the pair.
-                                }
-                            }
-                        } // It's ok to have an empty assignment (such as "param=")
-                    }
-                    else if( strLine.contains( "[" ) )
-                    {
-                        // This should be the beginning of the next section
-                        if( ( strLine.length() < 3 ) || ( !strLine.contains( "]" ) ) )
-                            return; // This shouldn't happen (bad syntax). Quit.
-                            
-                        x = strLine.indexOf( '[' );
-                        y = strLine.indexOf( ']' );
-                        
-                        if( ( y <= x + 1 ) || ( x == -1 ) || ( y == -1 ) )
-                            return; // This shouldn't happen (bad syntax). Quit.
-                            
-                        p = strLine.substring( x + 1, y ).trim();
-                        
-                        // Save the name of the next section.
-                        nextName = p;
-                        
-                        // Done reading parameters. Return.
-                        return;
-                    }
-                    else
-                    {
-                        // This shouldn't happen (bad syntax). Quit.
-                        return;
-                    }
-                }
-            }
-            catch( IOException ioe )
-            {
-                // (Don't care)
-            }
-            
-            // Reached end of file or error.. either way, just quit
-            return;
-        }
-        
+
         /**
          * Returns a handle to the parameter keyset.
-         * 
+         *
          * @return keyset containing all the parameters.
          */
         public Set<String> keySet()
         {
-            return parameters.keySet();
+            Set<String> keys = new LinkedHashSet<String>();
+            for( ConfigLine line = firstLine; line != null; line = line.next )
+            {
+                if( line.parameter != null )
+                    keys.add( line.parameter );
+            }
+            return keys;
         }
-        
+
         /**
          * Returns the value of the specified parameter.
-         * 
+         *
          * @param parameter Name of the parameter.
-         * 
+         *
          * @return Parameter's value, or null if not found.
          */
         public String get( String parameter )
         {
-            // Error: no parameters, or parameter was null
-            if( parameters == null || TextUtils.isEmpty( parameter ) )
+            // Error: parameter was null
+            if( TextUtils.isEmpty( parameter ) )
                 return null;
-            
-            ConfigParameter confParam = parameters.get( parameter );
-            
+
+            ConfigLine line = parameters.get( parameter.toLowerCase( Locale.US ) );
+
             // Parameter not found
-            if( confParam == null )
+            if( line == null || !line.parameter.equals( parameter ) )
                 return null;
-            
+
             // Got it
-            return confParam.value;
+            return line.value;
         }
 
         /**
-         * Remove instances of this parameter.
-         * @param parameter
+         * Adds the specified parameter to this config section, updates the value if it already
+         * exists, or removes the parameter. An existing parameter keeps its place in the section.
+         *
+         * @param parameter The name of the parameter.
+         * @param value The parameter's value, or null to remove.
          */
-        private void removePreviousInstance(String parameter)
+        public void put( String parameter, String value )
         {
-            //Create a copy first
-            ArrayList<String> keys = new ArrayList<String>(parameters.keySet());
+            ConfigLine line = parameters.get( parameter.toLowerCase( Locale.US ) );
 
-            //Remove from parameters
-            for(String key : keys)
+            if( TextUtils.isEmpty( value ) )
             {
-                if(key.toLowerCase().equals(parameter.toLowerCase()))
+                // Remove the parameter
+                if( line != null )
                 {
-                    parameters.remove(key);
+                    parameters.remove( parameter.toLowerCase( Locale.US ) );
+                    removeLine( line );
+                    mDirty = true;
                 }
             }
-
-            //Remove from lines
-            String lineParameterTest1 = parameter + " = ";
-            String lineParameterTest2 = parameter + "=";
-            Iterator<ConfigLine> iter = lines.iterator();
-            while (iter.hasNext()) {
-                ConfigLine line = iter.next();
-
-                if(line.strLine.toLowerCase().startsWith(lineParameterTest1.toLowerCase()) ||
-                        line.strLine.toLowerCase().startsWith(lineParameterTest2.toLowerCase()))
-                {
-                    iter.remove();
-                }
+            else if( line == null )
+            {
+                addParameter( new ConfigLine( parameter + "=", parameter, value ) );
+                mDirty = true;
             }
-        }
-        
-        /**
-         * Adds the specified parameter to this config section, updates the value if it already
-         * exists, or removes the parameter.
-         * 
-         * @param parameter The name of the parameter.
-         * @param value The parameter's value, or null to remove.
-         */
-        public void put( String parameter, String value )
-        {
-            removePreviousInstance(parameter);
-
-            if( !TextUtils.isEmpty( value ) )
+            else if( !line.parameter.equals( parameter ) )
+            {
+                // Same parameter with a different case, rewrite the whole line
+                line.prefix = parameter + "=";
+                line.parameter = parameter;
+                line.value = value;
+                mDirty = true;
+            }
+            else if( !line.value.equals( value ) )
             {
-                ConfigParameter confParam = new ConfigParameter( parameter, value );
-                lines.add( new ConfigLine( ConfigLine.LINE_PARAM, parameter + "=" + value
-                        + "\n", confParam ) );
-                parameters.put( parameter, confParam );
+                line.value = value;
+                mDirty = true;
             }
         }
-        
+
         /**
          * Writes the entire section to file.
-         * 
-         * @param fw File to write to.
-         * 
+         *
+         * @param writer File to write to.
+         *
          * @throws IOException if a writing error occurs.
          */
-        public void save( FileWriter fw ) throws IOException
+        public void save( Writer writer ) throws IOException
         {
-            for( ConfigLine line : lines )
+            for( ConfigLine line = firstLine; line != null; line = line.next )
             {
-                if( line != null ) {
-                    line.save(fw);
-                }
+                line.save( writer );
             }
         }
+
+        private void addParameter( ConfigLine line )
+        {
+            ConfigLine previous = parameters.put( line.parameter.toLowerCase( Locale.US ), line );
+            if( previous != null )
+                removeLine( previous );
+            addLine( line );
+        }
+
+        private void addLine( ConfigLine line )
+        {
+            line.previous = lastLine;
+            if( lastLine == null )
+                firstLine = line;
+            else
+                lastLine.next = line;
+            lastLine = line;
+        }
+
+        private void removeLine( ConfigLine line )
+        {
+            if( line.previous == null )
+                firstLine = line.next;
+            else
+                line.previous.next = line.next;
+
+            if( line.next == null )
+                lastLine = line.previous;
+            else
+                line.next.previous = line.previous;
+
+            line.previous = null;
+            line.next = null;
+        }
     }
-    
+
     /**
      * The ConfigLine class stores each line of the config file (including comments).
      */
     private static class ConfigLine
     {
-        public static final int LINE_GARBAGE = 0; // Comment, whitespace, or blank line
-        public static final int LINE_SECTION = 1; // Section title
-        public static final int LINE_PARAM = 2; // Parameter=value pair
-        
-        public int lineType = 0; // LINE_GARBAGE, LINE_SECTION, or LINE_PARAM.
-        public String strLine = ""; // Actual line from the config file.
-        public ConfigParameter confParam = null; // Null unless this line has a parameter.
-        
+        // Comment, whitespace, blank line or section title, written back as is
+        public String text = null;
+
+        // Parameter=value pair, written back as the prefix followed by the value
+        public String prefix = null; // Line up to and including the equal sign
+        public String parameter = null;
+        public String value = null;
+
+        public ConfigLine previous = null;
+        public ConfigLine next = null;
+
+        /**
+         * Constructor: A line that is not a parameter.
+         *
+         * @param text The line itself, including the line break.
+         */
+        public ConfigLine( String text )
+        {
+            this.text = text;
+        }
+
         /**
-         * Constructor: Saves the relevant information about the line.
-         * 
-         * @param type The type of line.
-         * @param line The line itself.
-         * @param param Config parameters pertaining to the line.
+         * Constructor: A parameter line.
+         *
+         * @param prefix The line up to and including the equal sign.
+         * @param parameter The name of the parameter.
+         * @param value The value of the parameter.
          */
-        public ConfigLine( int type, String line, ConfigParameter param )
+        public ConfigLine( String prefix, String parameter, String value )
         {
-            lineType = type;
-            strLine = line;
-            confParam = param;
+            this.prefix = prefix;
+            this.parameter = parameter;
+            this.value = value;
         }
-        
+
         /**
          * Saves the ConfigLine.
-         * 
-         * @param fw The file to save the ConfigLine to.
-         * 
+         *
+         * @param writer The file to save the ConfigLine to.
+         *
          * @throws IOException If a writing error occurs.
          */
-        public void save( FileWriter fw ) throws IOException
+        public void save( Writer writer ) throws IOException
         {
-            int x;
-            if( lineType == LINE_PARAM )
+            if( text != null )
             {
-                if( !strLine.contains( "=" ) || confParam == null )
-                    return; // This shouldn't happen
-                    
-                x = strLine.indexOf( '=' );
-                
-                if( x < 1 )
-                    return; // This shouldn't happen either
-                    
-                if( x < strLine.length() )
-                    fw.write( strLine.substring( 0, x + 1 ) + confParam.value + "\n" );
+                writer.write( text );
             }
             else
             {
-                fw.write( strLine );
+                writer.write( prefix );
+                writer.write( value );
+                writer.write( '\n' );
             }
         }
     }
-    
-    /**
-     * The ConfigParameter class associates a parameter with its value.
-     */
-    private static class ConfigParameter
-    {
-        @SuppressWarnings( "unused" )
-        public String parameter;
-        public String value;
-        
-        /**
-         * Constructor: Associate the parameter and value
-         * 
-         * @param parameter The name of the parameter.
-         * @param value The value of the parameter.
-         */
-        public ConfigParameter( String parameter, String value )
-        {
-            this.parameter = parameter;
-            this.value = value;
-        }
-    }
 }
@@ -96,6 +96,9 @@ public class GlobalPrefs
     /** The subdirectory containing cover art files. */
     public final String coverArtDir;
 
+    /** The subdirectory containing cover art scaled down to the gallery size. */
+    public final String coverArtThumbnailDir;
+
     /** The subdirectory containing unzipped ROM files. */
     public final String unzippedRomsDir;
 
@@ -126,9 +129,15 @@ public class GlobalPrefs
     /** Legacy slot save directory */
     public final String legacySlotSaves;
 
-    /** The path of the rom info cache for the gallery. */
+    /** The path of the legacy rom info cache, only read to migrate it. */
     public final String romInfoCache_cfg;
 
+    /** The path of the rom info cache for the gallery. */
+    public final String romInfoCache_bin;
+
+    /** The path of the index of files already read while scanning for ROMs. */
+    public final String romFingerprintIndex_dat;
+
     /** The path of the custom controller profiles file. */
     public final String controllerProfiles_cfg;
 
@@ -192,12 +201,18 @@ public class GlobalPrefs
     /** True if we should cache recently played games for faster load times */
     public final boolean cacheRecentlyPlayed;
 
+    /** Space extracted ROM files may take up before the least recently played ones are deleted */
+    public final long cacheRecentlyPlayedBytes;
+
     /** True if the full ROM rip info should be shown. */
     public final boolean isFullNameShown;
 
     /** Factor applied to the cover art scale */
     public final float coverArtScale;
 
+    /** Number of threads used to read and hash files when scanning for ROMs */
+    public final int romScanThreads;
+
     /** Which country codes we are allow to show */
     private final LinkedHashSet<CountryCode> allowedCountryCodes = new LinkedHashSet<>();
 
@@ -326,6 +341,9 @@ public class GlobalPrefs
     /** True to use a high priority thread for the core */
     public final boolean useHighPriorityThread;
 
+    /** True to measure and show the latency of input events */
+    public final boolean isInputLatencyTraceEnabled;
+
     // Shared preferences keys and key templates
     static final String KEY_EMULATION_PROFILE_DEFAULT = "emulationProfileDefault";
     static final String KEY_TOUCHSCREEN_PROFILE_DEFAULT = "touchscreenProfileDefault";
@@ -389,6 +407,7 @@ public class GlobalPrefs
         // Files
         String galleryCacheDir = appData.userDataDir + "/GalleryCache";
         coverArtDir = galleryCacheDir + "/CoverArt";
+        coverArtThumbnailDir = galleryCacheDir + "/CoverArtThumbnails";
         unzippedRomsDir = galleryCacheDir + "/UnzippedRoms";
         String profilesDir = appData.userDataDir + "/Profiles";
         crashLogDir = appData.userDataDir + "/CrashLogs";
@@ -399,6 +418,8 @@ public class GlobalPrefs
         textureCacheDir = coreUserCacheDir + "/mupen64plus/cache";
         shaderCacheDir = coreUserCacheDir + "/mupen64plus/shaders";
         romInfoCache_cfg = galleryCacheDir + "/romInfoCache.cfg";
+        romInfoCache_bin = galleryCacheDir + "/romInfoCache.bin";
+        romFingerprintIndex_dat = galleryCacheDir + "/romFingerprintIndex.dat";
         controllerProfiles_cfg = profilesDir + "/controller.cfg";
         touchscreenProfiles_cfg = profilesDir + "/touchscreen.cfg";
         emulationProfiles_cfg = profilesDir + "/emulation.cfg";
@@ -426,8 +447,10 @@ public class GlobalPrefs
         isRecentShown = mPreferences.getBoolean( "showRecentlyPlayed", true );
         sortByRomName = mPreferences.getString( "sortingMethod", "romName" ).equals("romName");
         cacheRecentlyPlayed = mPreferences.getBoolean( "cacheRecentlyPlayed", true );
+        cacheRecentlyPlayedBytes = mPreferences.getInt( "cacheRecentlyPlayedSize", 512 ) * 1024L * 1024L;
         isFullNameShown = mPreferences.getBoolean( "showFullNames", true );
         coverArtScale = ( mPreferences.getInt( "libraryArtScale", 100 ) ) / 100.0f;
+        romScanThreads = Math.max( 1, mPreferences.getInt( "libraryScanThreads", 4 ) );
         fillAllowedCountryCodes();
 
         // Touchscreen prefs
@@ -634,6 +657,8 @@ public class GlobalPrefs
 
         useHighPriorityThread = mPreferences.getBoolean( "useHighPriorityThread", false );
 
+        isInputLatencyTraceEnabled = mPreferences.getBoolean( "inputLatencyTrace", false );
+
         supportedGlesVersion = AppData.getOpenGlEsVersion(context);
 
         currentDisplayOrientation = context.getResources().getConfiguration().orientation;
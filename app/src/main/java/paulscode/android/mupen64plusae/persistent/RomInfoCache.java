@@ -0,0 +1,863 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+
+package paulscode.android.mupen64plusae.persistent;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import paulscode.android.mupen64plusae.util.CountryCode;
+import paulscode.android.mupen64plusae.util.FileUtil;
+
+/**
+ * Binary catalog of the ROMs in the gallery, keyed by MD5. It replaces the old romInfoCache.cfg
+ * config file, which had to be parsed as text on every gallery refresh.
+ * <p>
+ * The catalog is made of two files:
+ * <ul>
+ * <li>A base file holding one fixed size record per ROM followed by a table of interned strings.
+ * It is memory mapped, records are only decoded when they are asked for.
+ * <li>An append-only journal of the changes made since the base file was written. Saving only
+ * appends the pending changes, the journal is folded back into the base file by {@link #compact()}.
+ * </ul>
+ * The old config file is migrated automatically the first time the catalog is opened.
+ * <p>
+ * Instances are not thread safe, but several instances may be used on the same files at the same
+ * time within a process, changes are merged through the journal when saving.
+ */
+public class RomInfoCache
+{
+    /**
+     * Everything cached about a single ROM
+     */
+    public static final class RomInfo
+    {
+        public final String md5;
+        public final String goodName;
+        public final String baseName;
+        public final String romPath;
+        public final String zipPath;
+        public final String artPath;
+
+        /** ROM header information, null if it was never read */
+        public final String crc;
+        public final String headerName;
+        public final CountryCode countryCode;
+
+        /** Time the game was last played, in seconds since the epoch */
+        public final int lastPlayed;
+
+        public RomInfo( String md5, String goodName, String baseName, String romPath, String zipPath,
+                        String artPath, String crc, String headerName, CountryCode countryCode, int lastPlayed )
+        {
+            this.md5 = md5;
+            this.goodName = goodName;
+            this.baseName = baseName;
+            this.romPath = romPath;
+            this.zipPath = zipPath;
+            this.artPath = artPath;
+            this.crc = crc;
+            this.headerName = headerName;
+            this.countryCode = countryCode;
+            this.lastPlayed = lastPlayed;
+        }
+
+        /**
+         * @param lastPlayed Time the game was last played, in seconds since the epoch
+         * @return A copy of this info with the given last played time
+         */
+        public RomInfo withLastPlayed( int lastPlayed )
+        {
+            return new RomInfo( md5, goodName, baseName, romPath, zipPath, artPath, crc, headerName,
+                    countryCode, lastPlayed );
+        }
+
+        /**
+         * @return A copy of this info with the given ROM header information
+         */
+        public RomInfo withHeader( String crc, String headerName, CountryCode countryCode )
+        {
+            return new RomInfo( md5, goodName, baseName, romPath, zipPath, artPath, crc, headerName,
+                    countryCode, lastPlayed );
+        }
+    }
+
+    private static final int MAGIC = 0x4D363443; // "M64C"
+    private static final int VERSION = 1;
+
+    // Base file layout, all values are big endian
+    private static final int HEADER_SIZE = 16;    // magic, version, record count, string table size
+    private static final int MD5_SIZE = 16;
+    private static final int STRING_FIELD_COUNT = 7;
+    private static final int RECORD_SIZE = MD5_SIZE + 4 * STRING_FIELD_COUNT + 4 + 4;
+    private static final int NO_STRING = -1;
+    private static final int NO_COUNTRY_CODE = -1;
+
+    // Journal operations
+    private static final int OP_PUT = 1;
+    private static final int OP_REMOVE = 2;
+    private static final int OP_CLEAR = 3;
+
+    /** Number of journal bytes after which saving also compacts */
+    private static final int MAX_JOURNAL_SIZE = 256 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /** All instances within the process lock on this while touching the files */
+    private static final Object sFileLock = new Object();
+
+    private final File mBaseFile;
+    private final File mJournalFile;
+
+    /** Mapped base file, null if there is none */
+    private ByteBuffer mBase;
+    private int mStringTableStart;
+    private long mBaseLastModified;
+    private long mBaseLength;
+
+    /** Index of each record in the base file, by MD5 */
+    private final LinkedHashMap<String, Integer> mBaseIndex = new LinkedHashMap<>();
+
+    /** Strings decoded from the base file, by offset */
+    private final HashMap<Integer, String> mStringCache = new HashMap<>();
+
+    /** True if every record of the base file has been removed */
+    private boolean mBaseCleared;
+
+    /** Changes made on top of the base file, a null value means the ROM was removed */
+    private final LinkedHashMap<String, RomInfo> mOverlay = new LinkedHashMap<>();
+
+    /** Number of journal bytes already applied to the overlay */
+    private long mJournalLength;
+
+    /** Changes that haven't been saved yet, in journal format */
+    private final ByteArrayOutputStream mPendingBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mPending = new DataOutputStream( mPendingBytes );
+
+    /**
+     * Opens the catalog, migrating the old config file if the catalog doesn't exist yet.
+     *
+     * @param filename The base file of the catalog, the journal is stored next to it.
+     * @param legacyConfigFilename The old romInfoCache.cfg file, may be null.
+     */
+    public RomInfoCache( String filename, String legacyConfigFilename )
+    {
+        mBaseFile = new File( filename );
+        mJournalFile = new File( filename + ".journal" );
+
+        synchronized( sFileLock )
+        {
+            if( !mBaseFile.exists() && !mJournalFile.exists() && !TextUtils.isEmpty( legacyConfigFilename )
+                    && new File( legacyConfigFilename ).exists() )
+            {
+                migrate( legacyConfigFilename );
+            }
+            else
+            {
+                reload();
+            }
+        }
+    }
+
+    /**
+     * @return The MD5 of every ROM in the catalog, in insertion order.
+     */
+    public Set<String> keySet()
+    {
+        LinkedHashSet<String> keys = new LinkedHashSet<>();
+        if( !mBaseCleared )
+        {
+            for( String md5 : mBaseIndex.keySet() )
+            {
+                if( !mOverlay.containsKey( md5 ) )
+                    keys.add( md5 );
+            }
+        }
+        for( Map.Entry<String, RomInfo> entry : mOverlay.entrySet() )
+        {
+            if( entry.getValue() != null )
+                keys.add( entry.getKey() );
+        }
+        return keys;
+    }
+
+    /**
+     * @param md5 MD5 of the ROM
+     * @return Everything known about the ROM, or null if it's not in the catalog.
+     */
+    public RomInfo get( String md5 )
+    {
+        if( mOverlay.containsKey( md5 ) )
+            return mOverlay.get( md5 );
+
+        if( mBaseCleared )
+            return null;
+
+        Integer index = mBaseIndex.get( md5 );
+        return index == null ? null : readRecord( md5, index );
+    }
+
+    /**
+     * Adds or replaces a ROM. Note that the change is not persisted until {@link #save()} is called.
+     *
+     * @param info Information about the ROM.
+     */
+    public void put( RomInfo info )
+    {
+        mOverlay.put( info.md5, info );
+
+        try
+        {
+            mPending.writeByte( OP_PUT );
+            writeRomInfo( mPending, info );
+        }
+        catch( IOException e )
+        {
+            // Can't happen when writing to memory
+            Log.e( "RomInfoCache", "Unable to queue change: " + e );
+        }
+    }
+
+    /**
+     * Updates the last played time of a ROM already in the catalog.
+     *
+     * @param md5 MD5 of the ROM
+     * @param lastPlayed Time the game was last played, in seconds since the epoch
+     */
+    public void setLastPlayed( String md5, int lastPlayed )
+    {
+        RomInfo info = get( md5 );
+        if( info != null )
+            put( info.withLastPlayed( lastPlayed ) );
+    }
+
+    /**
+     * Removes a ROM. Note that the change is not persisted until {@link #save()} is called.
+     *
+     * @param md5 MD5 of the ROM
+     */
+    public void remove( String md5 )
+    {
+        if( get( md5 ) == null )
+            return;
+
+        mOverlay.put( md5, null );
+
+        try
+        {
+            mPending.writeByte( OP_REMOVE );
+            mPending.writeUTF( md5 );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to queue change: " + e );
+        }
+    }
+
+    /**
+     * Removes every ROM. Note that the change is not persisted until {@link #save()} is called.
+     */
+    public void clear()
+    {
+        mBaseCleared = true;
+        mOverlay.clear();
+
+        // Anything queued before is now irrelevant
+        mPendingBytes.reset();
+
+        try
+        {
+            mPending.writeByte( OP_CLEAR );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to queue change: " + e );
+        }
+    }
+
+    /**
+     * Appends all pending changes to the journal. Changes saved by other instances in the meantime
+     * are picked up first. The catalog is compacted if the journal has grown too large.
+     *
+     * @return True if successful.
+     */
+    public boolean save()
+    {
+        synchronized( sFileLock )
+        {
+            refresh();
+
+            if( mPendingBytes.size() == 0 )
+                return true;
+
+            FileUtil.makeDirs( mBaseFile.getParentFile().getPath() );
+
+            RandomAccessFile out = null;
+            try
+            {
+                // Anything past the applied length is an entry cut short by a crash, overwrite it
+                out = new RandomAccessFile( mJournalFile, "rw" );
+                out.setLength( mJournalLength );
+                out.seek( mJournalLength );
+                out.write( mPendingBytes.toByteArray() );
+                mJournalLength += mPendingBytes.size();
+                mPendingBytes.reset();
+            }
+            catch( IOException e )
+            {
+                Log.e( "RomInfoCache", "IOException writing file " + mJournalFile + ", error message: "
+                        + e.getMessage() );
+                return false;
+            }
+            finally
+            {
+                if( out != null )
+                {
+                    try
+                    {
+                        out.close();
+                    }
+                    catch( IOException ignored )
+                    {
+                    }
+                }
+            }
+
+            if( mJournalLength > MAX_JOURNAL_SIZE )
+                return compact();
+
+            return true;
+        }
+    }
+
+    /**
+     * Saves all pending changes and rewrites the base file with the whole catalog, so that the
+     * journal can be discarded. The base file is written to a temporary file first so that a
+     * crash can't leave a truncated catalog behind.
+     *
+     * @return True if successful.
+     */
+    public boolean compact()
+    {
+        synchronized( sFileLock )
+        {
+            refresh();
+
+            // Everything is in the new base file, so pending changes don't need to be journaled
+            mPendingBytes.reset();
+
+            List<RomInfo> infos = new ArrayList<>();
+            for( String md5 : keySet() )
+            {
+                RomInfo info = get( md5 );
+                if( info != null && parseMd5( md5 ) != null )
+                    infos.add( info );
+                else
+                    Log.w( "RomInfoCache", "Dropping invalid entry " + md5 );
+            }
+
+            FileUtil.makeDirs( mBaseFile.getParentFile().getPath() );
+            File tempFile = new File( mBaseFile.getPath() + ".tmp" );
+
+            if( !writeBase( tempFile, infos ) )
+                return false;
+
+            if( !tempFile.renameTo( mBaseFile ) )
+            {
+                Log.e( "RomInfoCache", "Unable to rename " + tempFile + " to " + mBaseFile );
+                return false;
+            }
+
+            if( mJournalFile.exists() && !mJournalFile.delete() )
+                Log.w( "RomInfoCache", "Unable to delete " + mJournalFile );
+
+            reload();
+            return true;
+        }
+    }
+
+    /**
+     * Re-loads the whole catalog from disk, keeping pending changes.
+     */
+    private void reload()
+    {
+        mBase = null;
+        mBaseIndex.clear();
+        mStringCache.clear();
+        mBaseCleared = false;
+        mOverlay.clear();
+        mJournalLength = 0;
+
+        mapBase();
+        readJournal();
+    }
+
+    /**
+     * Picks up changes saved by other instances since the catalog was loaded, then re-applies
+     * the pending changes of this instance on top.
+     */
+    private void refresh()
+    {
+        if( mBaseFile.lastModified() != mBaseLastModified || mBaseFile.length() != mBaseLength
+                || mJournalFile.length() < mJournalLength )
+        {
+            // Another instance compacted the catalog
+            reload();
+        }
+        else
+        {
+            readJournal();
+        }
+
+        try
+        {
+            applyJournal( mPendingBytes.toByteArray() );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to re-apply pending changes: " + e );
+        }
+    }
+
+    private void mapBase()
+    {
+        mBaseLastModified = mBaseFile.lastModified();
+        mBaseLength = mBaseFile.length();
+
+        if( !mBaseFile.exists() || mBaseLength < HEADER_SIZE )
+            return;
+
+        RandomAccessFile file = null;
+        try
+        {
+            file = new RandomAccessFile( mBaseFile, "r" );
+            ByteBuffer base = file.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, mBaseLength );
+
+            if( base.getInt( 0 ) != MAGIC || base.getInt( 4 ) != VERSION )
+            {
+                Log.w( "RomInfoCache", "Ignoring unknown catalog format " + mBaseFile );
+                return;
+            }
+
+            int recordCount = base.getInt( 8 );
+            int stringTableSize = base.getInt( 12 );
+            mStringTableStart = HEADER_SIZE + recordCount * RECORD_SIZE;
+            if( mStringTableStart + stringTableSize > mBaseLength )
+            {
+                Log.w( "RomInfoCache", "Ignoring truncated catalog " + mBaseFile );
+                return;
+            }
+
+            mBase = base;
+            byte[] md5Bytes = new byte[MD5_SIZE];
+            for( int i = 0; i < recordCount; ++i )
+            {
+                mBase.position( HEADER_SIZE + i * RECORD_SIZE );
+                mBase.get( md5Bytes );
+                mBaseIndex.put( formatMd5( md5Bytes ), i );
+            }
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to map " + mBaseFile + ": " + e );
+            mBase = null;
+            mBaseIndex.clear();
+        }
+        finally
+        {
+            if( file != null )
+            {
+                try
+                {
+                    // The mapping stays valid after the file is closed
+                    file.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the part of the journal that hasn't been applied yet
+     */
+    private void readJournal()
+    {
+        long journalLength = mJournalFile.length();
+        if( journalLength <= mJournalLength )
+            return;
+
+        byte[] tail = new byte[(int) ( journalLength - mJournalLength )];
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new FileInputStream( mJournalFile ) );
+            if( in.skip( mJournalLength ) != mJournalLength )
+                return;
+            in.readFully( tail );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to read " + mJournalFile + ": " + e );
+            return;
+        }
+        finally
+        {
+            if( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        try
+        {
+            mJournalLength += applyJournal( tail );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to apply " + mJournalFile + ": " + e );
+        }
+    }
+
+    /**
+     * Applies journal operations to the overlay
+     * @param journal Operations to apply
+     * @return Number of bytes of complete operations, an operation cut short by a crash is ignored
+     */
+    private int applyJournal( byte[] journal ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( journal ) );
+        int applied = 0;
+
+        try
+        {
+            while( applied < journal.length )
+            {
+                int op = in.readByte();
+                switch( op )
+                {
+                    case OP_PUT:
+                        RomInfo info = readRomInfo( in );
+                        mOverlay.put( info.md5, info );
+                        break;
+                    case OP_REMOVE:
+                        mOverlay.put( in.readUTF(), null );
+                        break;
+                    case OP_CLEAR:
+                        mBaseCleared = true;
+                        mOverlay.clear();
+                        break;
+                    default:
+                        throw new IOException( "Unknown journal operation " + op );
+                }
+                applied = journal.length - in.available();
+            }
+        }
+        catch( EOFException e )
+        {
+            Log.w( "RomInfoCache", "Ignoring incomplete journal entry" );
+        }
+
+        return applied;
+    }
+
+    private boolean writeBase( File file, List<RomInfo> infos )
+    {
+        // Intern all the strings first, paths and art names repeat a lot
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream strings = new DataOutputStream( stringBytes );
+        HashMap<String, Integer> stringOffsets = new HashMap<>();
+        int[][] refs = new int[infos.size()][];
+
+        try
+        {
+            for( int i = 0; i < infos.size(); ++i )
+            {
+                RomInfo info = infos.get( i );
+                String[] fields = { info.goodName, info.baseName, info.romPath, info.zipPath, info.artPath,
+                        info.crc, info.headerName };
+                refs[i] = new int[STRING_FIELD_COUNT];
+                for( int j = 0; j < STRING_FIELD_COUNT; ++j )
+                {
+                    if( fields[j] == null )
+                    {
+                        refs[i][j] = NO_STRING;
+                        continue;
+                    }
+
+                    Integer offset = stringOffsets.get( fields[j] );
+                    if( offset == null )
+                    {
+                        offset = strings.size();
+                        byte[] utf8 = fields[j].getBytes( UTF_8 );
+                        strings.writeShort( utf8.length );
+                        strings.write( utf8 );
+                        stringOffsets.put( fields[j], offset );
+                    }
+                    refs[i][j] = offset;
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "Unable to build string table: " + e );
+            return false;
+        }
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( infos.size() );
+            out.writeInt( stringBytes.size() );
+
+            for( int i = 0; i < infos.size(); ++i )
+            {
+                RomInfo info = infos.get( i );
+                out.write( parseMd5( info.md5 ) );
+                for( int j = 0; j < STRING_FIELD_COUNT; ++j )
+                    out.writeInt( refs[i][j] );
+                out.writeInt( info.countryCode == null ? NO_COUNTRY_CODE : info.countryCode.getValue() & 0xFF );
+                out.writeInt( info.lastPlayed );
+            }
+
+            stringBytes.writeTo( out );
+            out.flush();
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomInfoCache", "IOException writing file " + file + ", error message: " + e.getMessage() );
+            return false;
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private RomInfo readRecord( String md5, int index )
+    {
+        int position = HEADER_SIZE + index * RECORD_SIZE + MD5_SIZE;
+        String[] fields = new String[STRING_FIELD_COUNT];
+        for( int j = 0; j < STRING_FIELD_COUNT; ++j )
+        {
+            fields[j] = readString( mBase.getInt( position ) );
+            position += 4;
+        }
+        int countryCode = mBase.getInt( position );
+        int lastPlayed = mBase.getInt( position + 4 );
+
+        return new RomInfo( md5, fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6],
+                countryCode == NO_COUNTRY_CODE ? null : CountryCode.getCountryCode( (byte) countryCode ),
+                lastPlayed );
+    }
+
+    private String readString( int offset )
+    {
+        if( offset == NO_STRING )
+            return null;
+
+        String value = mStringCache.get( offset );
+        if( value == null )
+        {
+            int position = mStringTableStart + offset;
+            byte[] utf8 = new byte[mBase.getShort( position ) & 0xFFFF];
+            mBase.position( position + 2 );
+            mBase.get( utf8 );
+            value = new String( utf8, UTF_8 );
+            mStringCache.put( offset, value );
+        }
+        return value;
+    }
+
+    private static void writeRomInfo( DataOutputStream out, RomInfo info ) throws IOException
+    {
+        out.writeUTF( info.md5 );
+        writeNullableString( out, info.goodName );
+        writeNullableString( out, info.baseName );
+        writeNullableString( out, info.romPath );
+        writeNullableString( out, info.zipPath );
+        writeNullableString( out, info.artPath );
+        writeNullableString( out, info.crc );
+        writeNullableString( out, info.headerName );
+        out.writeInt( info.countryCode == null ? NO_COUNTRY_CODE : info.countryCode.getValue() & 0xFF );
+        out.writeInt( info.lastPlayed );
+    }
+
+    private static RomInfo readRomInfo( DataInputStream in ) throws IOException
+    {
+        String md5 = in.readUTF();
+        String goodName = readNullableString( in );
+        String baseName = readNullableString( in );
+        String romPath = readNullableString( in );
+        String zipPath = readNullableString( in );
+        String artPath = readNullableString( in );
+        String crc = readNullableString( in );
+        String headerName = readNullableString( in );
+        int countryCode = in.readInt();
+        int lastPlayed = in.readInt();
+
+        return new RomInfo( md5, goodName, baseName, romPath, zipPath, artPath, crc, headerName,
+                countryCode == NO_COUNTRY_CODE ? null : CountryCode.getCountryCode( (byte) countryCode ),
+                lastPlayed );
+    }
+
+    private static void writeNullableString( DataOutputStream out, String value ) throws IOException
+    {
+        out.writeBoolean( value != null );
+        if( value != null )
+            out.writeUTF( value );
+    }
+
+    private static String readNullableString( DataInputStream in ) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @return The 16 bytes of an MD5 written in hexadecimal, or null if it's not a valid MD5
+     */
+    private static byte[] parseMd5( String md5 )
+    {
+        if( md5 == null || md5.length() != MD5_SIZE * 2 )
+            return null;
+
+        byte[] bytes = new byte[MD5_SIZE];
+        for( int i = 0; i < MD5_SIZE; ++i )
+        {
+            int high = Character.digit( md5.charAt( i * 2 ), 16 );
+            int low = Character.digit( md5.charAt( i * 2 + 1 ), 16 );
+            if( high < 0 || low < 0 )
+                return null;
+            bytes[i] = (byte) ( ( high << 4 ) | low );
+        }
+        return bytes;
+    }
+
+    private static String formatMd5( byte[] bytes )
+    {
+        char[] hexChars = new char[bytes.length * 2];
+        for( int i = 0; i < bytes.length; ++i )
+        {
+            hexChars[i * 2] = HEX_DIGITS[( bytes[i] >> 4 ) & 0x0F];
+            hexChars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+        return new String( hexChars );
+    }
+
+    /**
+     * Converts the old romInfoCache.cfg file, then writes the base file right away
+     */
+    private void migrate( String legacyConfigFilename )
+    {
+        Log.i( "RomInfoCache", "Migrating " + legacyConfigFilename );
+
+        reload();
+
+        ConfigFile config = new ConfigFile( legacyConfigFilename );
+        for( String md5 : config.keySet() )
+        {
+            if( ConfigFile.SECTIONLESS_NAME.equals( md5 ) )
+                continue;
+
+            ConfigFile.ConfigSection section = config.get( md5 );
+            if( section == null || TextUtils.isEmpty( section.get( "romPath" ) ) )
+                continue;
+
+            CountryCode countryCode = null;
+            String countryCodeString = section.get( "countryCode" );
+            if( countryCodeString != null )
+            {
+                try
+                {
+                    countryCode = CountryCode.getCountryCode( Byte.parseByte( countryCodeString ) );
+                }
+                catch( NumberFormatException e )
+                {
+                    Log.w( "RomInfoCache", "Invalid country code for " + md5 );
+                }
+            }
+
+            int lastPlayed = 0;
+            String lastPlayedString = section.get( "lastPlayed" );
+            if( lastPlayedString != null )
+            {
+                try
+                {
+                    lastPlayed = Integer.parseInt( lastPlayedString );
+                }
+                catch( NumberFormatException e )
+                {
+                    Log.w( "RomInfoCache", "Invalid last played time for " + md5 );
+                }
+            }
+
+            put( new RomInfo( md5, section.get( "goodName" ), section.get( "baseName" ), section.get( "romPath" ),
+                    section.get( "zipPath" ), section.get( "artPath" ), section.get( "crc" ),
+                    section.get( "headerName" ), countryCode, lastPlayed ) );
+        }
+
+        compact();
+    }
+}
@@ -52,12 +52,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -65,26 +78,48 @@ import paulscode.android.mupen64plusae.ActivityHelper;
 import paulscode.android.mupen64plusae.GalleryActivity;
 import paulscode.android.mupen64plusae.dialog.ProgressDialog;
 import paulscode.android.mupen64plusae.dialog.ProgressDialog.OnCancelListener;
-import paulscode.android.mupen64plusae.persistent.ConfigFile;
+import paulscode.android.mupen64plusae.persistent.RomInfoCache;
+import paulscode.android.mupen64plusae.persistent.RomInfoCache.RomInfo;
 import paulscode.android.mupen64plusae.util.CountryCode;
 import paulscode.android.mupen64plusae.util.FileUtil;
 import paulscode.android.mupen64plusae.util.RomDatabase;
 import paulscode.android.mupen64plusae.util.RomDatabase.RomDetail;
+import paulscode.android.mupen64plusae.util.RomFingerprintIndex;
 import paulscode.android.mupen64plusae.util.RomHeader;
+import paulscode.android.mupen64plusae.util.RomStreamReader;
 import paulscode.android.mupen64plusae.util.SevenZInputStream;
 
 public class CacheRomInfoService extends Service
 {
     private String mSearchPath;
     private String mDatabasePath;
+    private String mRomInfoCachePath;
     private String mConfigPath;
+    private String mFingerprintIndexPath;
     private String mArtDir;
     private String mUnzipDir;
     private boolean mSearchZips;
     private boolean mDownloadArt;
     private boolean mClearGallery;
     private boolean mSearchSubdirectories;
-    private boolean mbStopped;
+    private int mScanThreads;
+    private volatile boolean mbStopped;
+
+    /** Files that have already been read, so that only new or modified files are hashed */
+    private RomFingerprintIndex mFingerprints;
+
+    /** Limits how many archives are decompressed at the same time */
+    private Semaphore mArchivePermits;
+
+    /** Each worker thread reads through its own buffer */
+    private final ThreadLocal<RomStreamReader> mReaders = new ThreadLocal<RomStreamReader>()
+    {
+        @Override
+        protected RomStreamReader initialValue()
+        {
+            return new RomStreamReader( false, false );
+        }
+    };
     
     private int mStartId;
     private ServiceHandler mServiceHandler;
@@ -96,6 +131,33 @@ public class CacheRomInfoService extends Service
 
     final static String NOTIFICATION_CHANNEL_ID = "CacheRomInfoServiceChannel";
     final static String NOTIFICATION_CHANNEL_ID_V2 = "CacheRomInfoServiceChannelV2";
+
+    /** Maximum number of scan results waiting to be written, per worker thread */
+    private final static int MAX_PENDING_PER_THREAD = 2;
+
+    /** Maximum number of found files waiting to be scanned */
+    private final static int MAX_FOUND_FILES = 256;
+
+    /** Maximum number of subdirectory levels to search */
+    private final static int MAX_SEARCH_DEPTH = 10;
+
+    /** Files smaller than this can't be or contain a ROM */
+    private final static int MIN_FILE_SIZE = RomStreamReader.HEADER_SIZE;
+
+    /**
+     * Maximum number of archives decompressed at the same time, each 7zip decoder can hold a
+     * dictionary of many megabytes
+     */
+    private final static int MAX_ARCHIVE_THREADS = 2;
+
+    /** Extensions of files that are never read while searching for ROMs */
+    private final static Set<String> SKIPPED_EXTENSIONS = new HashSet<>( Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "bmp", "webp", "mp3", "ogg", "wav", "flac", "mp4", "mkv",
+            "avi", "txt", "nfo", "pdf", "htm", "html", "xml", "ini", "cfg", "apk",
+            "sav", "eep", "sra", "fla", "mpk" ) );
+
+    /** Marks the end of the files found by the {@link DirectoryWalker} */
+    private final static File END_OF_FILES = new File( "" );
     
     public interface CacheRomInfoListener
     {
@@ -120,6 +182,186 @@ public class CacheRomInfoService extends Service
         }
     }
 
+    /**
+     * Result of scanning a single ROM, either a plain file or an archive entry. These are
+     * produced by the worker threads and consumed by the single thread that writes the cache.
+     */
+    private static final class ScannedRom
+    {
+        final String romPath;
+        final RomHeader header;
+        final String md5;
+        final File zipFileLocation;
+
+        ScannedRom( String romPath, RomHeader header, String md5, File zipFileLocation )
+        {
+            this.romPath = romPath;
+            this.header = header;
+            this.md5 = md5;
+            this.zipFileLocation = zipFileLocation;
+        }
+    }
+
+    /**
+     * Creates the worker threads used to scan files, at background priority so that the
+     * scan will not disrupt our UI.
+     */
+    private static final class ScanThreadFactory implements ThreadFactory
+    {
+        private int mThreadCount = 0;
+
+        @Override
+        public synchronized Thread newThread( final Runnable runnable )
+        {
+            return new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+                    runnable.run();
+                }
+            }, "CacheRomInfoWorker" + mThreadCount++ );
+        }
+    }
+
+    /**
+     * Walks the search path on its own thread and hands each candidate file over as soon as it
+     * is found, so scanning can start right away. Only the directories still to be visited are
+     * kept in memory.
+     */
+    private final class DirectoryWalker extends Thread
+    {
+        private final File mSearchPathFile;
+        private final BlockingQueue<File> mFoundFiles;
+
+        DirectoryWalker( File searchPathFile, BlockingQueue<File> foundFiles )
+        {
+            super( "CacheRomInfoWalker" );
+            mSearchPathFile = searchPathFile;
+            mFoundFiles = foundFiles;
+        }
+
+        @Override
+        public void run()
+        {
+            Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+
+            try
+            {
+                if( mSearchPathFile.isDirectory() )
+                    walk();
+                else if( mSearchPathFile.isFile() )
+                {
+                    mListener.GetProgressDialog().addMaxProgress( 1 );
+                    found( mSearchPathFile );
+                }
+            }
+            finally
+            {
+                // Always let the scanner know that there is nothing left
+                while( true )
+                {
+                    try
+                    {
+                        mFoundFiles.put( END_OF_FILES );
+                        break;
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Log.w( "CacheRomInfoService", e );
+                    }
+                }
+            }
+        }
+
+        /**
+         * Breadth first search of the search path, the depth is tracked per directory
+         */
+        private void walk()
+        {
+            final ArrayDeque<File> directories = new ArrayDeque<>();
+            final ArrayDeque<Integer> depths = new ArrayDeque<>();
+            final Set<String> visited = new HashSet<>();
+
+            directories.add( mSearchPathFile );
+            depths.add( 0 );
+
+            while( !directories.isEmpty() && !mbStopped )
+            {
+                final File directory = directories.remove();
+                final int depth = depths.remove();
+
+                // Guard against symbolic links pointing back up the tree
+                try
+                {
+                    if( !visited.add( directory.getCanonicalPath() ) )
+                        continue;
+                }
+                catch( IOException e )
+                {
+                    Log.w( "CacheRomInfoService", e );
+                    continue;
+                }
+
+                final File[] children = directory.listFiles();
+                if( children == null )
+                    continue;
+
+                final List<File> candidates = new ArrayList<>();
+                for( File child : children )
+                {
+                    if( mbStopped ) break;
+
+                    if( child.isDirectory() )
+                    {
+                        //Search subdirectories if option is enabled and we less than 10 levels deep
+                        if( mSearchSubdirectories && depth < MAX_SEARCH_DEPTH )
+                        {
+                            directories.add( child );
+                            depths.add( depth + 1 );
+                        }
+                    }
+                    else if( isCandidate( child ) )
+                    {
+                        candidates.add( child );
+                    }
+                }
+
+                // Counted once per directory, before any of its files can be finished
+                if( !candidates.isEmpty() )
+                    mListener.GetProgressDialog().addMaxProgress( candidates.size() );
+
+                for( File candidate : candidates )
+                {
+                    if( !found( candidate ) ) break;
+                }
+            }
+        }
+
+        /**
+         * Hand a file over to the scanner, waiting for room if it is falling behind
+         * @param file The file that was found
+         * @return True if the file was handed over, false if the search was stopped
+         */
+        private boolean found( File file )
+        {
+            try
+            {
+                while( !mbStopped )
+                {
+                    if( mFoundFiles.offer( file, 100, TimeUnit.MILLISECONDS ) )
+                        return true;
+                }
+            }
+            catch( InterruptedException e )
+            {
+                Log.w( "CacheRomInfoService", e );
+            }
+            return false;
+        }
+    }
+
     // Handler that receives messages from the thread
     private final class ServiceHandler extends Handler {
         ServiceHandler(Looper looper) {
@@ -135,8 +377,10 @@ public class CacheRomInfoService extends Service
                 throw new IllegalArgumentException( "Root path cannot be null" );
             if( TextUtils.isEmpty( mDatabasePath ) )
                 throw new IllegalArgumentException( "ROM database path cannot be null or empty" );
-            if( TextUtils.isEmpty( mConfigPath ) )
-                throw new IllegalArgumentException( "Config file path cannot be null or empty" );
+            if( TextUtils.isEmpty( mRomInfoCachePath ) )
+                throw new IllegalArgumentException( "ROM info cache path cannot be null or empty" );
+            if( TextUtils.isEmpty( mFingerprintIndexPath ) )
+                throw new IllegalArgumentException( "Fingerprint index path cannot be null or empty" );
             if( TextUtils.isEmpty( mArtDir ) )
                 throw new IllegalArgumentException( "Art directory cannot be null or empty" );
             if( TextUtils.isEmpty( mUnzipDir ) )
@@ -150,43 +394,81 @@ public class CacheRomInfoService extends Service
             // http://android2know.blogspot.com/2013/01/create-nomedia-file.html
             touchFile( mArtDir + "/.nomedia" );
             
-            final List<File> files = getAllFiles( searchPathFile, 0 );
             final RomDatabase database = RomDatabase.getInstance();
             if(!database.hasDatabaseFile())
             {
                 database.setDatabaseFile(mDatabasePath);
             }
             
-            final ConfigFile config = new ConfigFile( mConfigPath );
+            // The legacy config file is only read if the cache doesn't exist yet
+            final RomInfoCache cache = new RomInfoCache( mRomInfoCachePath, mConfigPath );
             if (mClearGallery)
-                config.clear();
-            
-            mListener.GetProgressDialog().setMaxProgress( files.size() );
-            for( final File file : files )
+                cache.clear();
+
+            // The fingerprints are kept even when clearing the gallery, they are only trusted
+            // while the size and modification time of a file are unchanged
+            mFingerprints = new RomFingerprintIndex( mFingerprintIndexPath );
+            mArchivePermits = new Semaphore( Math.min( mScanThreads, MAX_ARCHIVE_THREADS ) );
+
+            // Zip files already in the cache that were never fingerprinted are skipped, this is
+            // because extracting zip files takes a long time. Collect them once here since the
+            // cache is only touched by this thread while the workers are running.
+            final Set<String> cachedZips = getCachedZipPaths( cache );
+
+            // The total grows as the walker finds more files
+            mListener.GetProgressDialog().setMaxProgress( 0 );
+            mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_searching );
+
+            final BlockingQueue<File> foundFiles = new ArrayBlockingQueue<>( MAX_FOUND_FILES );
+            final DirectoryWalker walker = new DirectoryWalker( searchPathFile, foundFiles );
+            walker.start();
+
+            // Files are handed to a pool of workers that do all the reading and hashing, the
+            // results are written to the cache from this thread only
+            final ExecutorService workers = Executors.newFixedThreadPool( mScanThreads, new ScanThreadFactory() );
+            final CompletionService<List<ScannedRom>> completionService = new ExecutorCompletionService<>( workers );
+            final int maxPending = mScanThreads * MAX_PENDING_PER_THREAD;
+            int pending = 0;
+
+            File nextFile;
+            while( ( nextFile = takeFoundFile( foundFiles ) ) != END_OF_FILES )
             {
-                mListener.GetProgressDialog().setSubtext( "" );
-                mListener.GetProgressDialog().setText( file.getName() );
-                mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_searching );
-                
-                if( mbStopped ) break;
-                RomHeader header = new RomHeader( file );
-                if( header.isValid ) {
-                    cacheFile( file, database, config);
-                } else if (mSearchZips && !ConfigHasZip(config, file.getPath())) {
-                    if (header.isZip) {
-                        cacheZip(database, file, config);
-                    } else if (header.is7Zip) {
-                        cache7Zip(database, file, config);
+                // Keep draining when stopped so that the walker is never left waiting
+                if( mbStopped ) continue;
+
+                final File file = nextFile;
+                completionService.submit( new Callable<List<ScannedRom>>()
+                {
+                    @Override
+                    public List<ScannedRom> call()
+                    {
+                        return scanFile( file, cachedZips );
                     }
+                } );
+                ++pending;
+
+                // Don't let the workers get too far ahead of the writer
+                if( pending >= maxPending )
+                {
+                    writeNextResult( completionService, database, cache );
+                    --pending;
                 }
+            }
 
-                mListener.GetProgressDialog().incrementProgress( 1 );
+            // Workers check mbStopped on their own, so remaining results come quickly when stopped
+            for( ; pending > 0; --pending )
+            {
+                writeNextResult( completionService, database, cache );
             }
 
-            CleanupMissingFiles(config);
-            downloadCoverArt(database, config);
+            workers.shutdownNow();
+            mFingerprints.save();
+
+            CleanupMissingFiles(cache);
+            downloadCoverArt(database, cache);
 
-            config.save();
+            // A scan rewrites most records, so fold the journal back into the cache file
+            cache.compact();
             
             if (mListener != null)
             {
@@ -256,13 +538,16 @@ public class CacheRomInfoService extends Service
             }
             mSearchPath = extras.getString( ActivityHelper.Keys.SEARCH_PATH );
             mDatabasePath = extras.getString( ActivityHelper.Keys.DATABASE_PATH );
+            mRomInfoCachePath = extras.getString( ActivityHelper.Keys.ROM_INFO_CACHE_PATH );
             mConfigPath = extras.getString( ActivityHelper.Keys.CONFIG_PATH );
+            mFingerprintIndexPath = extras.getString( ActivityHelper.Keys.FINGERPRINT_INDEX_PATH );
             mArtDir = extras.getString( ActivityHelper.Keys.ART_DIR );
             mUnzipDir = extras.getString( ActivityHelper.Keys.UNZIP_DIR );
             mSearchZips = extras.getBoolean( ActivityHelper.Keys.SEARCH_ZIPS );
             mDownloadArt = extras.getBoolean( ActivityHelper.Keys.DOWNLOAD_ART );
             mClearGallery = extras.getBoolean( ActivityHelper.Keys.CLEAR_GALLERY );
             mSearchSubdirectories = extras.getBoolean( ActivityHelper.Keys.SEARCH_SUBDIR );
+            mScanThreads = Math.max( 1, extras.getInt( ActivityHelper.Keys.SCAN_THREADS, 1 ) );
         }
 
         mbStopped = false;
@@ -273,67 +558,209 @@ public class CacheRomInfoService extends Service
     }
 
     /**
-     * Get all files in a directory and subdirectories
-     * @param searchPath Path to start search on
-     * @param count How many levels deep we currently are
-     * @return List of files
+     * Quick check of a file found by the walker, so that files that can't hold a ROM are never
+     * opened. Everything else is identified by its magic bytes when scanned.
+     * @param file File to check
+     * @return True if the file should be scanned
+     */
+    private static boolean isCandidate( File file )
+    {
+        final String name = file.getName();
+
+        // Hidden files such as .nomedia
+        if( name.startsWith( "." ) )
+            return false;
+
+        final int dot = name.lastIndexOf( '.' );
+        if( dot >= 0 && SKIPPED_EXTENSIONS.contains( name.substring( dot + 1 ).toLowerCase( Locale.US ) ) )
+            return false;
+
+        return file.length() >= MIN_FILE_SIZE;
+    }
+
+    /**
+     * Wait for the next file found by the walker
+     * @param foundFiles Queue the walker puts files in
+     * @return The next file, or {@link #END_OF_FILES} once there are no more
+     */
+    private static File takeFoundFile( BlockingQueue<File> foundFiles )
+    {
+        while( true )
+        {
+            try
+            {
+                return foundFiles.take();
+            }
+            catch( InterruptedException e )
+            {
+                Log.w( "CacheRomInfoService", e );
+            }
+        }
+    }
+
+    /**
+     * Scan a single file found during the search, this is called from the worker threads
+     * @param file File to scan
+     * @param cachedZips Archives that are already present in the cache
+     * @return All ROMs found in the file, empty if none were found
      */
-    private List<File> getAllFiles( File searchPath, int count )
+    private List<ScannedRom> scanFile( File file, Set<String> cachedZips )
     {
-        List<File> result = new ArrayList<>();
-        if( searchPath.isDirectory())
+        List<ScannedRom> result = new ArrayList<>();
+
+        if( mbStopped ) return result;
+
+        // Take these before reading so that a file modified during the scan is read again next time
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        final RomFingerprintIndex.Record known = mFingerprints.get( file );
+
+        if( known != null && known.matches( file ) )
         {
-            File[] allFiles = searchPath.listFiles();
-            if(allFiles != null)
+            if( known.type != RomFingerprintIndex.TYPE_ARCHIVE || mSearchZips )
             {
-                for( File file : allFiles )
+                for( RomFingerprintIndex.Entry entry : known.entries )
                 {
-                    if( mbStopped ) break;
+                    if( entry.isRom() )
+                        result.add( getScannedRom( file, known.type, entry ) );
+                }
+            }
+            return result;
+        }
 
-                    //Search subdirectories if option is enabled and we less than 10 levels deep
-                    if(mSearchSubdirectories && count < 10)
-                    {
-                        result.addAll( getAllFiles( file, ++count ) );
-                    }
-                    else if(!file.isDirectory())
-                    {
-                        result.add(file);
+        // The header and MD5 of a plain ROM come from a single read of the file
+        RomStreamReader.Result rom;
+        try
+        {
+            rom = mReaders.get().read( file );
+        }
+        catch( IOException e )
+        {
+            Log.w( "CacheRomInfoService", "ROM file could not be read: " + file );
+            return result;
+        }
+
+        RomHeader header = rom.header;
+        List<RomFingerprintIndex.Entry> entries = new ArrayList<>();
+        if( header.isValid ) {
+            result.add( new ScannedRom( file.getAbsolutePath(), header, rom.md5, null ) );
+            entries.add( new RomFingerprintIndex.Entry( "", RomFingerprintIndex.NO_CRC, size, rom.md5, rom.rawHeader ) );
+            mFingerprints.put( file, RomFingerprintIndex.TYPE_ROM, size, lastModified, entries );
+        } else if (header.isZip || header.is7Zip) {
+            if (mSearchZips && (known != null || !cachedZips.contains(file.getPath()))) {
+                // Plain ROMs keep being scanned by the other workers meanwhile
+                mArchivePermits.acquireUninterruptibly();
+                try {
+                    if (header.isZip) {
+                        cacheZip(file, known, result, entries);
+                    } else {
+                        cache7Zip(file, known, result, entries);
                     }
+                } finally {
+                    mArchivePermits.release();
+                }
 
+                // Only a complete list of entries can be trusted later on
+                if( !mbStopped ) {
+                    mFingerprints.put( file, RomFingerprintIndex.TYPE_ARCHIVE, size, lastModified, entries );
                 }
             }
+        } else {
+            mFingerprints.put( file, RomFingerprintIndex.TYPE_OTHER, size, lastModified, entries );
+        }
+
+        return result;
+    }
+
+    /**
+     * Rebuild a scan result from a fingerprint
+     * @param file File the fingerprint belongs to
+     * @param type Type of the file
+     * @param entry The fingerprint of the ROM
+     * @return The scan result
+     */
+    private ScannedRom getScannedRom( File file, int type, RomFingerprintIndex.Entry entry )
+    {
+        if( type == RomFingerprintIndex.TYPE_ARCHIVE )
+        {
+            String extractedFile = mUnzipDir + "/" + new File( entry.name ).getName();
+            return new ScannedRom( extractedFile, entry.getHeader(), entry.md5, file );
         }
         else
         {
-            result.add( searchPath );
+            return new ScannedRom( file.getAbsolutePath(), entry.getHeader(), entry.md5, null );
         }
-        return result;
     }
 
-    private void cacheZip(RomDatabase database, File file, ConfigFile config)
+    /**
+     * Wait for the next scan result from the workers and write it to the cache
+     * @param completionService Completion service the workers were submitted to
+     * @param database ROM database
+     * @param cache ROM info cache to write to
+     */
+    private void writeNextResult( CompletionService<List<ScannedRom>> completionService, RomDatabase database,
+                                  RomInfoCache cache )
+    {
+        try
+        {
+            List<ScannedRom> roms = completionService.take().get();
+
+            for( ScannedRom rom : roms )
+            {
+                mListener.GetProgressDialog().setText( new File( rom.romPath ).getName() );
+                cacheFile( rom, database, cache );
+            }
+        }
+        catch( InterruptedException|ExecutionException e )
+        {
+            Log.w( "CacheRomInfoService", e );
+        }
+
+        mListener.GetProgressDialog().incrementProgress( 1 );
+    }
+
+    private void cacheZip(File file, RomFingerprintIndex.Record known, List<ScannedRom> result,
+                          List<RomFingerprintIndex.Entry> entries)
     {
         Log.i( "CacheRomInfoService", "Found zip file " + file.getName() );
         try
         {
             ZipFile zipFile = new ZipFile( file );
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while( entries.hasMoreElements() && !mbStopped)
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while( zipEntries.hasMoreElements() && !mbStopped)
             {
                 try
                 {
-                    ZipEntry zipEntry = entries.nextElement();
+                    ZipEntry zipEntry = zipEntries.nextElement();
                     mListener.GetProgressDialog().setSubtext( new File(zipEntry.getName()).getName() );
-                    mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_searchingZip );
 
-                    InputStream zipStream = new BufferedInputStream(zipFile.getInputStream( zipEntry ));
-                    mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_extractingZip );
+                    // Entries that haven't changed don't need to be extracted again
+                    RomFingerprintIndex.Entry knownEntry = known == null ? null :
+                            known.findEntry( zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize() );
+                    if( knownEntry != null )
+                    {
+                        if( knownEntry.isRom() )
+                            result.add( getScannedRom( file, RomFingerprintIndex.TYPE_ARCHIVE, knownEntry ) );
+                        entries.add( knownEntry );
+                        continue;
+                    }
+
+                    // Entries too small to hold a ROM header are never opened
+                    if( zipEntry.isDirectory() || ( zipEntry.getSize() >= 0 && zipEntry.getSize() < MIN_FILE_SIZE ) )
+                    {
+                        entries.add( RomFingerprintIndex.Entry.notRom( zipEntry.getName(), zipEntry.getCrc(),
+                                zipEntry.getSize() ) );
+                        continue;
+                    }
+
+                    InputStream zipStream = zipFile.getInputStream( zipEntry );
 
-                    cacheFileFromInputStream(database, file, config, new File(zipEntry.getName()).getName(),
-                            zipStream);
+                    cacheFileFromInputStream(file, zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize(),
+                            zipStream, result, entries);
 
                     zipStream.close();
                 }
-                catch( IOException|NoSuchAlgorithmException|IllegalArgumentException e  )
+                catch( IOException|IllegalArgumentException e  )
                 {
                     Log.w( "CacheRomInfoService", e );
                 }
@@ -346,7 +773,8 @@ public class CacheRomInfoService extends Service
         }
     }
 
-    private void cache7Zip(RomDatabase database, File file, ConfigFile config)
+    private void cache7Zip(File file, RomFingerprintIndex.Record known, List<ScannedRom> result,
+                           List<RomFingerprintIndex.Entry> entries)
     {
         Log.i( "CacheRomInfoService", "Found 7zip file " + file.getName() );
 
@@ -359,17 +787,35 @@ public class CacheRomInfoService extends Service
                 try
                 {
                     mListener.GetProgressDialog().setSubtext( new File(zipEntry.getName()).getName() );
-                    mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_searchingZip );
 
-                    InputStream zipStream = new BufferedInputStream(new SevenZInputStream(zipFile));
-                    mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_extractingZip );
+                    // Entries that haven't changed don't need to be extracted again
+                    long crc = zipEntry.getHasCrc() ? zipEntry.getCrcValue() : RomFingerprintIndex.NO_CRC;
+                    RomFingerprintIndex.Entry knownEntry = known == null ? null :
+                            known.findEntry( zipEntry.getName(), crc, zipEntry.getSize() );
+                    if( knownEntry != null )
+                    {
+                        if( knownEntry.isRom() )
+                            result.add( getScannedRom( file, RomFingerprintIndex.TYPE_ARCHIVE, knownEntry ) );
+                        entries.add( knownEntry );
+                        continue;
+                    }
+
+                    // Skipped entries of a solid archive are still decoded to reach the next one,
+                    // but nothing is hashed
+                    if( zipEntry.isDirectory() || zipEntry.getSize() < MIN_FILE_SIZE )
+                    {
+                        entries.add( RomFingerprintIndex.Entry.notRom( zipEntry.getName(), crc, zipEntry.getSize() ) );
+                        continue;
+                    }
 
-                    cacheFileFromInputStream(database, file, config, new File(zipEntry.getName()).getName(),
-                            zipStream);
+                    InputStream zipStream = new SevenZInputStream(zipFile);
+
+                    cacheFileFromInputStream(file, zipEntry.getName(), crc, zipEntry.getSize(),
+                            zipStream, result, entries);
 
                     zipStream.close();
                 }
-                catch( IOException|NoSuchAlgorithmException |IllegalArgumentException e  )
+                catch( IOException|IllegalArgumentException e  )
                 {
                     Log.w( "CacheRomInfoService", e );
                 }
@@ -386,58 +832,54 @@ public class CacheRomInfoService extends Service
         }
     }
 
-    private void cacheFileFromInputStream(RomDatabase database, File file, ConfigFile config, String name,
-                                          InputStream inputStream) throws IOException, NoSuchAlgorithmException {
-        //First get the rom header
-        inputStream.mark(500);
-        byte[] romHeader = FileUtil.extractRomHeader(inputStream);
-        RomHeader extractedHeader;
-        if(romHeader != null) {
-            extractedHeader = new RomHeader( romHeader );
+    private void cacheFileFromInputStream(File file, String entryName, long crc, long size, InputStream inputStream,
+                                          List<ScannedRom> result, List<RomFingerprintIndex.Entry> entries)
+            throws IOException {
+        String name = new File(entryName).getName();
 
-            if(extractedHeader.isValid)
-            {
-                Log.i( "FileUtil", "Found ROM entry " + name);
+        // The header and MD5 come from a single pass over the entry, only the header is
+        // decompressed if this is not a ROM
+        RomStreamReader.Result rom = mReaders.get().read( inputStream );
 
-                //Then extract the ROM file
-                inputStream.reset();
+        if(rom.header.isValid)
+        {
+            Log.i( "FileUtil", "Found ROM entry " + name);
 
-                String extractedFile = mUnzipDir + "/" + name;
-                String md5 = ComputeMd5Task.computeMd5( inputStream );
+            String extractedFile = mUnzipDir + "/" + name;
 
-                cacheFile( extractedFile, extractedHeader, md5, database, config, file );
-            }
+            result.add( new ScannedRom( extractedFile, rom.header, rom.md5, file ) );
+            entries.add( new RomFingerprintIndex.Entry( entryName, crc, size, rom.md5, rom.rawHeader ) );
+        }
+        else
+        {
+            // Remembered so that only the header of a new entry is ever decompressed
+            entries.add( RomFingerprintIndex.Entry.notRom( entryName, crc, size ) );
         }
     }
 
-    private void cacheFile( String filename, RomHeader header, String md5, RomDatabase database, ConfigFile config, File zipFileLocation )
+    private void cacheFile( ScannedRom rom, RomDatabase database, RomInfoCache cache )
     {
-        mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_computingMD5 );
+        final String md5 = rom.md5;
+        final RomHeader header = rom.header;
+
+        // The MD5 can only be missing if the file could not be read
+        if( md5 == null )
+            return;
 
         mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_searchingDB );
-        RomDetail detail = database.lookupByMd5WithFallback( md5, filename, header.crc, header.countryCode );
+        RomDetail detail = database.lookupByMd5WithFallback( md5, rom.romPath, header.crc, header.countryCode );
         String artPath = mArtDir + "/" + detail.artName;
-        config.put( md5, "goodName", detail.goodName );
-        if (detail.baseName != null && detail.baseName.length() != 0)
-            config.put( md5, "baseName", detail.baseName );
-        config.put( md5, "romPath", filename );
-        config.put( md5, "zipPath", zipFileLocation == null ? "":zipFileLocation.getAbsolutePath() );
-        config.put( md5, "artPath", artPath );
-        config.put( md5, "crc", header.crc );
-        config.put( md5, "headerName", header.name );
-
-        String countryCodeString = Byte.toString(header.countryCode.getValue());
-        config.put( md5, "countryCode",  countryCodeString);
+        String baseName = detail.baseName != null && detail.baseName.length() != 0 ? detail.baseName : null;
 
-        mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_refreshingUI );
-    }
-    
-    private void cacheFile( File file, RomDatabase database, ConfigFile config )
-    {
-        String md5 = ComputeMd5Task.computeMd5( file );
-        RomHeader header = new RomHeader(file);
+        // Keep the last played time of ROMs that were already in the gallery
+        final RomInfo previous = cache.get( md5 );
+        final int lastPlayed = previous == null ? 0 : previous.lastPlayed;
 
-        cacheFile( file.getAbsolutePath(), header, md5, database, config, null );
+        cache.put( new RomInfo( md5, detail.goodName, baseName, rom.romPath,
+                rom.zipFileLocation == null ? "" : rom.zipFileLocation.getAbsolutePath(), artPath, header.crc,
+                header.name, header.countryCode, lastPlayed ) );
+
+        mListener.GetProgressDialog().setMessage( R.string.cacheRomInfo_refreshingUI );
     }
     
     private static void touchFile( String destPath )
@@ -569,38 +1011,35 @@ public class CacheRomInfoService extends Service
     }
 
     /**
-     * Return true if the config file already contains the given zip file, this is because
+     * Get all the zip files that the cache already contains, this is because
      * exctracting zip files takes a long time
-     * @param zipFile Zip file to search config file for
-     * @return true if zip file is present
+     * @param cache ROM info cache to search
+     * @return Paths of all zip files present in the cache
      */
-    private boolean ConfigHasZip(ConfigFile theConfigFile, String zipFile)
+    private Set<String> getCachedZipPaths(RomInfoCache cache)
     {
-        Set<String> keys = theConfigFile.keySet();
-        boolean found = false;
+        Set<String> zipPaths = new HashSet<>();
 
-        Iterator iter = keys.iterator();
-        while (iter.hasNext() && !found) {
-            String key = (String) iter.next();
-            String foundZipPath = theConfigFile.get(key, "zipPath");
-            found = foundZipPath != null && foundZipPath.equals(zipFile);
+        for (String key : cache.keySet()) {
+            String foundZipPath = cache.get(key).zipPath;
+            if (!TextUtils.isEmpty(foundZipPath)) {
+                zipPaths.add(foundZipPath);
+            }
         }
-        return found;
+        return zipPaths;
     }
 
     /**
-     * Cleanup any missing files from the config file
-     * @param theConfigFile Config file to clean up
+     * Cleanup any missing files from the cache
+     * @param cache ROM info cache to clean up
      */
-    private void CleanupMissingFiles(ConfigFile theConfigFile)
+    private void CleanupMissingFiles(RomInfoCache cache)
     {
-        Set<String> keys = theConfigFile.keySet();
-
-        Iterator iter = keys.iterator();
-        while (iter.hasNext()) {
-            String key = (String) iter.next();
-            String foundZipPath = theConfigFile.get(key, "zipPath");
-            String foundRomPath = theConfigFile.get(key, "romPath");
+        // keySet() returns a copy, so removing while iterating is fine
+        for (String key : cache.keySet()) {
+            final RomInfo info = cache.get(key);
+            String foundZipPath = info.zipPath;
+            String foundRomPath = info.romPath;
 
             //Check if this is a zip file first
             if(!TextUtils.isEmpty(foundZipPath))
@@ -624,9 +1063,7 @@ public class CacheRomInfoService extends Service
                         }
                     }
 
-                    theConfigFile.remove(key);
-                    keys = theConfigFile.keySet();
-                    iter = keys.iterator();
+                    cache.remove(key);
                 }
             }
             //This was not a zip file, just check the ROM path
@@ -639,33 +1076,27 @@ public class CacheRomInfoService extends Service
                 {
                     Log.w( "CacheRomInfoService", "Removing md5=" + key );
 
-                    theConfigFile.remove(key);
-                    keys = theConfigFile.keySet();
-                    iter = keys.iterator();
+                    cache.remove(key);
                 }
             }
         }
     }
 
-    private void downloadCoverArt(RomDatabase database, ConfigFile theConfigFile)
+    private void downloadCoverArt(RomDatabase database, RomInfoCache cache)
     {
         if( mDownloadArt )
         {
-            Set<String> keys = theConfigFile.keySet();
+            Set<String> keys = cache.keySet();
 
             mListener.GetProgressDialog().setMaxProgress( keys.size() );
             mListener.GetProgressDialog().setSubtext( getString(R.string.cacheRomInfo_downloadingArt) );
 
             for (String key : keys) {
-                String artPath = theConfigFile.get(key, "artPath");
-                String romFile = theConfigFile.get(key, "romPath");
-                String crc = theConfigFile.get(key, "crc");
-                final String countryCodeString = theConfigFile.get( key, "countryCode" );
-                CountryCode countryCode = CountryCode.UNKNOWN;
-                if (countryCodeString != null)
-                {
-                    countryCode = CountryCode.getCountryCode(Byte.parseByte(countryCodeString));
-                }
+                final RomInfo info = cache.get(key);
+                String artPath = info.artPath;
+                String romFile = info.romPath;
+                String crc = info.crc;
+                CountryCode countryCode = info.countryCode != null ? info.countryCode : CountryCode.UNKNOWN;
 
                 if(!TextUtils.isEmpty(artPath) && !TextUtils.isEmpty(romFile) && !TextUtils.isEmpty(crc))
                 {
@@ -30,6 +30,8 @@ import java.util.Locale;
 
 import android.os.AsyncTask;
 
+import paulscode.android.mupen64plusae.util.RomByteOrder;
+
 public class ComputeMd5Task extends AsyncTask<Void, Void, String>
 {
     public interface ComputeMd5Listener
@@ -105,33 +107,7 @@ public class ComputeMd5Task extends AsyncTask<Void, Void, String>
             int byteCount;
             while( ( byteCount = inputStream.read( bytes ) ) > 0 )
             {
-                switch( firstByte )
-                {
-                    case 0x37:
-                        // Byteswap if .v64 image
-                        for( int i = 0; i < byteCount; i += 2 )
-                        {
-                            byte temp = bytes[i];
-                            bytes[i] = bytes[i + 1];
-                            bytes[i + 1] = temp;
-                        }
-                        break;
-                    case 0x40:
-                        // Wordswap if .n64 image
-                        for( int i = 0; i < byteCount; i += 4 )
-                        {
-                            byte temp = bytes[i];
-                            bytes[i] = bytes[i + 3];
-                            bytes[i + 3] = temp;
-                            temp = bytes[i + 1];
-                            bytes[i + 1] = bytes[i + 2];
-                            bytes[i + 2] = temp;
-                        }
-                        break;
-                    default:
-                        // No swap otherwise
-                        break;
-                }
+                RomByteOrder.toBigEndian( bytes, byteCount, firstByte );
                 digester.update( bytes, 0, byteCount );
             }
             return convertHashToString( digester.digest() );
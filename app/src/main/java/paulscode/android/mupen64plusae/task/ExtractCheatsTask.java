@@ -72,11 +72,7 @@ public class ExtractCheatsTask extends AsyncTask<String, String, String>
             return;
         
         // Get the appropriate section of the config file, using CRC as the key
-        
-        String countryString = String.format("%02x", mCountryCode).substring(0, 2);
-        String regularExpression = "^" + mCrc.replace( ' ', '-') + "-C:" + countryString + ".*";
-        
-        BufferedReader cheatLocation = CheatUtils.getCheatsLocation(regularExpression, mCheatPath);
+        BufferedReader cheatLocation = CheatUtils.getCheatsLocation(mCrc, mCountryCode, mCheatPath);
         if( cheatLocation == null  )
         {
             Log.w( "GamePrefsActivity", "No cheat section found for '" + mCrc + "'" );
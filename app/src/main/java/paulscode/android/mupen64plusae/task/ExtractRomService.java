@@ -54,6 +54,7 @@ import paulscode.android.mupen64plusae.ActivityHelper;
 import paulscode.android.mupen64plusae.GalleryActivity;
 import paulscode.android.mupen64plusae.dialog.ProgressDialog;
 import paulscode.android.mupen64plusae.dialog.ProgressDialog.OnCancelListener;
+import paulscode.android.mupen64plusae.util.ExtractedRomCache;
 import paulscode.android.mupen64plusae.util.FileUtil;
 import paulscode.android.mupen64plusae.util.RomHeader;
 import paulscode.android.mupen64plusae.util.SevenZInputStream;
@@ -145,12 +146,30 @@ public class ExtractRomService extends Service {
         }
     }
 
+    /**
+     * Checks if a ROM was already extracted, files extracted before they were tracked by the cache
+     * have their MD5 checked once
+     * @param extractedRoms Extracted ROM cache
+     * @param extractedRomFile Where the ROM is extracted to
+     * @param md5 MD5 of the ROM
+     * @return True if the ROM doesn't need to be extracted
+     */
+    private static boolean isAlreadyExtracted(ExtractedRomCache extractedRoms, File extractedRomFile, String md5) {
+        if (extractedRoms.isExtracted(extractedRomFile.getPath(), md5)) {
+            extractedRoms.markUsed(extractedRomFile.getPath());
+            return true;
+        }
+
+        return extractedRomFile.exists() && extractedRoms.verify(extractedRomFile, md5);
+    }
+
     private void ExtractZipFileIfNeeded(String md5, String romPath, String zipPath) {
         final File romFile = new File(romPath);
         String romFileName = romFile.getName();
         final File extractedRomFile = new File(mExtractZipPath + "/" + romFileName);
+        final ExtractedRomCache extractedRoms = ExtractedRomCache.getInstance(mExtractZipPath);
 
-        if (!extractedRomFile.exists()) {
+        if (!isAlreadyExtracted(extractedRoms, extractedRomFile, md5)) {
             boolean lbFound = false;
 
             try {
@@ -170,6 +189,10 @@ public class ExtractRomService extends Service {
                         if(entryName.equals(romFileName)) {
                             File tempRomPath = FileUtil.extractRomFile(destDir, zipEntry.getName(), zipStream);
                             Log.i("ExtractRomService", "Extracted zip entry: " + tempRomPath);
+
+                            if (tempRomPath != null && !extractedRoms.verify(tempRomPath, md5)) {
+                                Log.w("ExtractRomService", "Extracted ROM doesn't match MD5 " + md5);
+                            }
                         }
 
                         zipStream.close();
@@ -188,8 +211,9 @@ public class ExtractRomService extends Service {
         final File romFile = new File(romPath);
         String romFileName = romFile.getName();
         final File extractedRomFile = new File(mExtractZipPath + "/" + romFileName);
+        final ExtractedRomCache extractedRoms = ExtractedRomCache.getInstance(mExtractZipPath);
 
-        if (!extractedRomFile.exists()) {
+        if (!isAlreadyExtracted(extractedRoms, extractedRomFile, md5)) {
             boolean lbFound = false;
 
             try {
@@ -209,6 +233,10 @@ public class ExtractRomService extends Service {
                         if (entryName.equals(romFileName)) {
                             File tempRomPath = FileUtil.extractRomFile(destDir, zipEntry.getName(), zipStream);
                             Log.i("ExtractRomService", "Extracted zip entry: " + tempRomPath);
+
+                            if (tempRomPath != null && !extractedRoms.verify(tempRomPath, md5)) {
+                                Log.w("ExtractRomService", "Extracted ROM doesn't match MD5 " + md5);
+                            }
                         }
 
                         zipStream.close();
@@ -37,6 +37,7 @@ import android.os.Message;
 import android.os.Process;
 import androidx.core.app.NotificationCompat;
 import android.text.TextUtils;
+import android.util.Log;
 import android.widget.Toast;
 
 import org.mupen64plusae.v3.alpha.R;
@@ -157,12 +158,14 @@ public class ExtractTexturesService extends Service
                 if( !TextUtils.isEmpty( headerName ) )
                 {
                     String outputFolder = globalPrefs.hiResTextureDir + headerName;
-                    FileUtil.deleteFolder( new File( outputFolder ) );
 
-                    if(header.isZip) {
-                        FileUtil.unzipAll( new File( mZipPath ), outputFolder );
-                    } else {
-                        FileUtil.unSevenZAll( new File( mZipPath ), outputFolder );
+                    // Picks up where an interrupted install of the same archive left off
+                    TexturePackInstaller installer = new TexturePackInstaller( new File( mZipPath ), outputFolder,
+                            mListener == null ? null : mListener.GetProgressDialog() );
+                    boolean installed = header.isZip ? installer.installZip() : installer.installSevenZ();
+                    if( !installed )
+                    {
+                        Log.w( "ExtractTexturesService", "Texture pack was not fully extracted: " + mZipPath );
                     }
                 }
                 else
@@ -24,7 +24,6 @@ import android.content.Context;
 import android.os.AsyncTask;
 import androidx.annotation.NonNull;
 import android.text.TextUtils;
-import android.util.Log;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
@@ -32,72 +31,57 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 import paulscode.android.mupen64plusae.GalleryItem;
-import paulscode.android.mupen64plusae.persistent.ConfigFile;
+import paulscode.android.mupen64plusae.GallerySearchIndex;
 import paulscode.android.mupen64plusae.persistent.GlobalPrefs;
+import paulscode.android.mupen64plusae.persistent.RomInfoCache;
+import paulscode.android.mupen64plusae.persistent.RomInfoCache.RomInfo;
 import paulscode.android.mupen64plusae.util.CountryCode;
+import paulscode.android.mupen64plusae.util.ExtractedRomCache;
 import paulscode.android.mupen64plusae.util.RomHeader;
 
 public class GalleryRefreshTask extends AsyncTask<Void, Void, String>
 {
     public interface GalleryRefreshFinishedListener
     {
-        void onGalleryRefreshFinished(List<GalleryItem> items, List<GalleryItem> recentItems);
+        void onGalleryRefreshFinished(GallerySearchIndex library, List<GalleryItem> recentItems);
     }
 
     private final GalleryRefreshFinishedListener mListener;
     private final GlobalPrefs mGlobalPrefs;
     private final WeakReference<Context> mContext;
-    private final String mSearchQuery;
-    private List<GalleryItem> mItems = new ArrayList<>();
+    private GallerySearchIndex mLibrary = null;
     private List<GalleryItem> mRecentItems = new ArrayList<>();
 
-    public GalleryRefreshTask(GalleryRefreshFinishedListener listener, Context context, GlobalPrefs globalPrefs,
-                              String searchQuery)
+    public GalleryRefreshTask(GalleryRefreshFinishedListener listener, Context context, GlobalPrefs globalPrefs)
     {
         mListener = listener;
         mContext = new WeakReference<>(context);
         mGlobalPrefs = globalPrefs;
-        mSearchQuery = searchQuery;
     }
     
     @Override
     protected String doInBackground( Void... params )
     {
-        generateGridItemsAndSaveConfig(mItems, mRecentItems);
+        mLibrary = generateGridItemsAndSaveConfig(mRecentItems);
         return "";
     }
     
     @Override
     protected void onPostExecute( String result )
     {
-        mListener.onGalleryRefreshFinished( mItems, mRecentItems );
+        mListener.onGalleryRefreshFinished( mLibrary, mRecentItems );
     }
 
 
     /**
-     * Returns true if the given file is present in the provided list of items
-     * @param items Item list to search
-     * @param romFile ROM File to search for
-     * @return True if it's present
-     */
-    private boolean isRomPathInItemList(List<GalleryItem> items, File romFile)
-    {
-        for (GalleryItem item : items) {
-            if (item.romFile != null && item.romFile.getName().equals(romFile.getName())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Removes old items that shouldn't be in the recents list any more and limits the recent list to 8 items
+     * Removes old items that shouldn't be in the recents list any more and limits the recent list to 8 items,
+     * then deletes the least recently played extracted ROM files that no longer fit in the extraction cache
      * @param recentItems List of recent items to update
+     * @param lastPlayedItem The ROM played last, which may be launching right now, or null
      */
-    private void deleteOldItems(List<GalleryItem> recentItems) {
+    private void deleteOldItems(List<GalleryItem> recentItems, GalleryItem lastPlayedItem) {
 
         if ( recentItems.size() != 0 ) {
             Collections.sort( recentItems, new GalleryItem.RecentlyPlayedComparator() );
@@ -109,60 +93,34 @@ public class GalleryRefreshTask extends AsyncTask<Void, Void, String>
             }
         }
 
-        // Delete extracted zip files not on this list
-        List<File> extractedFiles = new ArrayList<>();
-        File unzipRomsDir = new File(mGlobalPrefs.unzippedRomsDir);
-
-        File[] files = unzipRomsDir.listFiles();
-
-        if (files != null) {
-            Collections.addAll(extractedFiles, files);
-
-            for(File extractedFile : extractedFiles) {
-                if (!isRomPathInItemList(recentItems, extractedFile)) {
-                    if(!extractedFile.delete()) {
-                        Log.w("GalleryRefreshTask", "Unable to delete " + extractedFile.getPath());
-                    }
-                }
-            }
-        }
+        // The ROM being launched is kept even if it alone doesn't fit
+        final String keepPath = lastPlayedItem != null && lastPlayedItem.romFile != null ?
+                lastPlayedItem.romFile.getPath() : null;
+        ExtractedRomCache.getInstance(mGlobalPrefs.unzippedRomsDir).trim(mGlobalPrefs.cacheRecentlyPlayedBytes, keepPath);
     }
 
     /**
-     * Create a GallaryItem using a config file, md5, and good name
-     * @param config Config file
-     * @param md5 MD5 in config
+     * Create a GallaryItem using the ROM info cache, md5, and good name
+     * @param cache ROM info cache
+     * @param info ROM info from the cache
      * @param goodName ROM goodname to use
      * @return A gallery item if one was created successfully.
      */
-    private GalleryItem createGalleryItem(final ConfigFile config, String md5, String goodName)
+    private GalleryItem createGalleryItem(final RomInfoCache cache, RomInfo info, String goodName)
     {
         GalleryItem item = null;
-        final String romPath = config.get( md5, "romPath" );
-        String zipPath = config.get( md5, "zipPath" );
-        final String artFullPath = config.get( md5, "artPath" );
+        final String romPath = info.romPath;
 
         //We get the file name to support the old gallery format
-        String artPath = !TextUtils.isEmpty(artFullPath) ? new File(artFullPath).getName() : null;
+        String artPath = !TextUtils.isEmpty(info.artPath) ? new File(info.artPath).getName() : null;
 
         if(artPath != null)
             artPath = mGlobalPrefs.coverArtDir + "/" + artPath;
 
-        String crc = config.get( md5, "crc" );
-        String headerName = config.get( md5, "headerName" );
-        final String countryCodeString = config.get( md5, "countryCode" );
-        CountryCode countryCode = CountryCode.UNKNOWN;
-
         //We can't really do much if the rompath is null
         if (romPath != null)
         {
-            if (countryCodeString != null)
-            {
-                countryCode = CountryCode.getCountryCode(Byte.parseByte(countryCodeString));
-            }
-            final String lastPlayedStr = config.get(md5, "lastPlayed");
-
-            if (crc == null || headerName == null || countryCodeString == null)
+            if (info.crc == null || info.headerName == null || info.countryCode == null)
             {
                 final File file = new File(romPath);
 
@@ -170,87 +128,69 @@ public class GalleryRefreshTask extends AsyncTask<Void, Void, String>
                 {
                     final RomHeader header = new RomHeader(file);
 
-                    crc = header.crc;
-                    headerName = header.name;
-                    countryCode = header.countryCode;
-
-                    config.put(md5, "crc", crc);
-                    config.put(md5, "headerName", headerName);
-                    config.put(md5, "countryCode", Byte.toString(countryCode.getValue()));
+                    info = info.withHeader(header.crc, header.name, header.countryCode);
+                    cache.put(info);
                 }
             }
 
-            int lastPlayed = 0;
-            if (lastPlayedStr != null)
-                lastPlayed = Integer.parseInt(lastPlayedStr);
+            CountryCode countryCode = info.countryCode != null ? info.countryCode : CountryCode.UNKNOWN;
 
-            item = new GalleryItem(mContext.get(), md5, crc, headerName, countryCode, goodName, romPath,
-                    zipPath, artPath, lastPlayed, mGlobalPrefs.coverArtScale);
+            item = new GalleryItem(mContext.get(), info.md5, info.crc, info.headerName, countryCode, goodName, romPath,
+                    info.zipPath, artPath, info.lastPlayed, mGlobalPrefs.coverArtScale);
         }
 
         return item;
     }
 
     /**
-     * This will populate a list of Gallery items and recent items
-     * @param items Items will be populated here
+     * This will index every ROM of the library and populate a list of recent items. Searching
+     * the library is then done in memory.
      * @param recentItems Recent items will be populated here.
+     * @return The library, sorted and indexed for searching
      */
-    public void generateGridItemsAndSaveConfig(List<GalleryItem> items, @NonNull List<GalleryItem> recentItems)
+    public GallerySearchIndex generateGridItemsAndSaveConfig(@NonNull List<GalleryItem> recentItems)
     {
-        final ConfigFile config = new ConfigFile( mGlobalPrefs.romInfoCache_cfg );
-        final String query = mSearchQuery.toLowerCase( Locale.US );
-        String[] searches = null;
-        if( query.length() > 0 )
-            searches = query.split( " " );
+        final RomInfoCache cache = new RomInfoCache( mGlobalPrefs.romInfoCache_bin, mGlobalPrefs.romInfoCache_cfg );
+        final GallerySearchIndex.Builder library = new GallerySearchIndex.Builder();
 
         int currentTime = (int) ( new Date().getTime() / 1000 );
-
-        for ( final String md5 : config.keySet() ) {
-            if ( !ConfigFile.SECTIONLESS_NAME.equals( md5 ) ) {
-                final ConfigFile.ConfigSection section = config.get( md5 );
-                String goodName;
-                if( mGlobalPrefs.isFullNameShown || !section.keySet().contains( "baseName" ) )
-                    goodName = section.get( "goodName" );
-                else
-                    goodName = section.get( "baseName" );
-
-                boolean matchesSearch = true;
-                if ( searches != null && searches.length > 0 && goodName != null) {
-                    // Make sure the ROM name contains every token in the query
-                    final String lowerName = goodName.toLowerCase( Locale.US );
-                    for ( final String search : searches ) {
-                        if ( search.length() > 0 && !lowerName.contains( search ) ) {
-                            matchesSearch = false;
-                            break;
-                        }
+        GalleryItem lastPlayedItem = null;
+
+        for ( final String md5 : cache.keySet() ) {
+            final RomInfo info = cache.get( md5 );
+            String goodName;
+            if( mGlobalPrefs.isFullNameShown || info.baseName == null )
+                goodName = info.goodName;
+            else
+                goodName = info.baseName;
+
+            if ( goodName != null) {
+                GalleryItem item = createGalleryItem(cache, info, goodName);
+
+                if (item != null) {
+                    if (item.lastPlayed > 0 && (lastPlayedItem == null || item.lastPlayed > lastPlayedItem.lastPlayed)) {
+                        lastPlayedItem = item;
                     }
-                }
 
-                if ( matchesSearch && goodName != null) {
-                    GalleryItem item = createGalleryItem(config, md5, goodName);
-
-                    if (item != null && (mGlobalPrefs.getAllowedCountryCodes().contains(item.countryCode) ||
-                            searches != null)) {
-                        items.add(item);
-                        boolean isNotOld = currentTime - item.lastPlayed <= 60 * 60 * 24 * 7; // 7 days
-                        if (isNotOld) {
-                            recentItems.add(item);
-                        }
+                    // Every country is searchable, only allowed countries are listed otherwise
+                    library.add(item, info.goodName, info.baseName);
+                    boolean isNotOld = currentTime - item.lastPlayed <= 60 * 60 * 24 * 7; // 7 days
+                    if (isNotOld && mGlobalPrefs.getAllowedCountryCodes().contains(item.countryCode)) {
+                        recentItems.add(new GalleryItem(item, true));
                     }
                 }
             }
         }
 
-        config.save();
+        // Only header information filled in above needs saving, which is a no-op most of the time
+        cache.save();
 
-        Collections.sort( items, mGlobalPrefs.sortByRomName ?
+        library.sort( mGlobalPrefs.sortByRomName ?
                 new GalleryItem.NameComparator() : new GalleryItem.RomFileComparator() );
 
-        //Don't delete any items when srarching
-        if (searches == null) {
-            deleteOldItems(recentItems);
-        }
+        deleteOldItems(recentItems, lastPlayedItem);
+
+        return library.build();
     }
 
 }
\ No newline at end of file
@@ -20,44 +20,49 @@
  */
 package paulscode.android.mupen64plusae.task;
 
-import java.io.File;
 import java.lang.ref.WeakReference;
 
 import org.mupen64plusae.v3.alpha.R;
 
-import android.content.Context;
-import android.graphics.Color;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Bitmap;
 import android.os.AsyncTask;
-import android.text.TextUtils;
 import android.widget.ImageView;
 
+import paulscode.android.mupen64plusae.util.ThumbnailCache;
+
 public class LoadBitmapTask extends AsyncTask<String, String, String>
 {
     
+    private final ThumbnailCache mThumbnailCache;
     private final String mBitmapPath;
     private final WeakReference<ImageView> mArtView;
-    private BitmapDrawable mArtBitmap;
-    private final WeakReference<Context> mContext;
+    private Bitmap mArtBitmap;
     private boolean mIsCancelled;
     
-    public LoadBitmapTask( Context context, String bitmapPath, ImageView artView)
+    public LoadBitmapTask( ThumbnailCache thumbnailCache, String bitmapPath, ImageView artView)
     {
+        mThumbnailCache = thumbnailCache;
         mBitmapPath = bitmapPath;
         mArtView = new WeakReference<>(artView);
         mArtBitmap = null;
-        mContext = new WeakReference<>(context);
         mIsCancelled = false;
     }
 
+    /**
+     * Start loading on the shared thumbnail executor
+     */
+    public void start()
+    {
+        executeOnExecutor( ThumbnailCache.EXECUTOR, (String) null );
+    }
+
     @Override
     protected String doInBackground(String... params)
     {
-        Context tempContext = mContext.get();
-
-        if( !TextUtils.isEmpty( mBitmapPath ) && new File( mBitmapPath ).exists() && tempContext != null )
+        // The view may have been recycled while this was waiting in the queue
+        if( !isCancelled() && mArtView.get() != null )
         {
-            mArtBitmap = new BitmapDrawable( tempContext.getResources(), mBitmapPath );
+            mArtBitmap = mThumbnailCache.load( mBitmapPath );
         }
         return null;
     }
@@ -70,7 +75,7 @@ public class LoadBitmapTask extends AsyncTask<String, String, String>
         if(!mIsCancelled && tempArtView != null)
         {
             if( mArtBitmap != null )
-                tempArtView.setImageDrawable( mArtBitmap );
+                tempArtView.setImageBitmap( mArtBitmap );
             else
                 tempArtView.setImageResource( R.drawable.default_coverart );
 
@@ -85,4 +90,4 @@ public class LoadBitmapTask extends AsyncTask<String, String, String>
         mIsCancelled = true;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,468 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+package paulscode.android.mupen64plusae.task;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
+import org.apache.commons.compress.archivers.sevenz.SevenZFile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import paulscode.android.mupen64plusae.dialog.ProgressDialog;
+import paulscode.android.mupen64plusae.util.FileUtil;
+import paulscode.android.mupen64plusae.util.SevenZInputStream;
+
+/**
+ * Extracts a hi-res texture pack into its folder.
+ * <p>
+ * Zip entries can be read independently of each other, so they are extracted by a pool of worker
+ * threads, each copying through its own large buffer. 7zip archives are usually solid and are
+ * extracted in order on the calling thread.
+ * <p>
+ * Every extracted entry is appended to a journal next to the texture folder, so that installing the
+ * same archive again after being interrupted only extracts the entries that are missing. The
+ * journal is deleted once every entry was extracted.
+ */
+class TexturePackInstaller
+{
+    /** Size of the buffer each thread copies through */
+    private static final int BUFFER_SIZE = 0x40000;
+
+    /** Maximum number of entries extracted at the same time */
+    private static final int MAX_THREADS = 4;
+
+    /** How often progress is shown, in milliseconds */
+    private static final int PROGRESS_INTERVAL = 100;
+
+    private static final ThreadLocal<byte[]> sBuffers = new ThreadLocal<byte[]>()
+    {
+        @Override
+        protected byte[] initialValue()
+        {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final File mArchive;
+    private final File mOutputDir;
+    private final File mJournalFile;
+    private final ProgressDialog mProgress;
+
+    /** Entries extracted during a previous install of the same archive */
+    private final Set<String> mCompleted = new HashSet<>();
+
+    private BufferedWriter mJournal = null;
+    private final AtomicInteger mExtractedCount = new AtomicInteger();
+    private int mReportedCount = 0;
+    private volatile String mCurrentEntry = null;
+    private volatile boolean mFailed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param archive The texture pack archive
+     * @param outputDir Folder the textures are extracted to
+     * @param progress Dialog to show progress in, or null
+     */
+    TexturePackInstaller( File archive, String outputDir, ProgressDialog progress )
+    {
+        mArchive = archive;
+        mOutputDir = new File( outputDir );
+        mJournalFile = new File( outputDir + ".install" );
+        mProgress = progress;
+    }
+
+    /**
+     * Extracts every entry of a zip texture pack.
+     *
+     * @return True if every entry was extracted
+     */
+    boolean installZip()
+    {
+        ZipFile zipFile = null;
+        ExecutorService workers = null;
+        try
+        {
+            zipFile = new ZipFile( mArchive );
+            openJournal();
+
+            // Create every folder up front so that the workers never race to create the same one
+            final List<ZipEntry> pending = new ArrayList<>();
+            final Set<String> folders = new HashSet<>();
+            int total = 0;
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while( entries.hasMoreElements() )
+            {
+                final ZipEntry entry = entries.nextElement();
+                if( entry.isDirectory() )
+                    continue;
+
+                ++total;
+                if( mCompleted.contains( entry.getName() ) )
+                    continue;
+
+                final File parent = new File( mOutputDir, entry.getName() ).getParentFile();
+                if( parent != null && folders.add( parent.getPath() ) )
+                    FileUtil.makeDirs( parent.getPath() );
+                pending.add( entry );
+            }
+
+            startProgress( total, total - pending.size() );
+
+            final ZipFile source = zipFile;
+            workers = Executors.newFixedThreadPool( getThreadCount(), new InstallThreadFactory() );
+            for( final ZipEntry entry : pending )
+            {
+                workers.execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if( mFailed )
+                            return;
+
+                        try
+                        {
+                            // ZipFile hands out independent streams, only the raw reads are shared
+                            final InputStream inputStream = source.getInputStream( entry );
+                            try
+                            {
+                                extract( inputStream, entry.getName() );
+                            }
+                            finally
+                            {
+                                inputStream.close();
+                            }
+                        }
+                        catch( IOException e )
+                        {
+                            Log.e( "TexturePackInstaller", "Unable to extract " + entry.getName() + ": " + e );
+                            mFailed = true;
+                        }
+                        catch( RuntimeException e )
+                        {
+                            // The executor would only swallow it, leaving the install to report success
+                            Log.e( "TexturePackInstaller", "Unable to extract " + entry.getName() + ": ", e );
+                            mFailed = true;
+                        }
+                    }
+                } );
+            }
+
+            workers.shutdown();
+            while( !workers.awaitTermination( PROGRESS_INTERVAL, TimeUnit.MILLISECONDS ) )
+                reportProgress();
+            reportProgress();
+        }
+        catch( IOException|InterruptedException e )
+        {
+            Log.e( "TexturePackInstaller", "Exception: ", e );
+            mFailed = true;
+        }
+        finally
+        {
+            if( workers != null )
+                workers.shutdownNow();
+
+            if( zipFile != null )
+            {
+                try
+                {
+                    zipFile.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        return closeJournal();
+    }
+
+    /**
+     * Extracts every entry of a 7zip texture pack.
+     *
+     * @return True if every entry was extracted
+     */
+    boolean installSevenZ()
+    {
+        SevenZFile zipFile = null;
+        try
+        {
+            zipFile = new SevenZFile( mArchive );
+            openJournal();
+
+            // The entries are listed in the archive header, counting them doesn't decompress anything
+            int total = 0;
+            int alreadyExtracted = 0;
+            for( final SevenZArchiveEntry entry : zipFile.getEntries() )
+            {
+                if( entry.isDirectory() )
+                    continue;
+
+                ++total;
+                if( mCompleted.contains( entry.getName() ) )
+                    ++alreadyExtracted;
+            }
+            startProgress( total, alreadyExtracted );
+
+            final InputStream inputStream = new SevenZInputStream( zipFile );
+            long lastReport = 0;
+            SevenZArchiveEntry entry;
+            while( ( entry = zipFile.getNextEntry() ) != null && !mFailed )
+            {
+                // Entries that aren't read are skipped without being written
+                if( entry.isDirectory() || mCompleted.contains( entry.getName() ) )
+                    continue;
+
+                final File parent = new File( mOutputDir, entry.getName() ).getParentFile();
+                if( parent != null )
+                    FileUtil.makeDirs( parent.getPath() );
+
+                extract( inputStream, entry.getName() );
+
+                final long now = System.currentTimeMillis();
+                if( now - lastReport >= PROGRESS_INTERVAL )
+                {
+                    reportProgress();
+                    lastReport = now;
+                }
+            }
+            reportProgress();
+        }
+        catch( IOException e )
+        {
+            Log.e( "TexturePackInstaller", "Exception: ", e );
+            mFailed = true;
+        }
+        catch( OutOfMemoryError e )
+        {
+            Log.e( "TexturePackInstaller", "Out of memory while extracting 7zip entry: " + mArchive );
+            mFailed = true;
+        }
+        finally
+        {
+            if( zipFile != null )
+            {
+                try
+                {
+                    zipFile.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        return closeJournal();
+    }
+
+    /**
+     * Copies a single entry to its file and records it in the journal
+     */
+    private void extract( InputStream inputStream, String name ) throws IOException
+    {
+        mCurrentEntry = name;
+
+        final byte[] buffer = sBuffers.get();
+        final OutputStream outputStream = new FileOutputStream( new File( mOutputDir, name ) );
+        try
+        {
+            int n;
+            while( ( n = inputStream.read( buffer, 0, buffer.length ) ) >= 0 )
+                outputStream.write( buffer, 0, n );
+        }
+        finally
+        {
+            outputStream.close();
+        }
+
+        // Only recorded once the file is complete, so a file cut short is extracted again
+        synchronized( this )
+        {
+            mJournal.write( name );
+            mJournal.newLine();
+        }
+        mExtractedCount.incrementAndGet();
+    }
+
+    /**
+     * Reads the entries extracted by an interrupted install of the same archive. If there was
+     * none, the texture folder is emptied and a new journal is started.
+     */
+    private void openJournal() throws IOException
+    {
+        final String stamp = mArchive.length() + " " + mArchive.lastModified();
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new FileReader( mJournalFile ) );
+            if( stamp.equals( reader.readLine() ) )
+            {
+                String line;
+                while( ( line = reader.readLine() ) != null )
+                    mCompleted.add( line );
+            }
+        }
+        catch( FileNotFoundException e )
+        {
+            // Not resuming
+        }
+        finally
+        {
+            if( reader != null )
+                reader.close();
+        }
+
+        if( mCompleted.isEmpty() )
+        {
+            FileUtil.deleteFolder( mOutputDir );
+            FileUtil.makeDirs( mOutputDir.getPath() );
+            mJournal = new BufferedWriter( new FileWriter( mJournalFile ) );
+            mJournal.write( stamp );
+            mJournal.newLine();
+
+            // Without the stamp, an install killed early would start over from an empty folder
+            mJournal.flush();
+        }
+        else
+        {
+            Log.i( "TexturePackInstaller", "Resuming install of " + mArchive.getName() + ", "
+                    + mCompleted.size() + " entries already extracted" );
+            mJournal = new BufferedWriter( new FileWriter( mJournalFile, true ) );
+        }
+    }
+
+    /**
+     * @return True if the install is complete, in which case the journal is deleted
+     */
+    private boolean closeJournal()
+    {
+        if( mJournal != null )
+        {
+            try
+            {
+                mJournal.close();
+            }
+            catch( IOException e )
+            {
+                Log.w( "TexturePackInstaller", "Unable to write " + mJournalFile + ": " + e );
+            }
+        }
+
+        if( mFailed || mJournal == null )
+            return false;
+
+        if( !mJournalFile.delete() )
+            Log.w( "TexturePackInstaller", "Unable to delete " + mJournalFile );
+        return true;
+    }
+
+    private synchronized void flushJournal()
+    {
+        try
+        {
+            mJournal.flush();
+        }
+        catch( IOException e )
+        {
+            Log.w( "TexturePackInstaller", "Unable to write " + mJournalFile + ": " + e );
+        }
+    }
+
+    private void startProgress( int total, int alreadyExtracted )
+    {
+        if( mProgress == null )
+            return;
+
+        mProgress.setMaxProgress( total );
+        mProgress.incrementProgress( alreadyExtracted );
+    }
+
+    private void reportProgress()
+    {
+        // Entries are only known to be extracted once the journal reaches the file, so that
+        // an install that is killed can resume
+        flushJournal();
+
+        if( mProgress == null )
+            return;
+
+        final int extracted = mExtractedCount.get();
+        mProgress.incrementProgress( extracted - mReportedCount );
+        mReportedCount = extracted;
+
+        final String entry = mCurrentEntry;
+        if( entry != null )
+            mProgress.setText( new File( entry ).getName() );
+    }
+
+    private static int getThreadCount()
+    {
+        return Math.max( 1, Math.min( MAX_THREADS, Runtime.getRuntime().availableProcessors() ) );
+    }
+
+    /**
+     * Creates the extraction threads at background priority so that they don't disrupt our UI
+     */
+    private static final class InstallThreadFactory implements ThreadFactory
+    {
+        private int mThreadCount = 0;
+
+        @Override
+        public synchronized Thread newThread( final Runnable runnable )
+        {
+            return new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+                    runnable.run();
+                }
+            }, "TexturePackInstaller" + mThreadCount++ );
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+
+package paulscode.android.mupen64plusae.util;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps track of the ROM files extracted from archives, so that a game can be launched again
+ * without decompressing it.
+ * <p>
+ * A manifest in the extraction directory holds the MD5 of every extracted file, checked once right
+ * after extraction, along with the size and modification time the file had then. A file is only
+ * reused while those are unchanged. Once the files take up more space than allowed, the least
+ * recently played ones are deleted first.
+ */
+public final class ExtractedRomCache
+{
+    private static final int MANIFEST_MAGIC = 0x4D363447;
+    private static final int MANIFEST_VERSION = 1;
+
+    /** Name of the manifest, hidden so that it is never mistaken for an extracted file */
+    private static final String MANIFEST_NAME = ".manifest";
+
+    private static ExtractedRomCache sInstance = null;
+
+    private final File mDir;
+    private final File mManifestFile;
+
+    /** Extracted files by file name */
+    private final HashMap<String, Item> mItems = new HashMap<>();
+
+    /**
+     * What is known about a single extracted file
+     */
+    private static final class Item
+    {
+        final String name;
+        final String md5;
+        final long size;
+        final long lastModified;
+        long lastUsed;
+
+        Item( String name, String md5, long size, long lastModified, long lastUsed )
+        {
+            this.name = name;
+            this.md5 = md5;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lastUsed = lastUsed;
+        }
+
+        boolean matches( File file )
+        {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Gets the cache of a directory, reading its manifest the first time.
+     *
+     * @param dir Directory the ROM files are extracted to
+     * @return The extracted ROM cache
+     */
+    public static synchronized ExtractedRomCache getInstance( String dir )
+    {
+        if( sInstance == null || !sInstance.mDir.getPath().equals( dir ) )
+            sInstance = new ExtractedRomCache( dir );
+        return sInstance;
+    }
+
+    private ExtractedRomCache( String dir )
+    {
+        mDir = new File( dir );
+        mManifestFile = new File( mDir, MANIFEST_NAME );
+        readManifest();
+    }
+
+    /**
+     * Checks that a ROM file was extracted and is still intact, without reading it.
+     *
+     * @param romPath Path of the extracted ROM file
+     * @param md5 Expected MD5 of the ROM
+     * @return True if the file can be used as is
+     */
+    public synchronized boolean isExtracted( String romPath, String md5 )
+    {
+        final File file = new File( romPath );
+        final Item item = mItems.get( file.getName() );
+        return item != null && item.md5.equalsIgnoreCase( md5 ) && item.matches( file );
+    }
+
+    /**
+     * Checks the MD5 of an extracted ROM file and adds it to the cache if it is the expected one,
+     * otherwise the file is deleted. This reads the whole file, so it must not be called from the
+     * UI thread.
+     *
+     * @param file The extracted ROM file
+     * @param md5 Expected MD5 of the ROM
+     * @return True if the file is the expected ROM
+     */
+    public boolean verify( File file, String md5 )
+    {
+        RomStreamReader.Result rom = null;
+        try
+        {
+            rom = new RomStreamReader( false, false ).read( file );
+        }
+        catch( IOException e )
+        {
+            Log.w( "ExtractedRomCache", "Unable to read " + file.getPath() + ": " + e );
+        }
+
+        if( rom == null || rom.md5 == null || !rom.md5.equalsIgnoreCase( md5 ) )
+        {
+            if( file.exists() && !file.delete() )
+                Log.w( "ExtractedRomCache", "Unable to delete " + file.getPath() );
+
+            synchronized( this )
+            {
+                mItems.remove( file.getName() );
+            }
+            return false;
+        }
+
+        put( file, rom.md5 );
+        return true;
+    }
+
+    /**
+     * Adds an extracted ROM file whose MD5 is already known, it counts as just played.
+     *
+     * @param file The extracted ROM file
+     * @param md5 MD5 of the ROM
+     */
+    public synchronized void put( File file, String md5 )
+    {
+        mItems.put( file.getName(), new Item( file.getName(), md5, file.length(), file.lastModified(),
+                System.currentTimeMillis() ) );
+        writeManifest();
+    }
+
+    /**
+     * Marks an extracted ROM file as just played, so that it is the last one to be deleted.
+     *
+     * @param romPath Path of the extracted ROM file
+     */
+    public synchronized void markUsed( String romPath )
+    {
+        final Item item = mItems.get( new File( romPath ).getName() );
+        if( item != null )
+        {
+            item.lastUsed = System.currentTimeMillis();
+            writeManifest();
+        }
+    }
+
+    /**
+     * Deletes the least recently played ROM files until the rest fit in the given space. The ROM
+     * file being launched or extracted is never deleted, the files may then take up more space
+     * than allowed.
+     *
+     * @param maxBytes Space the extracted ROM files may take up
+     * @param keepPath Path of the ROM file to keep whatever its size, or null
+     */
+    public synchronized void trim( long maxBytes, String keepPath )
+    {
+        final String keepName = keepPath == null ? null : new File( keepPath ).getName();
+        final File[] files = mDir.listFiles();
+        if( files == null )
+            return;
+
+        // Files missing from the manifest are counted as played when they were written, the one
+        // being extracted right now is then always the last to go
+        final List<Item> present = new ArrayList<>();
+        long totalBytes = 0;
+        for( final File file : files )
+        {
+            if( !file.isFile() || file.getName().startsWith( "." ) )
+                continue;
+
+            Item item = mItems.get( file.getName() );
+            if( item == null || !item.matches( file ) )
+            {
+                item = new Item( file.getName(), "", file.length(), file.lastModified(),
+                        file.lastModified() );
+            }
+            present.add( item );
+            totalBytes += item.size;
+        }
+
+        Collections.sort( present, new Comparator<Item>()
+        {
+            @Override
+            public int compare( Item lhs, Item rhs )
+            {
+                return Long.compare( lhs.lastUsed, rhs.lastUsed );
+            }
+        } );
+
+        mItems.clear();
+        for( final Item item : present )
+        {
+            if( totalBytes > maxBytes && !item.name.equals( keepName ) )
+            {
+                final File file = new File( mDir, item.name );
+                if( file.delete() )
+                {
+                    Log.i( "ExtractedRomCache", "Deleted " + file.getPath() );
+                    totalBytes -= item.size;
+                    continue;
+                }
+                Log.w( "ExtractedRomCache", "Unable to delete " + file.getPath() );
+            }
+
+            // Only files with a known MD5 go back in the manifest
+            if( item.md5.length() > 0 )
+                mItems.put( item.name, item );
+        }
+
+        writeManifest();
+    }
+
+    private void readManifest()
+    {
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( mManifestFile ) ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            // Nothing has been extracted yet
+            return;
+        }
+
+        try
+        {
+            if( in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION )
+                return;
+
+            final int count = in.readInt();
+            for( int i = 0; i < count; i++ )
+            {
+                final String name = in.readUTF();
+                mItems.put( name, new Item( name, in.readUTF(), in.readLong(), in.readLong(), in.readLong() ) );
+            }
+        }
+        catch( IOException e )
+        {
+            // Files that are no longer listed are checked again before being used
+            Log.w( "ExtractedRomCache", "Unable to read " + mManifestFile.getPath() + ": " + e );
+            mItems.clear();
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+    }
+
+    private void writeManifest()
+    {
+        if( !mDir.isDirectory() )
+            return;
+
+        final File tempFile = new File( mDir, MANIFEST_NAME + ".tmp" );
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+            out.writeInt( MANIFEST_MAGIC );
+            out.writeInt( MANIFEST_VERSION );
+            out.writeInt( mItems.size() );
+            for( final Item item : mItems.values() )
+            {
+                out.writeUTF( item.name );
+                out.writeUTF( item.md5 );
+                out.writeLong( item.size );
+                out.writeLong( item.lastModified );
+                out.writeLong( item.lastUsed );
+            }
+            out.close();
+            out = null;
+
+            if( !tempFile.renameTo( mManifestFile ) )
+                Log.e( "ExtractedRomCache", "Unable to rename " + tempFile.getPath() );
+        }
+        catch( IOException e )
+        {
+            Log.e( "ExtractedRomCache", "IOException writing file " + mManifestFile.getPath() );
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+}
@@ -20,7 +20,6 @@
  */
 package paulscode.android.mupen64plusae.util;
 
-import androidx.annotation.NonNull;
 import android.util.Log;
 
 import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
@@ -266,7 +265,7 @@ public final class FileUtil
                 final InputStream in = new FileInputStream( src );
                 final OutputStream out = new FileOutputStream( dest );
                 
-                byte[] buf = new byte[1024];
+                byte[] buf = new byte[0x10000];
                 int len;
                 while( ( len = in.read( buf ) ) > 0 )
                 {
@@ -353,162 +352,6 @@ public final class FileUtil
     }
     
     
-    /**
-     * Unzips a ZIP file in its entirety.
-     *
-     * @param archive   The archive to extract.
-     * @param outputDir Directory to place all of the extracted files.
-     */
-    public static void unzipAll( @NonNull File archive, String outputDir )
-    {
-        if( !archive.exists() )
-        {
-            Log.e( "unzipAll", "Zip file '" + archive.getAbsolutePath() + "' does not exist" );
-            return;
-        }
-        else if( !archive.isFile() )
-        {
-            Log.e( "unzipAll", "Zip file '" + archive.getAbsolutePath() + "' is not a file" );
-            return;
-        }
-        
-        ZipFile zipfile = null;
-        try
-        {
-            zipfile = new ZipFile( archive );
-            Enumeration<? extends ZipEntry> e = zipfile.entries();
-            while( e.hasMoreElements() )
-            {
-                ZipEntry entry = e.nextElement();
-                if (!entry.isDirectory())
-                {
-                    File f = new File( outputDir + "/" + entry.toString() );
-                    f = f.getParentFile();
-                    if( f != null )
-                    {
-                        FileUtil.makeDirs(f.getPath());
-                        unzipEntry( zipfile, entry, outputDir );
-                    }
-                }
-            }
-        }
-        catch( Exception ze )
-        {
-            Log.e( "unzipAll", "Exception: ", ze );
-        }
-        finally
-        {
-            if( zipfile != null )
-                try
-                {
-                    zipfile.close();
-                }
-                catch( IOException ignored )
-                {
-                }
-        }
-    }
-
-    // Unzips a specific entry from a ZIP file into the given output directory.
-    //
-    // Returns the absolute path to the outputted entry.
-    // Returns null if the entry passed in happens to be a directory.
-    private static void unzipEntry( ZipFile zipfile, ZipEntry entry, String outputDir )
-            throws IOException
-    {
-        File outputFile = new File( outputDir, entry.getName() );
-        
-        BufferedInputStream inputStream = new BufferedInputStream( zipfile.getInputStream( entry ) );
-        BufferedOutputStream outputStream = new BufferedOutputStream( new FileOutputStream(
-                outputFile ) );
-        byte[] b = new byte[1024];
-        int n;
-        
-        while( ( n = inputStream.read( b, 0, 1024 ) ) >= 0 )
-        {
-            outputStream.write( b, 0, n );
-        }
-        
-        outputStream.close();
-        inputStream.close();
-    }
-
-    /**
-     * Unzips a ZIP file in its entirety.
-     *
-     * @param archive   The archive to extract.
-     * @param outputDir Directory to place all of the extracted files.
-     */
-    public static void unSevenZAll(@NonNull File archive, String outputDir )
-    {
-        SevenZFile zipfile = null;
-        try
-        {
-            zipfile = new SevenZFile(archive);
-            SevenZArchiveEntry zipEntry;
-
-            while( (zipEntry = zipfile.getNextEntry()) != null)
-            {
-                File f = new File( outputDir + "/" + zipEntry.getName() );
-
-                f = f.getParentFile();
-                if( f != null )
-                {
-                    FileUtil.makeDirs(f.getPath());
-                    unSevenZEntry( zipfile, zipEntry, outputDir );
-                }
-            }
-        }
-        catch( Exception ze )
-        {
-            Log.e( "unzipAll", "Exception: ", ze );
-        }
-        catch (java.lang.OutOfMemoryError e)
-        {
-            Log.w( "CacheRomInfoService", "Out of memory while extracting 7zip entry: " + archive );
-        }
-        finally
-        {
-            if( zipfile != null )
-                try
-                {
-                    zipfile.close();
-                }
-                catch( IOException ignored )
-                {
-                }
-        }
-    }
-
-    // Unzips a specific entry from a ZIP file into the given output directory.
-    //
-    // Returns the absolute path to the outputted entry.
-    // Returns null if the entry passed in happens to be a directory.
-    private static void unSevenZEntry( SevenZFile zipFile, SevenZArchiveEntry entry, String outputDir )
-            throws IOException
-    {
-        if( entry.isDirectory() )
-        {
-            Log.e( "unzipEntry", "Zip entry '" + entry.getName() + "' is not a file" );
-            return;
-        }
-
-        File outputFile = new File( outputDir, entry.getName() );
-        final InputStream zipStream = new BufferedInputStream(new SevenZInputStream(zipFile));
-        BufferedOutputStream outputStream = new BufferedOutputStream( new FileOutputStream(
-                outputFile ) );
-        byte[] b = new byte[1024];
-        int n;
-
-        while( ( n = zipStream.read( b, 0, 1024 ) ) >= 0 )
-        {
-            outputStream.write( b, 0, n );
-        }
-
-        outputStream.close();
-        zipStream.close();
-    }
-
     public static File extractRomFile( File destDir, String zipEntryName, InputStream inStream )
     {        
         // Read the first 4 bytes of the entry
@@ -0,0 +1,149 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+
+package paulscode.android.mupen64plusae.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Puts ROM images in big endian (.z64) byte order. The bulk of the data is swapped eight bytes at
+ * a time through a {@link LongBuffer} view, only the last few bytes are swapped one by one.
+ * <p>
+ * The swaps only move bytes within each 16 or 32 bit group, which stays in the same bits of a
+ * long whatever the byte order of the view, so the native order is used for the fastest loads.
+ */
+public final class RomByteOrder
+{
+    /** First byte of a byte swapped (.v64) image */
+    public static final int V64_FIRST_BYTE = 0x37;
+
+    /** First byte of a word swapped (.n64) image */
+    public static final int N64_FIRST_BYTE = 0x40;
+
+    private static final long LOW_BYTES_MASK = 0x00FF00FF00FF00FFL;
+
+    private RomByteOrder()
+    {
+    }
+
+    /**
+     * Put the first bytes of an array in big endian order.
+     *
+     * @param bytes The bytes to swap in place
+     * @param byteCount Number of bytes to swap, starting at index 0
+     * @param firstByte First byte of the image, which tells its byte order
+     */
+    public static void toBigEndian( byte[] bytes, int byteCount, int firstByte )
+    {
+        toBigEndian( ByteBuffer.wrap( bytes ), byteCount, firstByte );
+    }
+
+    /**
+     * Put the first bytes of a buffer in big endian order. The position, limit and order of the
+     * buffer are not changed.
+     *
+     * @param buffer The bytes to swap in place
+     * @param byteCount Number of bytes to swap, starting at index 0
+     * @param firstByte First byte of the image, which tells its byte order
+     */
+    public static void toBigEndian( ByteBuffer buffer, int byteCount, int firstByte )
+    {
+        switch( firstByte )
+        {
+            case V64_FIRST_BYTE:
+                swapHalfWords( getWholeBuffer( buffer ), byteCount );
+                break;
+            case N64_FIRST_BYTE:
+                swapWords( getWholeBuffer( buffer ), byteCount );
+                break;
+            default:
+                // Already big endian, or not a ROM
+                break;
+        }
+    }
+
+    /**
+     * Byteswap for .v64 images, swaps the two bytes of every 16 bit group
+     */
+    private static void swapHalfWords( ByteBuffer buffer, int byteCount )
+    {
+        final LongBuffer lanes = getLanes( buffer, byteCount );
+        final int laneCount = lanes.limit();
+        for( int i = 0; i < laneCount; ++i )
+        {
+            final long lane = lanes.get( i );
+            lanes.put( i, ( ( lane & LOW_BYTES_MASK ) << 8 ) | ( ( lane >>> 8 ) & LOW_BYTES_MASK ) );
+        }
+
+        for( int i = laneCount * 8; i + 1 < byteCount; i += 2 )
+        {
+            final byte temp = buffer.get( i );
+            buffer.put( i, buffer.get( i + 1 ) );
+            buffer.put( i + 1, temp );
+        }
+    }
+
+    /**
+     * Wordswap for .n64 images, reverses the four bytes of every 32 bit group
+     */
+    private static void swapWords( ByteBuffer buffer, int byteCount )
+    {
+        final LongBuffer lanes = getLanes( buffer, byteCount );
+        final int laneCount = lanes.limit();
+        for( int i = 0; i < laneCount; ++i )
+        {
+            // Reversing all eight bytes also swaps the two words, rotate them back
+            lanes.put( i, Long.rotateLeft( Long.reverseBytes( lanes.get( i ) ), 32 ) );
+        }
+
+        for( int i = laneCount * 8; i + 3 < byteCount; i += 4 )
+        {
+            byte temp = buffer.get( i );
+            buffer.put( i, buffer.get( i + 3 ) );
+            buffer.put( i + 3, temp );
+            temp = buffer.get( i + 1 );
+            buffer.put( i + 1, buffer.get( i + 2 ) );
+            buffer.put( i + 2, temp );
+        }
+    }
+
+    /**
+     * @return A view of the whole buffer, whatever its position and limit
+     */
+    private static ByteBuffer getWholeBuffer( ByteBuffer buffer )
+    {
+        final ByteBuffer view = buffer.duplicate();
+        view.clear();
+        return view;
+    }
+
+    /**
+     * @return A view of the first whole longs of the buffer, in native byte order
+     */
+    private static LongBuffer getLanes( ByteBuffer buffer, int byteCount )
+    {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit( byteCount - byteCount % 8 );
+        return view.order( ByteOrder.nativeOrder() ).asLongBuffer();
+    }
+}
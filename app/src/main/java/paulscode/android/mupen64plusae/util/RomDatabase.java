@@ -22,12 +22,26 @@ package paulscode.android.mupen64plusae.util;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-
-import paulscode.android.mupen64plusae.persistent.ConfigFile;
-import paulscode.android.mupen64plusae.persistent.ConfigFile.ConfigSection;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * This class wraps the <a href=https://github.com/mupen64plus/mupen64plus-core/tree/master/data>ROM
@@ -86,6 +100,11 @@ import paulscode.android.mupen64plusae.persistent.ConfigFile.ConfigSection;
  * </ul>
  * We wrap the database info in a java class, which we use to hold additional derived meta-info,
  * like URLs for the cover art and wiki entries.
+ * <p>
+ * The database file is never parsed as a whole. An index of the byte range of every entry, sorted
+ * by MD5 and by CRC, is written next to it when the assets are extracted (see
+ * {@link #writeIndex(String)}). The database file itself is memory mapped and only the entries that
+ * are looked up are parsed.
  * 
  * @see RomHeader
  * @see assets/mupen64plus_data/mupen64plus.ini
@@ -95,9 +114,23 @@ public class RomDatabase
     private static final String ART_URL_TEMPLATE = "http://paulscode.com/downloads/Mupen64Plus-AE/CoverArt/%s";
     private static final String WIKI_URL_TEMPLATE = "https://github.com/mupen64plus-ae/mupen64plus-ae-meta/wiki/%s";
     
-    private ConfigFile mConfigFile = null;
-    private final HashMap<String, ArrayList<ConfigSection>> mCrcMap = new HashMap<>();
-    
+    private static final int INDEX_MAGIC = 0x4D363444; // "M64D"
+    private static final int INDEX_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /** The memory mapped database file, null until {@link #setDatabaseFile(String)} is called */
+    private ByteBuffer mDatabase = null;
+
+    /** Every entry, sorted by MD5 (high and low halves) */
+    private long[] mMd5High = new long[0];
+    private long[] mMd5Low = new long[0];
+    private int[] mOffsets = new int[0];
+    private int[] mLengths = new int[0];
+
+    /** Entries sorted by CRC, each CRC value points into the MD5 tables */
+    private long[] mCrcs = new long[0];
+    private int[] mCrcEntries = new int[0];
+
     private static RomDatabase instance = null;
     private RomDatabase() {
        // Do not allow creation
@@ -111,26 +144,87 @@ public class RomDatabase
     
     public void setDatabaseFile( String mupen64plusIni )
     {
-        mConfigFile = new ConfigFile( mupen64plusIni );
-        for( String key : mConfigFile.keySet() )
+        final File databaseFile = new File( mupen64plusIni );
+
+        RandomAccessFile file = null;
+        try
         {
-            ConfigSection section = mConfigFile.get( key );
-            if( section != null )
+            file = new RandomAccessFile( databaseFile, "r" );
+            mDatabase = file.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, file.length() );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomDatabase", "Unable to map " + mupen64plusIni + ": " + e );
+            return;
+        }
+        finally
+        {
+            if( file != null )
             {
-                String crc = section.get( "CRC" );
-                if( crc != null )
+                try
+                {
+                    file.close();
+                }
+                catch( IOException ignored )
                 {
-                    if( mCrcMap.get( crc ) == null )
-                        mCrcMap.put( crc, new ArrayList<ConfigSection>() );
-                    mCrcMap.get( crc ).add( section );
                 }
             }
         }
+
+        // The index should have been written when the assets were extracted, rebuild it if the
+        // database file was changed since
+        if( !readIndex( databaseFile ) )
+        {
+            Log.i( "RomDatabase", "Rebuilding index of " + mupen64plusIni );
+            buildIndex( mDatabase.duplicate() );
+            saveIndex( databaseFile );
+        }
     }
-    
+
+    /**
+     * Writes the index of a database file, this should be done every time the database file is
+     * updated.
+     *
+     * @param mupen64plusIni The database file to index
+     */
+    public static void writeIndex( String mupen64plusIni )
+    {
+        final File databaseFile = new File( mupen64plusIni );
+        final RomDatabase database = new RomDatabase();
+
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream( databaseFile );
+            final byte[] bytes = new byte[(int) databaseFile.length()];
+            new DataInputStream( in ).readFully( bytes );
+            database.buildIndex( ByteBuffer.wrap( bytes ) );
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomDatabase", "Unable to index " + mupen64plusIni + ": " + e );
+            return;
+        }
+        finally
+        {
+            if( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        database.saveIndex( databaseFile );
+    }
+
     public boolean hasDatabaseFile()
     {
-        return mConfigFile != null;
+        return mDatabase != null;
     }
 
     public RomDetail lookupByMd5WithFallback( String md5, String filename, String crc, CountryCode countryCode )
@@ -157,10 +251,18 @@ public class RomDatabase
         ArrayList<RomDetail> romDetails = new ArrayList<>();
 
         //First try to find a unique match
-        ArrayList<ConfigSection> sections = mCrcMap.get( crc );
-        if( sections != null ) {
-            for( int i = 0; i < sections.size(); i++ )
-                romDetails.add(new RomDetail( sections.get( i ) ));
+        long crcValue = parseCrc( crc );
+        if( crcValue != -1 ) {
+            int i = Arrays.binarySearch( mCrcs, crcValue );
+
+            // Go back to the first entry with this CRC
+            while( i > 0 && mCrcs[i - 1] == crcValue )
+                i--;
+
+            for( ; i >= 0 && i < mCrcs.length && mCrcs[i] == crcValue; i++ ) {
+                final int entry = mCrcEntries[i];
+                romDetails.add(new RomDetail( formatMd5( entry ), readSection( entry ) ));
+            }
         }
 
         if (romDetails.size() > 1) {
@@ -205,8 +307,363 @@ public class RomDatabase
     
     private RomDetail lookupByMd5( String md5 )
     {
-        ConfigSection section = mConfigFile.get( md5 );
-        return section == null ? null : new RomDetail( section );
+        int entry = findEntry( md5 );
+        return entry < 0 ? null : new RomDetail( formatMd5( entry ), readSection( entry ) );
+    }
+
+    /**
+     * @param md5 MD5 of a ROM
+     * @return Position of the entry in the MD5 tables, or a negative value if there is none
+     */
+    private int findEntry( String md5 )
+    {
+        if( md5 == null || md5.length() != 32 )
+            return -1;
+
+        final long high;
+        final long low;
+        try
+        {
+            // Parse in two halves of two ints, Long.parseLong can't handle the sign bit
+            high = ( Long.parseLong( md5.substring( 0, 8 ), 16 ) << 32 ) | Long.parseLong( md5.substring( 8, 16 ), 16 );
+            low = ( Long.parseLong( md5.substring( 16, 24 ), 16 ) << 32 ) | Long.parseLong( md5.substring( 24 ), 16 );
+        }
+        catch( NumberFormatException e )
+        {
+            return -1;
+        }
+
+        int first = 0;
+        int last = mMd5High.length - 1;
+        while( first <= last )
+        {
+            final int middle = ( first + last ) >>> 1;
+            final int compare = compareMd5( mMd5High[middle], mMd5Low[middle], high, low );
+            if( compare < 0 )
+                first = middle + 1;
+            else if( compare > 0 )
+                last = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private String formatMd5( int entry )
+    {
+        return String.format( "%016X%016X", mMd5High[entry], mMd5Low[entry] );
+    }
+
+    /**
+     * Parse the parameters of a single entry from the mapped database file
+     * @param entry Position of the entry in the MD5 tables
+     * @return The parameters of the entry
+     */
+    private HashMap<String, String> readSection( int entry )
+    {
+        final byte[] bytes = new byte[mLengths[entry]];
+        final ByteBuffer database = mDatabase.duplicate();
+        database.position( mOffsets[entry] );
+        database.get( bytes );
+
+        final HashMap<String, String> section = new HashMap<>();
+        for( String line : new String( bytes, UTF_8 ).split( "\n" ) )
+        {
+            line = line.trim();
+            final int equals = line.indexOf( '=' );
+            if( isComment( line ) || equals < 1 )
+                continue;
+
+            final String key = line.substring( 0, equals ).trim();
+            final String value = line.substring( equals + 1 ).trim();
+            if( key.length() > 0 && value.length() > 0 )
+                section.put( key, value );
+        }
+        return section;
+    }
+
+    /**
+     * Finds the byte range of every entry of a database file
+     * @param database Contents of the database file
+     */
+    private void buildIndex( ByteBuffer database )
+    {
+        final List<long[]> entries = new ArrayList<>();
+        final HashMap<String, long[]> entriesByMd5 = new HashMap<>();
+        long[] current = null;
+
+        final int limit = database.limit();
+        int lineStart = 0;
+        while( lineStart < limit )
+        {
+            int lineEnd = lineStart;
+            while( lineEnd < limit && database.get( lineEnd ) != '\n' )
+                lineEnd++;
+
+            final byte[] bytes = new byte[lineEnd - lineStart];
+            database.position( lineStart );
+            database.get( bytes );
+            final String line = new String( bytes, UTF_8 ).trim();
+
+            if( line.startsWith( "[" ) && line.indexOf( ']' ) > 1 )
+            {
+                if( current != null )
+                    current[3] = lineStart - current[2];
+
+                // { md5 high, md5 low, offset, length, crc }
+                current = null;
+                final String name = line.substring( 1, line.indexOf( ']' ) ).trim().toUpperCase( Locale.US );
+                final long[] md5 = parseMd5( name );
+                if( md5 != null )
+                {
+                    current = new long[] { md5[0], md5[1], lineEnd + 1, 0, -1 };
+
+                    // When an MD5 appears twice the last entry wins, like it did in ConfigFile
+                    final long[] previous = entriesByMd5.put( name, current );
+                    if( previous != null )
+                        entries.remove( previous );
+                    entries.add( current );
+                }
+            }
+            else if( current != null && !isComment( line ) && line.indexOf( '=' ) > 0
+                    && "CRC".equals( line.substring( 0, line.indexOf( '=' ) ).trim() ) )
+            {
+                current[4] = parseCrc( line.substring( line.indexOf( '=' ) + 1 ).trim() );
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        if( current != null )
+            current[3] = Math.max( 0, limit - current[2] );
+
+        // CRC matches are returned in file order, so sort by CRC before sorting by MD5
+        final List<long[]> byCrc = new ArrayList<>( entries );
+        Collections.sort( byCrc, new Comparator<long[]>()
+        {
+            @Override
+            public int compare( long[] lhs, long[] rhs )
+            {
+                return lhs[4] < rhs[4] ? -1 : ( lhs[4] == rhs[4] ? 0 : 1 );
+            }
+        } );
+        Collections.sort( entries, new Comparator<long[]>()
+        {
+            @Override
+            public int compare( long[] lhs, long[] rhs )
+            {
+                return compareMd5( lhs[0], lhs[1], rhs[0], rhs[1] );
+            }
+        } );
+
+        final HashMap<long[], Integer> positions = new HashMap<>();
+        mMd5High = new long[entries.size()];
+        mMd5Low = new long[entries.size()];
+        mOffsets = new int[entries.size()];
+        mLengths = new int[entries.size()];
+        for( int i = 0; i < entries.size(); i++ )
+        {
+            final long[] entry = entries.get( i );
+            mMd5High[i] = entry[0];
+            mMd5Low[i] = entry[1];
+            mOffsets[i] = (int) entry[2];
+            mLengths[i] = (int) entry[3];
+            positions.put( entry, i );
+        }
+
+        int crcCount = 0;
+        for( long[] entry : byCrc )
+        {
+            if( entry[4] != -1 )
+                crcCount++;
+        }
+        mCrcs = new long[crcCount];
+        mCrcEntries = new int[crcCount];
+        int i = 0;
+        for( long[] entry : byCrc )
+        {
+            if( entry[4] != -1 )
+            {
+                mCrcs[i] = entry[4];
+                mCrcEntries[i] = positions.get( entry );
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Loads the index of a database file
+     * @param databaseFile The database file
+     * @return False if there is no index, or the database file has changed since it was written
+     */
+    private boolean readIndex( File databaseFile )
+    {
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( getIndexFile( databaseFile ) ) ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            return false;
+        }
+
+        try
+        {
+            if( in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || in.readLong() != databaseFile.length() || in.readLong() != databaseFile.lastModified() )
+                return false;
+
+            final int entryCount = in.readInt();
+            mMd5High = new long[entryCount];
+            mMd5Low = new long[entryCount];
+            mOffsets = new int[entryCount];
+            mLengths = new int[entryCount];
+            for( int i = 0; i < entryCount; i++ )
+            {
+                mMd5High[i] = in.readLong();
+                mMd5Low[i] = in.readLong();
+                mOffsets[i] = in.readInt();
+                mLengths[i] = in.readInt();
+            }
+
+            final int crcCount = in.readInt();
+            mCrcs = new long[crcCount];
+            mCrcEntries = new int[crcCount];
+            for( int i = 0; i < crcCount; i++ )
+            {
+                mCrcs[i] = in.readLong();
+                mCrcEntries[i] = in.readInt();
+            }
+            return true;
+        }
+        catch( IOException e )
+        {
+            Log.w( "RomDatabase", "Unable to read index of " + databaseFile + ": " + e );
+            return false;
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+    }
+
+    private void saveIndex( File databaseFile )
+    {
+        final File indexFile = getIndexFile( databaseFile );
+        final File tempFile = new File( indexFile.getPath() + ".tmp" );
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+            out.writeInt( INDEX_MAGIC );
+            out.writeInt( INDEX_VERSION );
+            out.writeLong( databaseFile.length() );
+            out.writeLong( databaseFile.lastModified() );
+
+            out.writeInt( mMd5High.length );
+            for( int i = 0; i < mMd5High.length; i++ )
+            {
+                out.writeLong( mMd5High[i] );
+                out.writeLong( mMd5Low[i] );
+                out.writeInt( mOffsets[i] );
+                out.writeInt( mLengths[i] );
+            }
+
+            out.writeInt( mCrcs.length );
+            for( int i = 0; i < mCrcs.length; i++ )
+            {
+                out.writeLong( mCrcs[i] );
+                out.writeInt( mCrcEntries[i] );
+            }
+            out.flush();
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomDatabase", "IOException writing file " + tempFile + ", error message: " + e.getMessage() );
+            return;
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        if( !tempFile.renameTo( indexFile ) )
+            Log.e( "RomDatabase", "Unable to rename " + tempFile + " to " + indexFile );
+    }
+
+    private static File getIndexFile( File databaseFile )
+    {
+        return new File( databaseFile.getPath() + ".idx" );
+    }
+
+    private static boolean isComment( String line )
+    {
+        return line.length() < 1 || line.startsWith( "#" ) || line.startsWith( ";" ) || line.startsWith( "//" );
+    }
+
+    /**
+     * @return The MD5 as two longs, or null if this is not an MD5
+     */
+    private static long[] parseMd5( String md5 )
+    {
+        if( md5.length() != 32 )
+            return null;
+
+        try
+        {
+            return new long[] {
+                    ( Long.parseLong( md5.substring( 0, 8 ), 16 ) << 32 ) | Long.parseLong( md5.substring( 8, 16 ), 16 ),
+                    ( Long.parseLong( md5.substring( 16, 24 ), 16 ) << 32 ) | Long.parseLong( md5.substring( 24 ), 16 ) };
+        }
+        catch( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @param crc CRC in the "XXXXXXXX XXXXXXXX" format used by the database and the ROM header
+     * @return Both CRC values in a single long, or -1 if the CRC can't be parsed
+     */
+    private static long parseCrc( String crc )
+    {
+        if( crc == null || crc.length() != 17 || crc.charAt( 8 ) != ' ' )
+            return -1;
+
+        try
+        {
+            return ( Long.parseLong( crc.substring( 0, 8 ), 16 ) << 32 ) | Long.parseLong( crc.substring( 9 ), 16 );
+        }
+        catch( NumberFormatException e )
+        {
+            return -1;
+        }
+    }
+
+    private static int compareMd5( long lhsHigh, long lhsLow, long rhsHigh, long rhsLow )
+    {
+        if( lhsHigh != rhsHigh )
+            return lhsHigh < rhsHigh ? -1 : 1;
+        if( lhsLow != rhsLow )
+            return lhsLow < rhsLow ? -1 : 1;
+        return 0;
     }
     
     public class RomDetail
@@ -223,10 +680,10 @@ public class RomDatabase
         public final int players;
         public final boolean rumble;
         
-        private RomDetail( ConfigSection section )
+        private RomDetail( String sectionMd5, HashMap<String, String> section )
         {
             crc = section.get( "CRC" );
-            md5 = section.name;
+            md5 = sectionMd5;
             
             // Use an empty goodname (not null) for certain homebrew ROMs
             if( "00000000 00000000".equals( crc ) )
@@ -264,7 +721,10 @@ public class RomDatabase
             // just references another entry.
             String refMd5 = section.get( "RefMD5" );
             if( !TextUtils.isEmpty( refMd5 ) )
-                section = mConfigFile.get( refMd5 );
+            {
+                int refEntry = findEntry( refMd5 );
+                section = refEntry < 0 ? null : readSection( refEntry );
+            }
             
             if( section != null )
             {
@@ -0,0 +1,377 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+
+package paulscode.android.mupen64plusae.util;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of every file seen while scanning for ROMs. Files are keyed by absolute path
+ * and are only trusted while their size and modification time are unchanged, so a rescan only
+ * needs to read and hash files that are new or modified. Archive entries are also keyed by their
+ * stored CRC32 and size so that unchanged entries of a modified archive don't need to be hashed
+ * again. Archive entries that turned out not to be ROMs are kept as well, without an MD5, so that
+ * they aren't decompressed again either.
+ * <p>
+ * The index may be read and updated from multiple threads at the same time.
+ */
+public final class RomFingerprintIndex
+{
+    /** File that doesn't contain any ROMs */
+    public static final int TYPE_OTHER = 0;
+
+    /** Plain ROM file */
+    public static final int TYPE_ROM = 1;
+
+    /** Zip or 7zip archive */
+    public static final int TYPE_ARCHIVE = 2;
+
+    /** Value used for entries that have no stored CRC32 */
+    public static final long NO_CRC = -1;
+
+    private static final int MAGIC = 0x4D363446; // "M64F"
+    private static final int VERSION = 1;
+
+    /** Name of the index file */
+    private final String mFilename;
+
+    /** Records mapped by absolute path */
+    private final Map<String, Record> mRecords = new ConcurrentHashMap<>();
+
+    /**
+     * A single ROM found in a file, either the file itself or an entry of an archive
+     */
+    public static final class Entry
+    {
+        /** Name of the archive entry, empty for plain ROM files */
+        public final String name;
+        public final long crc;
+        public final long size;
+        public final String md5;
+
+        /** Raw ROM header bytes, used to rebuild the {@link RomHeader} */
+        private final byte[] mHeader;
+
+        public Entry( String name, long crc, long size, String md5, byte[] header )
+        {
+            this.name = name == null ? "" : name;
+            this.crc = crc;
+            this.size = size;
+            this.md5 = md5;
+            mHeader = header == null ? new byte[0] : header.clone();
+        }
+
+        /**
+         * Creates the entry of an archive entry that is not a ROM
+         * @param name Name of the archive entry
+         * @param crc Stored CRC32 of the entry, or {@link #NO_CRC}
+         * @param size Uncompressed size of the entry
+         * @return The new entry
+         */
+        public static Entry notRom( String name, long crc, long size )
+        {
+            return new Entry( name, crc, size, "", null );
+        }
+
+        /**
+         * @return True if this entry is a ROM, false if it is an archive entry that was skipped
+         */
+        public boolean isRom()
+        {
+            return md5.length() > 0;
+        }
+
+        /**
+         * @return A newly parsed ROM header for this entry
+         */
+        public RomHeader getHeader()
+        {
+            // The RomHeader constructor swaps the buffer in place, so hand it a copy
+            return new RomHeader( mHeader.clone() );
+        }
+    }
+
+    /**
+     * Everything known about a single file on disk
+     */
+    public static final class Record
+    {
+        public final int type;
+        public final long size;
+        public final long lastModified;
+        public final List<Entry> entries;
+
+        public Record( int type, long size, long lastModified, List<Entry> entries )
+        {
+            this.type = type;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.entries = Collections.unmodifiableList( new ArrayList<>( entries ) );
+        }
+
+        /**
+         * @param file File to compare against
+         * @return True if this record still describes the given file
+         */
+        public boolean matches( File file )
+        {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+
+        /**
+         * Find an archive entry that is known to be unchanged
+         * @param name Name of the entry
+         * @param crc Stored CRC32 of the entry, or {@link #NO_CRC}
+         * @param size Uncompressed size of the entry
+         * @return The matching entry, or null if the entry is new or has changed
+         */
+        public Entry findEntry( String name, long crc, long size )
+        {
+            if( crc == NO_CRC )
+                return null;
+
+            for( Entry entry : entries )
+            {
+                if( entry.crc == crc && entry.size == size && entry.name.equals( name ) )
+                    return entry;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the index from disk, a missing or unreadable file results in an empty index.
+     *
+     * @param filename The index file to read from.
+     */
+    public RomFingerprintIndex( String filename )
+    {
+        mFilename = filename;
+        reload();
+    }
+
+    /**
+     * @param file File to look up
+     * @return The record of the given file, even if the file has changed since, or null if the
+     * file has never been seen
+     */
+    public Record get( File file )
+    {
+        return mRecords.get( file.getAbsolutePath() );
+    }
+
+    /**
+     * Store what is known about a file, replacing any previous record
+     * @param file File that was scanned
+     * @param type One of {@link #TYPE_OTHER}, {@link #TYPE_ROM} or {@link #TYPE_ARCHIVE}
+     * @param size Size of the file at the time it was scanned
+     * @param lastModified Modification time of the file at the time it was scanned
+     * @param entries ROMs found in the file
+     */
+    public void put( File file, int type, long size, long lastModified, List<Entry> entries )
+    {
+        mRecords.put( file.getAbsolutePath(), new Record( type, size, lastModified, entries ) );
+    }
+
+    /**
+     * Erases all records.
+     */
+    public void clear()
+    {
+        mRecords.clear();
+    }
+
+    /**
+     * Re-loads the index from disk, overwriting any unsaved changes.
+     *
+     * @return True if successful.
+     */
+    public boolean reload()
+    {
+        if( TextUtils.isEmpty( mFilename ) )
+            return false;
+
+        clear();
+
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( mFilename ) ) );
+        }
+        catch( FileNotFoundException e )
+        {
+            // Nothing has been indexed yet
+            return false;
+        }
+
+        boolean success = false;
+        try
+        {
+            if( in.readInt() == MAGIC && in.readInt() == VERSION )
+            {
+                int recordCount = in.readInt();
+                for( int i = 0; i < recordCount; ++i )
+                {
+                    String path = in.readUTF();
+                    int type = in.readByte();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+
+                    int entryCount = in.readInt();
+                    List<Entry> entries = new ArrayList<>( entryCount );
+                    for( int j = 0; j < entryCount; ++j )
+                    {
+                        String name = in.readUTF();
+                        long crc = in.readLong();
+                        long entrySize = in.readLong();
+                        String md5 = in.readUTF();
+                        byte[] header = new byte[in.readUnsignedShort()];
+                        in.readFully( header );
+                        entries.add( new Entry( name, crc, entrySize, md5, header ) );
+                    }
+
+                    mRecords.put( path, new Record( type, size, lastModified, entries ) );
+                }
+                success = true;
+            }
+        }
+        catch( IOException e )
+        {
+            // A partial index is no use, everything will simply be scanned again
+            Log.w( "RomFingerprintIndex", "Unable to read " + mFilename + ": " + e );
+            clear();
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch( IOException ignored )
+            {
+            }
+        }
+
+        return success;
+    }
+
+    /**
+     * Saves the index to disk, dropping records of files that no longer exist. The index is
+     * written to a temporary file first so that a crash can't leave a truncated index behind.
+     *
+     * @return True if successful.
+     */
+    public boolean save()
+    {
+        if( TextUtils.isEmpty( mFilename ) )
+        {
+            Log.e( "RomFingerprintIndex", "Filename not specified in method save()" );
+            return false;
+        }
+
+        Iterator<Map.Entry<String, Record>> iter = mRecords.entrySet().iterator();
+        while( iter.hasNext() )
+        {
+            if( !new File( iter.next().getKey() ).exists() )
+                iter.remove();
+        }
+
+        File indexFile = new File( mFilename );
+        File tempFile = new File( mFilename + ".tmp" );
+        FileUtil.makeDirs( indexFile.getParentFile().getPath() );
+
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tempFile ) ) );
+
+            // Take a snapshot since other threads may still be adding records
+            List<Map.Entry<String, Record>> records = new ArrayList<>( mRecords.entrySet() );
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( records.size() );
+            for( Map.Entry<String, Record> pair : records )
+            {
+                Record record = pair.getValue();
+                out.writeUTF( pair.getKey() );
+                out.writeByte( record.type );
+                out.writeLong( record.size );
+                out.writeLong( record.lastModified );
+                out.writeInt( record.entries.size() );
+                for( Entry entry : record.entries )
+                {
+                    out.writeUTF( entry.name );
+                    out.writeLong( entry.crc );
+                    out.writeLong( entry.size );
+                    out.writeUTF( entry.md5 );
+                    out.writeShort( entry.mHeader.length );
+                    out.write( entry.mHeader );
+                }
+            }
+            out.flush();
+        }
+        catch( IOException e )
+        {
+            Log.e( "RomFingerprintIndex", "IOException writing file " + tempFile + ", error message: "
+                    + e.getMessage() );
+            return false;
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+
+        if( !tempFile.renameTo( indexFile ) )
+        {
+            Log.e( "RomFingerprintIndex", "Unable to rename " + tempFile + " to " + indexFile );
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -197,29 +197,7 @@ public final class RomHeader
     
     private static void swapBytes( byte[] buffer )
     {
-        if( buffer[0] == 0x37 )
-        {
-            // Byteswap if .v64 image
-            for( int i = 0; i < buffer.length; i += 2 )
-            {
-                byte temp = buffer[i];
-                buffer[i] = buffer[i + 1];
-                buffer[i + 1] = temp;
-            }
-        }
-        else if( buffer[0] == 0x40 )
-        {
-            // Wordswap if .n64 image
-            for( int i = 0; i < buffer.length; i += 4 )
-            {
-                byte temp = buffer[i];
-                buffer[i] = buffer[i + 3];
-                buffer[i + 3] = temp;
-                temp = buffer[i + 1];
-                buffer[i + 1] = buffer[i + 2];
-                buffer[i + 2] = temp;
-            }
-        }
+        RomByteOrder.toBigEndian( buffer, buffer.length, buffer[0] );
     }
     
     private static int readInt( byte[] buffer, int start )
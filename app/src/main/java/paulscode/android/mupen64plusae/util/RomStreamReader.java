@@ -0,0 +1,228 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+
+package paulscode.android.mupen64plusae.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a ROM image, from a file or an archive entry, in a single pass. The header is parsed from
+ * the first chunk, then every chunk is put in big endian (.z64) order once and fed to all the
+ * requested digests.
+ * <p>
+ * The read buffer is reused between calls, so an instance must only be used by one thread at a
+ * time.
+ */
+public final class RomStreamReader
+{
+    /** Size of the ROM header */
+    public static final int HEADER_SIZE = 0x40;
+
+    /** Size of each read, a multiple of 4 so that swapping never straddles two reads */
+    private static final int BUFFER_SIZE = 0x10000;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final boolean mComputeCrc32;
+    private final boolean mComputeSha1;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate( BUFFER_SIZE );
+    private final CRC32 mCrc32 = new CRC32();
+    private MessageDigest mMd5;
+    private MessageDigest mSha1;
+
+    /**
+     * Everything learned about a ROM image while reading it
+     */
+    public static final class Result
+    {
+        /** Parsed ROM header, check {@link RomHeader#isValid} before using anything else */
+        public final RomHeader header;
+
+        /** First bytes of the image as they were read, no byte swapping is done */
+        public final byte[] rawHeader;
+
+        /** MD5 of the image, or null if this is not a valid ROM */
+        public final String md5;
+
+        /** SHA-1 of the image, or null if it wasn't requested or this is not a valid ROM */
+        public final String sha1;
+
+        /** CRC32 of the image, or -1 if it wasn't requested or this is not a valid ROM */
+        public final long crc32;
+
+        /** Number of bytes that were hashed */
+        public final long size;
+
+        Result( RomHeader header, byte[] rawHeader, String md5, String sha1, long crc32, long size )
+        {
+            this.header = header;
+            this.rawHeader = rawHeader;
+            this.md5 = md5;
+            this.sha1 = sha1;
+            this.crc32 = crc32;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param computeCrc32 True to also compute the CRC32 of the image
+     * @param computeSha1 True to also compute the SHA-1 of the image
+     */
+    public RomStreamReader( boolean computeCrc32, boolean computeSha1 )
+    {
+        mComputeCrc32 = computeCrc32;
+        mComputeSha1 = computeSha1;
+    }
+
+    /**
+     * Read a ROM file.
+     *
+     * @param file The file to read
+     * @return What was read, never null
+     * @throws IOException If the file could not be read
+     */
+    public Result read( File file ) throws IOException
+    {
+        // Reads are always large, so no extra buffering is needed
+        InputStream inputStream = new FileInputStream( file );
+        try
+        {
+            return read( inputStream );
+        }
+        finally
+        {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Read a ROM image from a stream. Only the header is consumed if this is not a valid ROM.
+     *
+     * @param inputStream The stream to read, it is not closed
+     * @return What was read, never null
+     * @throws IOException If the stream could not be read
+     */
+    public Result read( InputStream inputStream ) throws IOException
+    {
+        // Read only the header until it is known to be a ROM, so that nothing more is decompressed
+        // for archive entries that aren't
+        final byte[] bytes = mBuffer.array();
+        int byteCount = fill( inputStream, bytes, 0, HEADER_SIZE );
+
+        final byte[] rawHeader = Arrays.copyOf( bytes, Math.min( byteCount, HEADER_SIZE ) );
+
+        // The RomHeader constructor swaps the buffer in place, so hand it a copy
+        final RomHeader header = new RomHeader( rawHeader.clone() );
+        if( !header.isValid )
+            return new Result( header, rawHeader, null, null, -1, 0 );
+
+        if( byteCount == HEADER_SIZE )
+            byteCount += fill( inputStream, bytes, HEADER_SIZE, bytes.length - HEADER_SIZE );
+
+        final MessageDigest md5 = getMd5();
+        final MessageDigest sha1 = mComputeSha1 ? getSha1() : null;
+        mCrc32.reset();
+
+        final int firstByte = rawHeader[0];
+        long size = 0;
+        while( byteCount > 0 )
+        {
+            RomByteOrder.toBigEndian( mBuffer, byteCount, firstByte );
+
+            md5.update( bytes, 0, byteCount );
+            if( sha1 != null )
+                sha1.update( bytes, 0, byteCount );
+            if( mComputeCrc32 )
+                mCrc32.update( bytes, 0, byteCount );
+
+            size += byteCount;
+            byteCount = fill( inputStream, bytes, 0, bytes.length );
+        }
+
+        return new Result( header, rawHeader, convertHashToString( md5.digest() ),
+                sha1 == null ? null : convertHashToString( sha1.digest() ),
+                mComputeCrc32 ? mCrc32.getValue() : -1, size );
+    }
+
+    /**
+     * Read until the given length is read or the stream ends, so that every chunk but the last is
+     * a multiple of 4 bytes.
+     */
+    private static int fill( InputStream inputStream, byte[] bytes, int offset, int length ) throws IOException
+    {
+        int total = 0;
+        int byteCount;
+        while( total < length && ( byteCount = inputStream.read( bytes, offset + total, length - total ) ) != -1 )
+        {
+            total += byteCount;
+        }
+        return total;
+    }
+
+    private MessageDigest getMd5() throws IOException
+    {
+        if( mMd5 == null )
+            mMd5 = getDigest( "MD5" );
+        mMd5.reset();
+        return mMd5;
+    }
+
+    private MessageDigest getSha1() throws IOException
+    {
+        if( mSha1 == null )
+            mSha1 = getDigest( "SHA-1" );
+        mSha1.reset();
+        return mSha1;
+    }
+
+    private static MessageDigest getDigest( String algorithm ) throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( algorithm );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IOException( algorithm + " is not available", e );
+        }
+    }
+
+    private static String convertHashToString( byte[] hashBytes )
+    {
+        char[] hexChars = new char[hashBytes.length * 2];
+        for( int i = 0; i < hashBytes.length; ++i )
+        {
+            hexChars[i * 2] = HEX_DIGITS[( hashBytes[i] >> 4 ) & 0x0F];
+            hexChars[i * 2 + 1] = HEX_DIGITS[hashBytes[i] & 0x0F];
+        }
+        return new String( hexChars );
+    }
+}
@@ -23,14 +23,9 @@ package paulscode.android.mupen64plusae.util;
 import java.io.File;
 import java.io.IOException;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
-import android.text.TextUtils;
 import android.util.Log;
 
 import org.apache.commons.compress.archivers.sevenz.SevenZArchiveEntry;
@@ -38,7 +33,10 @@ import org.apache.commons.compress.archivers.sevenz.SevenZFile;
 
 /**
  * Utility class that encapsulates meta-info about a hi-res texture file.
- *
+ * <p>
+ * Texture names follow the Rice naming scheme used by GLideN64, for example
+ * "SUPER MARIO 64#4E3ACC5D#0#2#B0FA8A72_ciByRGBA.png". An instance is reused to parse one name
+ * after another without allocating anything.
  */
 @SuppressWarnings("unused")
 public class TextureInfo
@@ -56,54 +54,231 @@ public class TextureInfo
     private static final int TEXTURE_FORMAT_IA = 3;
     private static final int TEXTURE_FORMAT_I = 4;
     
-    private static final int IMAGE_FORMAT_INVALID = -1;
-    private static final int IMAGE_FORMAT_COLOR_INDEXED_BMP = 0;
-    private static final int IMAGE_FORMAT_RGBA_PNG_FOR_CI = 1;
-    private static final int IMAGE_FORMAT_RGBA_PNG_FOR_ALL_CI = 2;
-    private static final int IMAGE_FORMAT_RGB_PNG = 3;
-    private static final int IMAGE_FORMAT_RGB_WITH_ALPHA_TOGETHER_PNG = 4;
-    
-    private final String romName;
-    private final int imageFormat;
-    
-    private static final Pattern sPattern = Pattern
-            .compile( "([^/]+)#([0-9a-fA-F]+)#([0-3])#([0-4])#?([^_]*)_"
-                    + "(ci\\.bmp|ciByRGBA\\.png|allciByRGBA\\.png|rgb\\.png|all\\.png)" );
+    public static final int IMAGE_FORMAT_INVALID = -1;
+    public static final int IMAGE_FORMAT_COLOR_INDEXED_BMP = 0;
+    public static final int IMAGE_FORMAT_RGBA_PNG_FOR_CI = 1;
+    public static final int IMAGE_FORMAT_RGBA_PNG_FOR_ALL_CI = 2;
+    public static final int IMAGE_FORMAT_RGB_PNG = 3;
+    public static final int IMAGE_FORMAT_RGB_WITH_ALPHA_TOGETHER_PNG = 4;
+    public static final int IMAGE_FORMAT_COUNT = 5;
+
+    /** File name endings of each image format, indexed by image format */
+    private static final String[] IMAGE_SUFFIXES = { "_ci.bmp", "_ciByRGBA.png", "_allciByRGBA.png", "_rgb.png",
+            "_all.png" };
+
+    /** Number of textures a ROM header needs before it names the pack */
+    private static final int PACK_NAME_THRESHOLD = 10;
+
+    private String mPath = null;
+    private int mRomNameStart = 0;
+    private int mRomNameEnd = 0;
+    private int mImageFormat = IMAGE_FORMAT_INVALID;
+
+    /**
+     * Parses the name of a texture file, replacing whatever was parsed before.
+     *
+     * @param pathToImageFile Path of the texture file, only the last path segment is parsed
+     * @return True if this is a texture file
+     */
+    public boolean parse( String pathToImageFile )
+    {
+        mPath = pathToImageFile;
+        mImageFormat = IMAGE_FORMAT_INVALID;
+
+        final int length = pathToImageFile.length();
+        int format = IMAGE_FORMAT_INVALID;
+        for( int i = 0; i < IMAGE_SUFFIXES.length; i++ )
+        {
+            if( pathToImageFile.endsWith( IMAGE_SUFFIXES[i] ) )
+            {
+                format = i;
+                break;
+            }
+        }
+        if( format == IMAGE_FORMAT_INVALID )
+            return false;
+
+        final int nameStart = pathToImageFile.lastIndexOf( '/' ) + 1;
+        final int underscore = length - IMAGE_SUFFIXES[format].length();
+
+        // The ROM header may itself contain '#', so use the last '#' that starts valid fields
+        for( int i = underscore - 1; i > nameStart; i-- )
+        {
+            if( pathToImageFile.charAt( i ) == '#' && isFields( pathToImageFile, i, underscore ) )
+            {
+                mRomNameStart = nameStart;
+                mRomNameEnd = i;
+                mImageFormat = format;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks for "#crc#pixelFormat#textureFormat", optionally followed by the palette CRC, between
+     * the given indices.
+     */
+    private static boolean isFields( String path, int start, int end )
+    {
+        int i = start + 1;
+        final int crcStart = i;
+        while( i < end && Character.digit( path.charAt( i ), 16 ) >= 0 )
+            i++;
+        if( i == crcStart || i + 4 > end )
+            return false;
+
+        if( path.charAt( i ) != '#' || path.charAt( i + 1 ) < '0' || path.charAt( i + 1 ) > '3'
+                || path.charAt( i + 2 ) != '#' || path.charAt( i + 3 ) < '0' || path.charAt( i + 3 ) > '4' )
+            return false;
+
+        // The texture format must be followed by the palette CRC, if any, and the image suffix
+        for( i += 4; i < end; i++ )
+        {
+            if( path.charAt( i ) == '_' )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The image format of the last parsed texture, one of the IMAGE_FORMAT constants
+     */
+    public int getImageFormat()
+    {
+        return mImageFormat;
+    }
+
+    /**
+     * @return The ROM header of the last parsed texture, or an empty string if it wasn't a texture
+     */
+    public String getRomName()
+    {
+        return mImageFormat == IMAGE_FORMAT_INVALID ? "" : mPath.substring( mRomNameStart, mRomNameEnd );
+    }
 
-    private TextureInfo( String pathToImageFile )
+    /**
+     * Counts the textures of a pack by ROM header and by image format, in constant time per entry.
+     * ROM headers are only copied the first time they are seen.
+     */
+    public static final class Classifier
     {
-        Matcher m = sPattern.matcher( pathToImageFile );
-        if( m.find() )
-        {
-            romName = m.group( 1 );
-            String romCrc = m.group( 2 );
-            String paletteCrc = TextUtils.isEmpty( m.group( 5 ) ) ? "FFFFFFFF" : m.group( 5 );
-            int pixelFormat = SafeMethods.toInt( m.group( 3 ), PIXEL_FORMAT_INVALID );
-            int textureFormat = SafeMethods.toInt( m.group( 4 ), TEXTURE_FORMAT_INVALID );
-            String suffix = m.group( 6 );
-            
-            if( "ci.bmp".equals( suffix ) )
-                imageFormat = IMAGE_FORMAT_COLOR_INDEXED_BMP;
-            
-            else if( "ciByRBGA.png".equals( suffix ) )
-                imageFormat = IMAGE_FORMAT_RGBA_PNG_FOR_CI;
-            
-            else if( "allciByRGBA.png".equals( suffix ) )
-                imageFormat = IMAGE_FORMAT_RGBA_PNG_FOR_ALL_CI;
-            
-            else if( "rgb.png".equals( suffix ) )
-                imageFormat = IMAGE_FORMAT_RGB_PNG;
-            
-            else if( "all.png".equals( suffix ) )
-                imageFormat = IMAGE_FORMAT_RGB_WITH_ALPHA_TOGETHER_PNG;
-            
-            else
-                imageFormat = IMAGE_FORMAT_INVALID;
-        }
-        else
-        {
-            romName = "";
-            imageFormat = IMAGE_FORMAT_INVALID;
+        private final TextureInfo mInfo = new TextureInfo();
+        private final int[] mFormatCounts = new int[IMAGE_FORMAT_COUNT];
+        private int mTextureCount = 0;
+        private String mPackName = null;
+
+        /** Open addressing table of ROM headers, most packs hold a single one */
+        private String[] mRomNames = new String[8];
+        private int[] mRomNameHashes = new int[8];
+        private int[] mRomNameCounts = new int[8];
+        private int mRomNameCount = 0;
+
+        /**
+         * Counts an archive entry.
+         *
+         * @param entryName Name of the archive entry
+         * @return True if the pack name is known, which is once a ROM header shows
+         * ten times
+         */
+        public boolean add( String entryName )
+        {
+            if( mInfo.parse( entryName ) )
+            {
+                mTextureCount++;
+                mFormatCounts[mInfo.mImageFormat]++;
+
+                final int count = countRomName( mInfo.mPath, mInfo.mRomNameStart, mInfo.mRomNameEnd );
+                if( mPackName == null && count == PACK_NAME_THRESHOLD )
+                    mPackName = mInfo.getRomName();
+            }
+            return mPackName != null;
+        }
+
+        /**
+         * @return The name of the pack, or null if no ROM header has shown enough times yet
+         */
+        public String getPackName()
+        {
+            return mPackName;
+        }
+
+        /**
+         * @return Number of textures counted so far
+         */
+        public int getTextureCount()
+        {
+            return mTextureCount;
+        }
+
+        /**
+         * @param imageFormat One of the IMAGE_FORMAT constants, other than {@link TextureInfo#IMAGE_FORMAT_INVALID}
+         * @return Number of textures of that format counted so far
+         */
+        public int getFormatCount( int imageFormat )
+        {
+            return mFormatCounts[imageFormat];
+        }
+
+        /**
+         * @return The counts of each image format, indexed by image format
+         */
+        public int[] getFormatCounts()
+        {
+            return mFormatCounts.clone();
+        }
+
+        private int countRomName( String path, int start, int end )
+        {
+            int hash = 0;
+            for( int i = start; i < end; i++ )
+                hash = 31 * hash + path.charAt( i );
+
+            final int mask = mRomNames.length - 1;
+            int slot = hash & mask;
+            while( mRomNames[slot] != null )
+            {
+                final String name = mRomNames[slot];
+                if( mRomNameHashes[slot] == hash && name.length() == end - start
+                        && path.regionMatches( start, name, 0, name.length() ) )
+                {
+                    return ++mRomNameCounts[slot];
+                }
+                slot = ( slot + 1 ) & mask;
+            }
+
+            mRomNames[slot] = path.substring( start, end );
+            mRomNameHashes[slot] = hash;
+            mRomNameCounts[slot] = 1;
+
+            // Keep the table at most half full
+            if( ++mRomNameCount * 2 > mRomNames.length )
+                grow();
+            return 1;
+        }
+
+        private void grow()
+        {
+            final String[] names = mRomNames;
+            final int[] hashes = mRomNameHashes;
+            final int[] counts = mRomNameCounts;
+            mRomNames = new String[names.length * 2];
+            mRomNameHashes = new int[names.length * 2];
+            mRomNameCounts = new int[names.length * 2];
+
+            final int mask = mRomNames.length - 1;
+            for( int i = 0; i < names.length; i++ )
+            {
+                if( names[i] == null )
+                    continue;
+
+                int slot = hashes[i] & mask;
+                while( mRomNames[slot] != null )
+                    slot = ( slot + 1 ) & mask;
+                mRomNames[slot] = names[i];
+                mRomNameHashes[slot] = hashes[i];
+                mRomNameCounts[slot] = counts[i];
+            }
         }
     }
 
@@ -118,7 +293,7 @@ public class TextureInfo
         File archive = new File( filename );
         
         ZipFile zipfile = null;
-        Map<String, Integer> romHeaderCount = new HashMap<>();
+        Classifier classifier = new Classifier();
 
         try
         {
@@ -129,21 +304,8 @@ public class TextureInfo
                 ZipEntry entry = e.nextElement();
                 if( entry != null && !entry.isDirectory() )
                 {
-                    TextureInfo info = new TextureInfo( entry.getName() );
-
-                    if( info.imageFormat != IMAGE_FORMAT_INVALID ) {
-                        if (romHeaderCount.containsKey(info.romName)) {
-                            romHeaderCount.put(info.romName, romHeaderCount.get(info.romName)+1);
-                        } else {
-                            romHeaderCount.put(info.romName, 1);
-                        }
-
-                        //Find the first ROM header that shows 10 times
-                        for (Map.Entry<String, Integer> mapEntry : romHeaderCount.entrySet()) {
-                            if (mapEntry.getValue() == 10) {
-                                return mapEntry.getKey();
-                            }
-                        }
+                    if( classifier.add( entry.getName() ) ) {
+                        return classifier.getPackName();
                     }
                 }
             }
@@ -177,7 +339,7 @@ public class TextureInfo
     public static String getTexturePackNameFromSevenZ(String filename )
     {
         SevenZFile zipfile = null;
-        Map<String, Integer> romHeaderCount = new HashMap<>();
+        Classifier classifier = new Classifier();
         try
         {
             zipfile = new SevenZFile(new File(filename));
@@ -187,20 +349,8 @@ public class TextureInfo
             {
                 if( !zipEntry.isDirectory() )
                 {
-                    TextureInfo info = new TextureInfo( zipEntry.getName() );
-                    if( info.imageFormat != IMAGE_FORMAT_INVALID ) {
-                        if (romHeaderCount.containsKey(info.romName)) {
-                            romHeaderCount.put(info.romName, romHeaderCount.get(info.romName)+1);
-                        } else {
-                            romHeaderCount.put(info.romName, 1);
-                        }
-
-                        //Find the first ROM header that shows 10 times
-                        for (Map.Entry<String, Integer> entry : romHeaderCount.entrySet()) {
-                            if (entry.getValue() == 10) {
-                                return entry.getKey();
-                            }
-                        }
+                    if( classifier.add( zipEntry.getName() ) ) {
+                        return classifier.getPackName();
                     }
                 }
             }
@@ -0,0 +1,304 @@
+/*
+ * Mupen64PlusAE, an N64 emulator for the Android platform
+ *
+ * Copyright (C) 2013 Paul Lamb
+ *
+ * This file is part of Mupen64PlusAE.
+ *
+ * Mupen64PlusAE is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Mupen64PlusAE is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with Mupen64PlusAE. If
+ * not, see <http://www.gnu.org/licenses/>.
+ *
+ * Authors:
+ */
+
+package paulscode.android.mupen64plusae.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cover art thumbnails for the gallery, in two tiers. Recently shown thumbnails are kept in memory
+ * in a LRU cache sized from the available heap. Below that, every cover art is scaled down once
+ * to the gallery width and kept on disk, so that it never has to be decoded at full size again.
+ * <p>
+ * Loads run on a small shared executor that starts the most recently requested thumbnail first,
+ * which is the one the user is looking at while flinging through the gallery.
+ */
+public final class ThumbnailCache
+{
+    /** Executor used to load thumbnails that are not in memory */
+    public static final Executor EXECUTOR = new ThreadPoolExecutor( getThreadCount(), getThreadCount(),
+            30, TimeUnit.SECONDS, new LifoBlockingDeque(), new LoaderThreadFactory() );
+
+    private static ThumbnailCache sInstance = null;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final String mDiskCacheDir;
+    private int mWidth = 0;
+    private File mSizedDir = null;
+
+    /**
+     * Gets the thumbnail cache, which lives as long as the process so that the memory tier
+     * survives the gallery being recreated.
+     *
+     * @param diskCacheDir Directory holding the thumbnails on disk
+     * @return The thumbnail cache
+     */
+    public static synchronized ThumbnailCache getInstance( String diskCacheDir )
+    {
+        if( sInstance == null || !sInstance.mDiskCacheDir.equals( diskCacheDir ) )
+            sInstance = new ThumbnailCache( diskCacheDir );
+        return sInstance;
+    }
+
+    private ThumbnailCache( String diskCacheDir )
+    {
+        mDiskCacheDir = diskCacheDir;
+
+        // Use an eighth of the heap, the rest is needed far more by the emulator
+        final int maxBytes = (int) Math.min( Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE );
+        mMemoryCache = new LruCache<String, Bitmap>( maxBytes )
+        {
+            @Override
+            protected int sizeOf( String key, Bitmap bitmap )
+            {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Sets the width of the thumbnails, thumbnails of any other width are dropped.
+     *
+     * @param width Width of the thumbnails in pixels
+     */
+    public synchronized void setWidth( int width )
+    {
+        if( width <= 0 || width == mWidth )
+            return;
+
+        mWidth = width;
+        mSizedDir = new File( mDiskCacheDir, String.valueOf( width ) );
+        mMemoryCache.evictAll();
+
+        // Thumbnails for the previous cover art scale are no longer of any use
+        final String keep = mSizedDir.getName();
+        EXECUTOR.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final File[] children = new File( mDiskCacheDir ).listFiles();
+                if( children == null )
+                    return;
+
+                for( final File child : children )
+                {
+                    if( !child.getName().equals( keep ) )
+                        FileUtil.deleteFolder( child );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Drops the thumbnails held in memory, the ones on disk are checked against the cover art
+     * when they are next loaded.
+     */
+    public void evictMemory()
+    {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Gets a thumbnail without any I/O, this is safe to call from the UI thread.
+     *
+     * @param artPath Path to the full size cover art
+     * @return The thumbnail, or null if it isn't in memory
+     */
+    public Bitmap getFromMemory( String artPath )
+    {
+        if( TextUtils.isEmpty( artPath ) )
+            return null;
+
+        return mMemoryCache.get( artPath );
+    }
+
+    /**
+     * Gets a thumbnail, from disk if possible or else by scaling down the cover art. This must
+     * not be called from the UI thread.
+     *
+     * @param artPath Path to the full size cover art
+     * @return The thumbnail, or null if the cover art is missing or could not be decoded
+     */
+    public Bitmap load( String artPath )
+    {
+        if( TextUtils.isEmpty( artPath ) )
+            return null;
+
+        Bitmap bitmap = mMemoryCache.get( artPath );
+        if( bitmap != null )
+            return bitmap;
+
+        final File artFile = new File( artPath );
+        final long artModified = artFile.lastModified();
+        if( artModified == 0 )
+            return null;
+
+        final int width;
+        final File sizedDir;
+        synchronized( this )
+        {
+            width = mWidth;
+            sizedDir = mSizedDir;
+        }
+
+        if( sizedDir == null )
+        {
+            // Width is not known yet, nothing to scale to
+            bitmap = BitmapFactory.decodeFile( artPath );
+        }
+        else
+        {
+            final File thumbnailFile = new File( sizedDir, artFile.getName() );
+            if( thumbnailFile.lastModified() >= artModified )
+                bitmap = BitmapFactory.decodeFile( thumbnailFile.getPath() );
+
+            if( bitmap == null )
+            {
+                bitmap = decodeScaled( artPath, width );
+                if( bitmap != null )
+                    writeThumbnail( thumbnailFile, bitmap );
+            }
+        }
+
+        if( bitmap != null )
+            mMemoryCache.put( artPath, bitmap );
+
+        return bitmap;
+    }
+
+    /**
+     * Decodes an image scaled down to a given width, keeping its aspect ratio.
+     */
+    private static Bitmap decodeScaled( String path, int width )
+    {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile( path, options );
+        if( options.outWidth <= 0 || options.outHeight <= 0 )
+            return null;
+
+        // Subsample while decoding as far as possible, then scale the rest of the way
+        int sampleSize = 1;
+        while( options.outWidth / ( sampleSize * 2 ) >= width )
+            sampleSize *= 2;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        final Bitmap decoded = BitmapFactory.decodeFile( path, options );
+        if( decoded == null || decoded.getWidth() <= width )
+            return decoded;
+
+        final int height = Math.max( 1, Math.round( (float) decoded.getHeight() * width / decoded.getWidth() ) );
+        final Bitmap scaled = Bitmap.createScaledBitmap( decoded, width, height, true );
+        if( scaled != decoded )
+            decoded.recycle();
+        return scaled;
+    }
+
+    private static void writeThumbnail( File thumbnailFile, Bitmap bitmap )
+    {
+        FileUtil.makeDirs( thumbnailFile.getParent() );
+
+        // Write to a temporary file first so that a half written thumbnail is never used
+        final File tempFile = new File( thumbnailFile.getPath() + ".tmp" );
+        OutputStream out = null;
+        try
+        {
+            out = new FileOutputStream( tempFile );
+            bitmap.compress( Bitmap.CompressFormat.PNG, 100, out );
+            out.close();
+            out = null;
+
+            if( !tempFile.renameTo( thumbnailFile ) )
+                Log.w( "ThumbnailCache", "Unable to rename " + tempFile.getPath() );
+        }
+        catch( IOException e )
+        {
+            Log.w( "ThumbnailCache", "Unable to write " + thumbnailFile.getPath() + ": " + e );
+        }
+        finally
+        {
+            if( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch( IOException ignored )
+                {
+                }
+            }
+        }
+    }
+
+    private static int getThreadCount()
+    {
+        // Keep at least one core free for the UI thread
+        return Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors() - 1 ) );
+    }
+
+    /**
+     * Queue that hands out the most recently added task first
+     */
+    private static final class LifoBlockingDeque extends LinkedBlockingDeque<Runnable>
+    {
+        @Override
+        public boolean offer( Runnable runnable )
+        {
+            return super.offerFirst( runnable );
+        }
+    }
+
+    private static final class LoaderThreadFactory implements ThreadFactory
+    {
+        private int mThreadCount = 0;
+
+        @Override
+        public synchronized Thread newThread( final Runnable runnable )
+        {
+            return new Thread( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+                    runnable.run();
+                }
+            }, "ThumbnailLoader" + mThreadCount++ );
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package paulscode.android.mupen64plusae.persistent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads config files and saves them back, checking that only the changed values differ.
+ */
+public class ConfigFileTest
+{
+    private static final String ORIGINAL =
+            "# Generated file\n" +
+            "version=2\n" +
+            "\n" +
+            "[Core]\n" +
+            "; how fast the core runs\n" +
+            "Speed=100\n" +
+            "  indented=\"quoted value\"\n" +
+            "// old style comment\n" +
+            "\n" +
+            "[Video]\n" +
+            "Width=640\n" +
+            "Height=480\n";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mFile = File.createTempFile( "ConfigFileTest", ".cfg" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        if( !mFile.delete() )
+            mFile.deleteOnExit();
+        new File( mFile.getPath() + ".tmp" ).delete();
+    }
+
+    @Test
+    public void loadsSectionsAndValues() throws IOException
+    {
+        write( ORIGINAL );
+        final ConfigFile config = new ConfigFile( mFile.getPath() );
+
+        assertArrayEquals( new Object[] { ConfigFile.SECTIONLESS_NAME, "Core", "Video" },
+                config.keySet().toArray() );
+        assertEquals( "2", config.get( ConfigFile.SECTIONLESS_NAME, "version" ) );
+        assertEquals( "100", config.get( "Core", "Speed" ) );
+        assertEquals( "\"quoted value\"", config.get( "Core", "indented" ) );
+        assertEquals( "480", config.get( "Video", "Height" ) );
+        assertNull( config.get( "Video", "Depth" ) );
+        assertNull( config.get( "Audio", "Volume" ) );
+        assertFalse( config.isDirty() );
+    }
+
+    @Test
+    public void unchangedFileIsNotWritten() throws IOException
+    {
+        write( ORIGINAL );
+        final long lastModified = 1000000000000L;
+        assertTrue( mFile.setLastModified( lastModified ) );
+
+        final ConfigFile config = new ConfigFile( mFile.getPath() );
+        config.put( "Core", "Speed", "100" );
+        assertFalse( config.isDirty() );
+        assertTrue( config.save() );
+
+        assertEquals( lastModified, mFile.lastModified() );
+        assertEquals( ORIGINAL, read() );
+    }
+
+    @Test
+    public void roundTripKeepsCommentsAndBlankLines() throws IOException
+    {
+        write( ORIGINAL );
+        final ConfigFile config = new ConfigFile( mFile.getPath() );
+
+        // Changed and changed back, the file is written but nothing differs
+        config.put( "Video", "Width", "1280" );
+        config.put( "Video", "Width", "640" );
+        assertTrue( config.isDirty() );
+        assertTrue( config.save() );
+        assertFalse( config.isDirty() );
+
+        assertEquals( ORIGINAL, read() );
+    }
+
+    @Test
+    public void updatesValuesInPlace() throws IOException
+    {
+        write( ORIGINAL );
+        final ConfigFile config = new ConfigFile( mFile.getPath() );
+
+        config.put( "Core", "Speed", "150" );
+        config.put( "Core", "Mode", "fast" );
+        config.put( "Audio", "Volume", "7" );
+        assertTrue( config.save() );
+
+        final String expected =
+                "# Generated file\n" +
+                "version=2\n" +
+                "\n" +
+                "[Core]\n" +
+                "; how fast the core runs\n" +
+                "Speed=150\n" +
+                "  indented=\"quoted value\"\n" +
+                "// old style comment\n" +
+                "\n" +
+                "Mode=fast\n" +
+                "[Video]\n" +
+                "Width=640\n" +
+                "Height=480\n" +
+                "[Audio]\n" +
+                "Volume=7\n";
+        assertEquals( expected, read() );
+
+        final ConfigFile reloaded = new ConfigFile( mFile.getPath() );
+        assertEquals( "150", reloaded.get( "Core", "Speed" ) );
+        assertEquals( "fast", reloaded.get( "Core", "Mode" ) );
+        assertEquals( "7", reloaded.get( "Audio", "Volume" ) );
+    }
+
+    @Test
+    public void keysDifferingInCaseCollapse() throws IOException
+    {
+        write( "[Core]\nSpeed=100\nOther=1\nspeed=200\n" );
+        final ConfigFile config = new ConfigFile( mFile.getPath() );
+
+        // The last spelling wins, and takes the place of the first line
+        assertArrayEquals( new Object[] { "Other", "speed" }, config.get( "Core" ).keySet().toArray() );
+        assertEquals( "200", config.get( "Core", "speed" ) );
+        assertNull( config.get( "Core", "Speed" ) );
+
+        // Writing it with another case renames the line rather than adding one
+        config.put( "Core", "SPEED", "300" );
+        assertTrue( config.save() );
+        assertEquals( "[Core]\nOther=1\nSPEED=300\n", read() );
+    }
+
+    @Test
+    public void acceptsAnyLineBreak() throws IOException
+    {
+        write( "[Core]\r\nSpeed=100\rMode=fast\n" );
+        final ConfigFile config = new ConfigFile( mFile.getPath() );
+
+        assertEquals( "100", config.get( "Core", "Speed" ) );
+        assertEquals( "fast", config.get( "Core", "Mode" ) );
+        assertEquals( Arrays.asList( "Speed", "Mode" ),
+                Arrays.asList( config.get( "Core" ).keySet().toArray() ) );
+    }
+
+    private void write( String text ) throws IOException
+    {
+        final OutputStream out = new FileOutputStream( mFile );
+        try
+        {
+            out.write( text.getBytes( Charset.forName( "UTF-8" ) ) );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private String read() throws IOException
+    {
+        final byte[] bytes = new byte[(int) mFile.length()];
+        final InputStream in = new FileInputStream( mFile );
+        try
+        {
+            int offset = 0;
+            int count;
+            while( offset < bytes.length && ( count = in.read( bytes, offset, bytes.length - offset ) ) > 0 )
+                offset += count;
+        }
+        finally
+        {
+            in.close();
+        }
+        return new String( bytes, Charset.forName( "UTF-8" ) );
+    }
+}
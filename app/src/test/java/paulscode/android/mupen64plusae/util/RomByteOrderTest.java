@@ -0,0 +1,132 @@
+package paulscode.android.mupen64plusae.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link RomByteOrder} against the per-byte swap loops it replaced.
+ */
+public class RomByteOrderTest
+{
+    /** Long enough to cover several whole longs followed by every possible tail */
+    private static final int MAX_LENGTH = 300;
+
+    @Test
+    public void z64IsLeftAlone()
+    {
+        final byte[] image = randomImage( 0x80, MAX_LENGTH );
+        final byte[] swapped = image.clone();
+        RomByteOrder.toBigEndian( swapped, swapped.length, swapped[0] );
+        assertArrayEquals( image, swapped );
+    }
+
+    @Test
+    public void v64MatchesByteswapLoop()
+    {
+        for( int length = 0; length <= MAX_LENGTH; length++ )
+        {
+            final byte[] image = randomImage( RomByteOrder.V64_FIRST_BYTE, length );
+            final byte[] expected = image.clone();
+            oldByteswap( expected, length );
+
+            final byte[] swapped = image.clone();
+            RomByteOrder.toBigEndian( swapped, length, RomByteOrder.V64_FIRST_BYTE );
+            assertArrayEquals( "length " + length, expected, swapped );
+        }
+    }
+
+    @Test
+    public void n64MatchesWordswapLoop()
+    {
+        for( int length = 0; length <= MAX_LENGTH; length++ )
+        {
+            final byte[] image = randomImage( RomByteOrder.N64_FIRST_BYTE, length );
+            final byte[] expected = image.clone();
+            oldWordswap( expected, length );
+
+            final byte[] swapped = image.clone();
+            RomByteOrder.toBigEndian( swapped, length, RomByteOrder.N64_FIRST_BYTE );
+            assertArrayEquals( "length " + length, expected, swapped );
+        }
+    }
+
+    @Test
+    public void onlyTheGivenCountIsSwapped()
+    {
+        // Chunks read from a stream only fill the start of the buffer
+        final byte[] image = randomImage( RomByteOrder.N64_FIRST_BYTE, 64 );
+        final byte[] swapped = image.clone();
+        RomByteOrder.toBigEndian( swapped, 21, RomByteOrder.N64_FIRST_BYTE );
+
+        final byte[] expected = image.clone();
+        oldWordswap( expected, 21 );
+        assertArrayEquals( expected, swapped );
+        assertArrayEquals( Arrays.copyOfRange( image, 20, 64 ), Arrays.copyOfRange( swapped, 20, 64 ) );
+    }
+
+    @Test
+    public void directBufferKeepsItsState()
+    {
+        final byte[] image = randomImage( RomByteOrder.V64_FIRST_BYTE, 100 );
+        final ByteBuffer buffer = ByteBuffer.allocateDirect( image.length );
+        buffer.put( image );
+        buffer.position( 3 ).limit( 50 );
+
+        RomByteOrder.toBigEndian( buffer, image.length, RomByteOrder.V64_FIRST_BYTE );
+
+        assertEquals( 3, buffer.position() );
+        assertEquals( 50, buffer.limit() );
+
+        final byte[] expected = image.clone();
+        oldByteswap( expected, expected.length );
+        final byte[] swapped = new byte[image.length];
+        buffer.clear();
+        buffer.get( swapped );
+        assertArrayEquals( expected, swapped );
+    }
+
+    private static byte[] randomImage( int firstByte, int length )
+    {
+        final byte[] image = new byte[length];
+        new Random( length ).nextBytes( image );
+        if( length > 0 )
+            image[0] = (byte) firstByte;
+        return image;
+    }
+
+    /**
+     * The .v64 loop from before RomByteOrder. It went past the count on an odd tail, here it
+     * stops at the last whole group, which is what RomByteOrder does.
+     */
+    private static void oldByteswap( byte[] bytes, int byteCount )
+    {
+        for( int i = 0; i + 1 < byteCount; i += 2 )
+        {
+            byte temp = bytes[i];
+            bytes[i] = bytes[i + 1];
+            bytes[i + 1] = temp;
+        }
+    }
+
+    /**
+     * The .n64 loop from before RomByteOrder, also stopping at the last whole group.
+     */
+    private static void oldWordswap( byte[] bytes, int byteCount )
+    {
+        for( int i = 0; i + 3 < byteCount; i += 4 )
+        {
+            byte temp = bytes[i];
+            bytes[i] = bytes[i + 3];
+            bytes[i + 3] = temp;
+            temp = bytes[i + 1];
+            bytes[i + 1] = bytes[i + 2];
+            bytes[i + 2] = temp;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package paulscode.android.mupen64plusae.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link TextureInfo} against the regex it replaced.
+ */
+public class TextureInfoTest
+{
+    /** The pattern TextureInfo used to match texture names with */
+    private static final Pattern OLD_PATTERN = Pattern
+            .compile( "([^/]+)#([0-9a-fA-F]+)#([0-3])#([0-4])#?([^_]*)_"
+                    + "(ci\\.bmp|ciByRGBA\\.png|allciByRGBA\\.png|rgb\\.png|all\\.png)" );
+
+    /** Old suffixes by image format, with "ciByRGBA.png" spelled right */
+    private static final String[] OLD_SUFFIXES = { "ci.bmp", "ciByRGBA.png", "allciByRGBA.png", "rgb.png", "all.png" };
+
+    private static final String[] NAMES = {
+            "SUPER MARIO 64#4E3ACC5D#0#2#B0FA8A72_ciByRGBA.png",
+            "SUPER MARIO 64#4E3ACC5D#0#2_ciByRGBA.png",
+            "SUPER MARIO 64#4E3ACC5D#0#2#B0FA8A72_allciByRGBA.png",
+            "ZELDA MAJORA'S MASK#A4D2E3B1#2#0_rgb.png",
+            "ZELDA MAJORA'S MASK#A4D2E3B1#3#0_all.png",
+            "MARIOKART64#1B2C3D4E#1#2#FFFFFFFF_ci.bmp",
+            "packs/MARIOKART64/MARIOKART64#1B2C3D4E#1#2_ci.bmp",
+            "a/b/c/GOLDENEYE#0A0B0C0D#2#1_all.png",
+            // ROM headers containing '#'
+            "POKEMON #1#12345678#2#0_rgb.png",
+            "A#B#C#DEADBEEF#3#4#0000FFFF_all.png",
+            "#1#0#0#ABCDEF01#1#3_ciByRGBA.png",
+            "HEADER#1#0#0_rgb.png",
+            "HEADER#1#0#0#1#0#0_rgb.png",
+            // Not textures
+            "SUPER MARIO 64#4E3ACC5D#4#2_rgb.png",
+            "SUPER MARIO 64#4E3ACC5D#0#5_rgb.png",
+            "SUPER MARIO 64#XYZ#0#2_rgb.png",
+            "SUPER MARIO 64##0#2_rgb.png",
+            "SUPER MARIO 64#4E3ACC5D#0#2_rgb.jpg",
+            "SUPER MARIO 64#4E3ACC5D#0#2.png",
+            "SUPER MARIO 64#4E3ACC5D#0_rgb.png",
+            "SUPER MARIO 64#4E3ACC5D#0#2#PAL_ETTE_rgb.png",
+            "#4E3ACC5D#0#2_rgb.png",
+            "dir/#4E3ACC5D#0#2_rgb.png",
+            "readme.txt",
+            "_rgb.png",
+            "",
+    };
+
+    @Test
+    public void representativeNamesMatchRegex()
+    {
+        final TextureInfo info = new TextureInfo();
+        for( final String name : NAMES )
+            assertParsedLikeRegex( info, name );
+    }
+
+    @Test
+    public void ciByRgbaIsATexture()
+    {
+        // The old code compared against "ciByRBGA.png", so these were never counted
+        final TextureInfo info = new TextureInfo();
+        assertTrue( info.parse( "SUPER MARIO 64#4E3ACC5D#0#2#B0FA8A72_ciByRGBA.png" ) );
+        assertEquals( TextureInfo.IMAGE_FORMAT_RGBA_PNG_FOR_CI, info.getImageFormat() );
+        assertEquals( "SUPER MARIO 64", info.getRomName() );
+    }
+
+    @Test
+    public void headerWithHashUsesLastValidFields()
+    {
+        final TextureInfo info = new TextureInfo();
+        assertTrue( info.parse( "A#B#C#DEADBEEF#3#4#0000FFFF_all.png" ) );
+        assertEquals( "A#B#C", info.getRomName() );
+        assertTrue( info.parse( "HEADER#1#0#0#1#0#0_rgb.png" ) );
+        assertEquals( "HEADER#1#0#0", info.getRomName() );
+    }
+
+    @Test
+    public void failedParseForgetsPreviousName()
+    {
+        final TextureInfo info = new TextureInfo();
+        assertTrue( info.parse( "SUPER MARIO 64#4E3ACC5D#0#2_rgb.png" ) );
+        assertFalse( info.parse( "readme.txt" ) );
+        assertEquals( TextureInfo.IMAGE_FORMAT_INVALID, info.getImageFormat() );
+        assertEquals( "", info.getRomName() );
+    }
+
+    @Test
+    public void randomNamesMatchRegex()
+    {
+        // No '_' or '.' before the suffix, where the unanchored regex could match a name that
+        // merely contains a texture name, and no '/', see fieldsBeforeAFolderAreIgnored
+        final String alphabet = "#0123459ABFafxZ -'";
+        final Random random = new Random( 64 );
+        final TextureInfo info = new TextureInfo();
+        final StringBuilder name = new StringBuilder();
+        for( int n = 0; n < 200000; n++ )
+        {
+            name.setLength( 0 );
+            final int length = random.nextInt( 24 );
+            for( int i = 0; i < length; i++ )
+                name.append( alphabet.charAt( random.nextInt( alphabet.length() ) ) );
+            name.append( '_' ).append( OLD_SUFFIXES[random.nextInt( OLD_SUFFIXES.length )] );
+            assertParsedLikeRegex( info, name.toString() );
+        }
+    }
+
+    @Test
+    public void fieldsBeforeAFolderAreIgnored()
+    {
+        // The regex let the palette CRC run across folders, only the file name is parsed now
+        final String name = "GAME#1234ABCD#0#2/notes_rgb.png";
+        assertTrue( OLD_PATTERN.matcher( name ).find() );
+        assertFalse( new TextureInfo().parse( name ) );
+    }
+
+    @Test
+    public void classifierNamesPackLikeHashMapCount()
+    {
+        final String[] entries = new String[60];
+        for( int i = 0; i < entries.length; i++ )
+        {
+            // Three headers interleaved, with a few entries that aren't textures
+            final String header = i % 3 == 0 ? "FIRST#GAME" : i % 3 == 1 ? "SECOND GAME" : "THIRD";
+            entries[i] = i % 7 == 0 ? "folder/readme" + i + ".txt"
+                    : "folder/" + header + "#" + Integer.toHexString( i ) + "#" + i % 4 + "#" + i % 5
+                    + "_" + OLD_SUFFIXES[i % OLD_SUFFIXES.length];
+        }
+
+        final TextureInfo.Classifier classifier = new TextureInfo.Classifier();
+        final Map<String, Integer> romHeaderCount = new HashMap<>();
+        final int[] formatCounts = new int[TextureInfo.IMAGE_FORMAT_COUNT];
+        String expectedPackName = null;
+        int textureCount = 0;
+        for( final String entry : entries )
+        {
+            final Matcher m = OLD_PATTERN.matcher( entry );
+            if( m.find() )
+            {
+                textureCount++;
+                formatCounts[getOldImageFormat( m.group( 6 ) )]++;
+
+                Integer count = romHeaderCount.get( m.group( 1 ) );
+                count = count == null ? 1 : count + 1;
+                romHeaderCount.put( m.group( 1 ), count );
+                if( expectedPackName == null && count == 10 )
+                    expectedPackName = m.group( 1 );
+            }
+
+            assertEquals( entry, expectedPackName != null, classifier.add( entry ) );
+            assertEquals( entry, expectedPackName, classifier.getPackName() );
+        }
+
+        assertEquals( textureCount, classifier.getTextureCount() );
+        assertArrayEquals( formatCounts, classifier.getFormatCounts() );
+        assertTrue( classifier.getPackName() != null );
+    }
+
+    @Test
+    public void classifierGrowsWithManyHeaders()
+    {
+        final TextureInfo.Classifier classifier = new TextureInfo.Classifier();
+        for( int round = 0; round < 10; round++ )
+        {
+            assertNull( classifier.getPackName() );
+            for( int header = 0; header < 100; header++ )
+                classifier.add( "GAME " + header + "#1234ABCD#0#0_rgb.png" );
+        }
+
+        // Every header got to ten, the first one to do so names the pack
+        assertEquals( "GAME 0", classifier.getPackName() );
+        assertEquals( 1000, classifier.getFormatCount( TextureInfo.IMAGE_FORMAT_RGB_PNG ) );
+    }
+
+    private static void assertParsedLikeRegex( TextureInfo info, String name )
+    {
+        final Matcher m = OLD_PATTERN.matcher( name );
+        final boolean expected = m.find();
+
+        assertEquals( name, expected, info.parse( name ) );
+        if( expected )
+        {
+            assertEquals( name, m.group( 1 ), info.getRomName() );
+            assertEquals( name, getOldImageFormat( m.group( 6 ) ), info.getImageFormat() );
+        }
+        else
+        {
+            assertEquals( name, TextureInfo.IMAGE_FORMAT_INVALID, info.getImageFormat() );
+            assertEquals( name, "", info.getRomName() );
+        }
+    }
+
+    private static int getOldImageFormat( String suffix )
+    {
+        for( int i = 0; i < OLD_SUFFIXES.length; i++ )
+        {
+            if( OLD_SUFFIXES[i].equals( suffix ) )
+                return i;
+        }
+        return TextureInfo.IMAGE_FORMAT_INVALID;
+    }
+}
@@ -21,6 +21,8 @@
 
 #include <string.h>
 #include <stdio.h>
+#include <stdint.h>
+#include <time.h>
 #include <jni.h>
 #include <android/log.h>
 
@@ -71,9 +73,15 @@ static jclass _jniClass = NULL;
 static jmethodID _jniRumble = NULL;
 static int _androidPluggedState[4];
 static int _androidPakType[4];
-static unsigned char _androidButtonState[4][16];
-static signed char _androidAnalogX[4];
-static signed char _androidAnalogY[4];
+// Packed state of each controller, published by Java: button bits, then the x and y axis bytes
+static volatile int32_t* _androidState = NULL;
+// Sequence number of each controller's state, stored with release semantics after the state
+static volatile int32_t* _androidSequence = NULL;
+// Sequence number of the last state read and when it was first read, in ms on the uptimeMillis
+// clock, read by Java to measure input latency
+static volatile int32_t* _androidConsumedSequence = NULL;
+static volatile int32_t* _androidConsumedTime = NULL;
+static int32_t _androidLastSequence[4];
 static int _pluginInitialized = 0;
 static CONTROL* _controllerInfos = NULL;
 
@@ -122,13 +130,31 @@ extern jint JNI_OnLoad(JavaVM* vm, void* reserved)
 // JNI exported function definitions
 //*****************************************************************************
 
-JNIEXPORT void JNICALL Java_paulscode_android_mupen64plusae_jni_NativeInput_init(JNIEnv* env, jclass cls, jobject obj)
+JNIEXPORT void JNICALL Java_paulscode_android_mupen64plusae_jni_NativeInput_initPlugin(JNIEnv* env, jclass cls, jobject states)
 {
     DebugMessage(M64MSG_INFO, "init()");
 
     // Discard stale pointer
     _controllerInfos = NULL;
 
+    // The buffer is held by a static field, so it stays valid for as long as the class is loaded
+    _androidState = (volatile int32_t*) (*env)->GetDirectBufferAddress(env, states);
+    if (!_androidState)
+    {
+        DebugMessage(M64MSG_WARNING, "Couldn't access the controller state buffer");
+        _androidSequence = NULL;
+        _androidConsumedSequence = NULL;
+        _androidConsumedTime = NULL;
+    }
+    else
+    {
+        // Four ints of each kind, the states first
+        _androidSequence = _androidState + 4;
+        _androidConsumedSequence = _androidState + 8;
+        _androidConsumedTime = _androidState + 12;
+        memset(_androidLastSequence, 0, sizeof(_androidLastSequence));
+    }
+
     _jniClass = (jclass)(*env)->NewGlobalRef(env, cls);
 
     _jniRumble = (*env)->GetStaticMethodID(env, cls, "rumble", "(IZ)V");
@@ -156,19 +182,16 @@ JNIEXPORT void JNICALL Java_paulscode_android_mupen64plusae_jni_NativeInput_setC
     }
 }
 
-JNIEXPORT void JNICALL Java_paulscode_android_mupen64plusae_jni_NativeInput_setState(JNIEnv* env, jclass jcls, jint controllerNum, jbooleanArray mp64pButtons,
-        jint mp64pXAxis, jint mp64pYAxis)
+JNIEXPORT void JNICALL Java_paulscode_android_mupen64plusae_jni_NativeInput_publishState(JNIEnv* env, jclass jcls, jint controllerNum, jint state,
+        jint sequence)
 {
-    jboolean* elements = (*env)->GetBooleanArrayElements(env, mp64pButtons, NULL);
-    int b;
-    for (b = 0; b < 16; b++)
-    {
-        _androidButtonState[controllerNum][b] = elements[b];
-    }
-    (*env)->ReleaseBooleanArrayElements(env, mp64pButtons, elements, 0);
+    if (_androidState == NULL || controllerNum < 0 || controllerNum > 3)
+        return;
 
-    _androidAnalogX[controllerNum] = (signed char) ((int) mp64pXAxis);
-    _androidAnalogY[controllerNum] = (signed char) ((int) mp64pYAxis);
+    // GetKeys acquires the sequence number before reading the state, so a new sequence number is
+    // never seen along with an older state
+    __atomic_store_n(&_androidState[controllerNum], (int32_t) state, __ATOMIC_RELAXED);
+    __atomic_store_n(&_androidSequence[controllerNum], (int32_t) sequence, __ATOMIC_RELEASE);
 }
 
 //*****************************************************************************
@@ -283,17 +306,38 @@ EXPORT void CALL GetKeys(int controllerNum, BUTTONS* keys)
     // Reset the controller state
     keys->Value = 0;
 
+    if (_androidState == NULL || controllerNum < 0 || controllerNum > 3)
+        return;
+
+    // The sequence number is released after the state, so the state read next is at least as new
+    int32_t sequence = __atomic_load_n(&_androidSequence[controllerNum], __ATOMIC_ACQUIRE);
+
+    // Read the whole state at once, Java may be writing a newer one
+    int32_t state = _androidState[controllerNum];
+
+    // Record when a new state reaches the core, Java measures input latency against it
+    if (sequence != _androidLastSequence[controllerNum])
+    {
+        struct timespec now;
+        _androidLastSequence[controllerNum] = sequence;
+        if (clock_gettime(CLOCK_MONOTONIC, &now) == 0)
+        {
+            _androidConsumedTime[controllerNum] = (int32_t) ((int64_t) now.tv_sec * 1000 + now.tv_nsec / 1000000);
+            __atomic_store_n(&_androidConsumedSequence[controllerNum], sequence, __ATOMIC_RELEASE);
+        }
+    }
+
     // Set the button bits
     int b;
     for (b = 0; b < 16; b++)
     {
-        if (_androidButtonState[controllerNum][b])
+        if (state & (1 << b))
             keys->Value |= BUTTON_BITS[b];
     }
 
     // Set the analog bytes
-    keys->X_AXIS = _androidAnalogX[controllerNum];
-    keys->Y_AXIS = _androidAnalogY[controllerNum];
+    keys->X_AXIS = (signed char) (state >> 16);
+    keys->Y_AXIS = (signed char) (state >> 24);
 }
 
 EXPORT void CALL ControllerCommand(int controllerNum, unsigned char* command)